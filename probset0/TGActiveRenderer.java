@@ -0,0 +1,190 @@
+import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/*
+ * This class is the thread which draws a TGCanvas in active
+ * rendering mode, see TGCanvas.startActiveRendering().
+ *
+ * Normally a canvas is drawn when AWT gets around to calling
+ * paint() for a repaint() request, which may be coalesced with
+ * others or delayed behind other events; a game-like program that
+ * moves turtles on each keyPressed sees uneven frame rates.  In
+ * active mode repaint() requests are dropped and this thread draws
+ * the canvas at a fixed rate instead: each frame its graphics and
+ * turtles are composed in a back buffer, which is then copied to
+ * the display in one drawImage().
+ *
+ * TGCanvas is a lightweight Component, so it cannot have a
+ * BufferStrategy of its own (only Canvas and Window can).  The back
+ * buffer is a VolatileImage, which lives in video memory where the
+ * pipeline supports it, falling back to a BufferedImage when none
+ * can be had, e.g., with no display.
+ *
+ * The time between the last FRAME_HISTORY frames reaching the
+ * display is kept for getFrameTimes().
+ */
+
+class TGActiveRenderer extends Thread
+{
+
+   // constants
+   //
+   private static final int FRAME_HISTORY = 120;
+
+
+   // variables with class-wide scope
+   //
+   private int frameIdx;             // where the next frame time goes
+   private int numFrames;            // frame times recorded, up to
+                                     // FRAME_HISTORY
+   private long framePeriod;         // nanoseconds between frames
+   private long lastFrameTime;       // System.nanoTime() of last frame
+   private long[] frameTimes;        // nanoseconds, a ring
+   private volatile boolean stopped;
+   private Image backBuffer;         // VolatileImage or BufferedImage
+   private TGCanvas tgc;
+
+
+   //
+   // constructor
+   //
+   TGActiveRenderer( TGCanvas tgc, int framesPerSecond )
+   {
+      super( "TGActiveRenderer" );
+      setDaemon( true );
+      this.tgc = tgc;
+      framePeriod = 1000000000L / framesPerSecond;
+      frameTimes = new long[ FRAME_HISTORY ];
+   }
+
+
+   // make sure backBuffer is the canvas' size and, if volatile, still
+   // usable
+   //
+   private void checkBackBuffer( int width, int height )
+   {
+      if ( backBuffer != null && (backBuffer.getWidth(null) != width
+                                  || backBuffer.getHeight(null) != height) )
+      {
+         backBuffer.flush();
+         backBuffer = null;
+      }
+      if ( backBuffer instanceof VolatileImage )
+      {
+         VolatileImage vi = (VolatileImage) backBuffer;
+         GraphicsConfiguration gc = tgc.getGraphicsConfiguration();
+         if ( vi.validate(gc) != VolatileImage.IMAGE_INCOMPATIBLE )
+            return;
+         vi.flush();
+         backBuffer = null;
+      }
+      if ( backBuffer == null )
+      {
+         backBuffer = tgc.createVolatileImage( width, height );
+         if ( backBuffer == null )
+            backBuffer = new BufferedImage( width, height,
+                                            BufferedImage.TYPE_INT_RGB );
+      }
+
+   } // end checkBackBuffer()
+
+
+   // compose one frame in backBuffer and copy it to the display
+   //
+   private void drawFrame()
+   {
+      int width = tgc.canvasWidth();
+      int height = tgc.canvasHeight();
+      if ( width <= 0 || height <= 0 )
+         return;
+      do
+      {
+         checkBackBuffer( width, height );
+         Graphics g = backBuffer.getGraphics();
+         try { tgc.renderFrame( g ); }
+         finally { g.dispose(); }
+         g = tgc.getGraphics();
+         if ( g == null )
+            return;             // not on the display (yet)
+         try { g.drawImage( backBuffer, 0, 0, null ); }
+         finally { g.dispose(); }
+      } while ( backBuffer instanceof VolatileImage
+                && ((VolatileImage) backBuffer).contentsLost() );
+      Toolkit.getDefaultToolkit().sync();
+
+   } // end drawFrame()
+
+
+   public void run()
+   {
+      long nextFrame = System.nanoTime();
+      while ( ! stopped )
+      {
+         drawFrame();
+         long now = System.nanoTime();
+         synchronized ( this )
+         {
+            if ( lastFrameTime != 0 )
+            {
+               frameTimes[ frameIdx ] = now - lastFrameTime;
+               frameIdx = (frameIdx + 1) % FRAME_HISTORY;
+               if ( numFrames < FRAME_HISTORY )
+                  numFrames++;
+            }
+            lastFrameTime = now;
+         }
+
+         // fixed rate: the next frame is due a period after this one
+         // was, unless we have fallen more than a frame behind, in
+         // which case don't try to catch up with a burst of frames
+         nextFrame += framePeriod;
+         if ( now - nextFrame > framePeriod )
+            nextFrame = now;
+         long sleepNanos = nextFrame - now;
+         if ( sleepNanos > 0 )
+         {
+            try { Thread.sleep( sleepNanos / 1000000,
+                                (int) (sleepNanos % 1000000) ); }
+            catch ( InterruptedException ie ) { }
+         }
+      }
+      if ( backBuffer != null )
+         backBuffer.flush();
+
+   } // end run()
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   /*
+    * Return the time, in milliseconds, between each of the most
+    * recent frames reaching the display and the one before it,
+    * oldest first.
+    */
+   synchronized float[] getFrameTimes()
+   {
+      float[] times = new float[ numFrames ];
+      int idx = (frameIdx + FRAME_HISTORY - numFrames) % FRAME_HISTORY;
+      for ( int i=0; i < numFrames; i++ )
+      {
+         times[ i ] = frameTimes[ idx ] / 1000000.0F;
+         idx = (idx + 1) % FRAME_HISTORY;
+      }
+      return times;
+
+   } // end getFrameTimes()
+
+
+   void shutdown()
+   {
+      stopped = true;
+
+   } // end shutdown()
+
+} // end class TGActiveRenderer
@@ -10,13 +10,25 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.PixelGrabber;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.Math;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * This class is an implementation of a graphics window, a Java
@@ -35,16 +47,26 @@ import java.lang.Math;
  * - in-memory Image maintained with buffered operations to improve
  *   graphics display performance. 
  *
+ * - optionally, a retained display list of everything drawn since
+ *   the last clean() or setbg(), so the drawing can be rasterized
+ *   again at another scale or around another center point.  It is
+ *   compacted in the background (see TGCompactor) so redrawing the
+ *   same things over and over doesn't make it grow forever.
+ *
  * @author Guy Haas
  */
 public class TGCanvas extends Component
                       implements FocusListener, KeyListener,
-                                 MouseListener, MouseMotionListener
+                                 MouseListener, MouseMotionListener,
+                                 MouseWheelListener
 {
 
    // global constants
    //
-   public static final int MAX_TURTLES = 64;
+   public static final int CAPTURE_GIF = TGFrameCapture.GIF;  // formats for
+   public static final int CAPTURE_RAW = TGFrameCapture.RAW;  // startCapture()
+   public static final int MAX_TURTLES = 64;  // initial room for turtles,
+                                              // more is made as needed
    public static final int MINIMUM_HEIGHT = 40;
    public static final int MINIMUM_WIDTH = 40;
 
@@ -55,9 +77,13 @@ public class TGCanvas extends Component
 
    private static final Color INITIAL_BACKGROUND = Color.white;
    private static final Color INITIAL_PEN_COLOR = Color.black;
-   private static final int GI_HEIGHT = 1201;  // needs to be odd to allow for
-   private static final int GI_WIDTH = 1601;   // zero at center and equal num
+   private static final int GI_HEIGHT = 1201;  // initial size of graphicsImage,
+   private static final int GI_WIDTH = 1601;   // needs to be odd to allow for
+                                               // zero at center and equal num
                                                // of neg/pos ints above/below
+   static final float CLIP_LIMIT = 1 << 20;  // see clipGraphOp()
+   private static final int GI_CHUNK = 256;    // graphicsImage grows and
+                                               // shrinks by this much
 
    private final static int INIT_NUM_GRAFOPS = 500;  // initial size of pending
                                                      // graphics operations
@@ -71,24 +97,21 @@ public class TGCanvas extends Component
    private static final int INITIAL_PEN_SIZE = 2;
    private static final String INITIAL_FONT_NAME = "Courier";
 
-   private final static int NUM_KEYHANDLERS = 3;     // number of TGKeyHandler
-                                                     // objects supported. as of
-                                                     // v.9.29 (09/17/08) only
-                                                     // one object (TGDriver)
-                                                     // registers for callbacks
-   private final static int NUM_MOUSEHANDLERS = 3;   // number of TGMouseHandler
-                                                     // objects supported. as of
-                                                     // v.9.29 (09/17/08) only
-                                                     // one object (TGDriver)
-                                                     // registers for callbacks
+   private final static int NUM_GRAFOPHANDLERS = 3;  // number of
+                                                     // TGGraphicsOpHandler
+                                                     // objects supported
+
+   private static final int MAX_SUPERSAMPLING = 4;
+   private static final double MAX_VIEWPORT_ZOOM = 64.0;
+   private static final double MIN_VIEWPORT_ZOOM = 1.0 / 128;
+   private static final double WHEEL_ZOOM_STEP = Math.pow( 2.0, 0.25 );
    
    
    // the following STATES are needed by paint() due to the
    // async model provided by drawImage()
    private static final int PAINT_REFRESH = 0;
    private static final int PAINT_DRAW_GRAPHICS = 1;
-   private static final int PAINT_ERASE_TURTLES = 2;
-   private static final int PAINT_DRAW_TURTLES = 3;
+   private static final int PAINT_TURTLES = 2;
 
 
 
@@ -100,15 +123,38 @@ public class TGCanvas extends Component
                                         // mouseMoved Events to TGDriver
    private int canvasHeight;
    private int canvasWidth;
+   private int giHeight;                // size of graphicsImage, follows
+   private int giWidth;                 // the canvas' unless it is off-heap
+   private int displayListMark;         // how much of displayList has been
+                                        // rendered into graphicsImage
    private int numGraphicsOps;          // number of graphics operations that
                                         // are buffered in graphicsOps array
-   private int mouseX, mouseY;          // position of mouse when last clicked
+   private volatile int mouseX, mouseY; // where the mouse was last clicked or
+                                        // moved, as the handlers on the
+                                        // inputDispatcher's thread see it,
+                                        // see setMousePosition()
    private int paintState;              // used in paint() to determine what
                                         // needs to be done. drawImage() does
                                         // not necessarily complete and thus
                                         // forces follow-up passes of paint()
-   private int paintTurtleNum;          // used in paint() to determine which
-                                        // turtle is being erased/painted
+   private boolean indexedColor;        // keep graphicsImage as TGPalette
+                                        // indexes when possible
+   private boolean offPalette;          // something not in TGPalette was
+                                        // drawn since the last clean()
+   private boolean captureAll;          // all of the canvas has to go into
+                                        // the next captured frame
+   private Rectangle captureRect;       // what has changed on the canvas
+                                        // since the last captured frame
+   private double viewScale;            // graphicsImage shows TurtleSpace
+   private float viewX, viewY;          // scaled by viewScale around the
+                                        // point (viewX,viewY). only
+                                        // possible with a displayList
+   private double viewportZoom;         // the canvas shows graphicsImage
+   private float viewportX, viewportY;  // magnified by viewportZoom, its
+                                        // middle moved over by this many
+                                        // pixels. see setViewport()
+   private boolean viewportControls;    // mouse wheel zooms, right-drag pans
+   private int panFromX, panFromY;      // where a right-drag pan got to
    private int xCenter, yCenter;        // these AWT graphics coordinates will
                                         // be [0,0] for the TGCanvas
                                         // coordinate space. *NOTE* i tried
@@ -118,23 +164,66 @@ public class TGCanvas extends Component
                                         // up with lines with endpoints one
                                         // pixel apart instead of straight
    private Color background;
+   private Color giClearColor;          // color graphicsImage was last
+                                        // cleared to
+   private Color spareClearColor;       // same for spareImage
    private Image graphicsImage;         // in-memory Image for the composite
                                         // graphics - all the stuff on the
                                         // display except for the turtle(s)
-   private Rectangle[] turtleClipRect;  // clipRects used to draw turtle images
-   private Turtle[] turtles;            // array of turtles that want to be
-                                        // displayed 
+   private BufferedImage offHeapImage;  // when not null, graphicsImage, with
+                                        // its pixels in a TGOffHeapBuffer
+   private Image spareImage;            // when swapping on clear, the image
+                                        // that replaces graphicsImage next
+   private TGDirtyTiles giDirty;        // parts of graphicsImage drawn in
+                                        // since it was last cleared
+   private TGDirtyTiles spareDirty;     // same for spareImage
+   private TGSupersampler supersampler; // when not null, operations are
+                                        // rasterized at a multiple of
+                                        // graphicsImage's resolution
+   private TGPyramid pyramid;           // when not null, graphicsImage
+                                        // shrunk, for zooming out
+   private BufferedImage viewportImage; // where a zoomed or panned canvas
+                                        // is composed before it's shown
+   private TGImageClearer clearer;      // clears spareImage in background
+   private TGRenderThread renderThread; // when not null, performs graphics
+                                        // operations instead of paint()
+   private Object publishLock;          // guards publishedRect
+   private Rectangle publishedRect;     // part of the canvas renderThread
+                                        // has changed and paint() has yet
+                                        // to copy to the display
+   private Object turtleLock;           // guards turtles and numTurtles
+   private int numTurtles;              // turtles[0..numTurtles-1] are shown
+   private int numVisible;              // visibleTurtles[0..numVisible-1]
+                                        // were last drawn at visibleRects
+   private Rectangle[] visibleRects;    // where they were drawn
+   private Turtle[] visibleTurtles;     // shown turtles that were on the
+                                        // canvas when last painted
+   private BufferedImage overlayImage;  // where turtles are composited over
+   private int[] overlayPixels;         // graphicsImage, and its pixels
+   private TGActiveRenderer activeRenderer; // when not null, draws frames at
+                                        // a fixed rate instead of paint()
+   private TGCompactor compactor;       // keeps displayList's size bounded
+   private TGFrameCapture frameCapture; // when not null, animation frames
+                                        // are being recorded
+   private TGDisplayList displayList;   // when not null, every operation
+                                        // since the last clean()/setbg()
+   private TGSpatialIndex spatialIndex; // when not null, lines and labels
+                                        // drawn since the last clean()/setbg()
+                                        // for hit-testing, see opNear()
+   private Turtle[] turtles;            // turtles that want to be
+                                        // displayed, each knows its index
    private TGGraphicsOp[] graphicsOps;  // a list/queue of Graphics operations
                                         // pending processing
-   private TGKeyHandler[] keyHandlers;  // Objects that want their keyPressed()
-                                        // method invoked when our KeyListener
-                                        // interface: keyPressed() method
-                                        // is invoked, propagating key stuff
-   private TGMouseHandler[] mouseHandlers; // Objects that want their
-                                        // mouseClicked() method invoked when
-                                        // our MouseListener interface:
-                                        // mouseReleased() method is invoked,
-                                        // propagating mouse stuff
+   private TGGraphicsOpHandler[] grafOpHandlers; // Objects that want to see
+                                        // every graphics operation as it
+                                        // is added, e.g., TGSvgWriter
+   private TGDragBuffer dragBuffer;     // where the mouse has been dragged
+   private TGDragStroke dragStroke;     // when not null, draws what the
+                                        // mouse is dragged through
+   private TGInputDispatcher inputDispatcher; // propagates key and mouse
+                                        // stuff to TGKeyHandlers and
+                                        // TGMouseHandlers, off the AWT
+                                        // event dispatch thread
 
 
    //
@@ -157,8 +246,11 @@ public class TGCanvas extends Component
       addKeyListener(this);
       addMouseListener(this);
       addMouseMotionListener(this);
+      addMouseWheelListener(this);
       xCenter = canvasWidth / 2;
       yCenter = canvasHeight / 2;
+      giWidth = fitSize( GI_WIDTH, canvasWidth );
+      giHeight = fitSize( GI_HEIGHT, canvasHeight );
       Font font =  new Font( INITIAL_FONT_NAME,
                              INITIAL_FONT_STYLE,
                              INITIAL_FONT_SIZE
@@ -167,12 +259,18 @@ public class TGCanvas extends Component
       background = INITIAL_BACKGROUND;
       graphicsOps = new TGGraphicsOp[ INIT_NUM_GRAFOPS ];
       numGraphicsOps = 0;
-      keyHandlers = new TGKeyHandler[ NUM_KEYHANDLERS ];
-      mouseHandlers = new TGMouseHandler[ NUM_MOUSEHANDLERS ];
-      turtleClipRect = new Rectangle[ MAX_TURTLES ];
+      grafOpHandlers = new TGGraphicsOpHandler[ NUM_GRAFOPHANDLERS ];
+      inputDispatcher = new TGInputDispatcher( this );
+      dragBuffer = new TGDragBuffer();
       turtles = new Turtle[ MAX_TURTLES ];
+      turtleLock = new Object();
+      visibleRects = new Rectangle[ MAX_TURTLES ];
+      visibleTurtles = new Turtle[ MAX_TURTLES ];
       paintState = PAINT_REFRESH;
       gotFocus = false;
+      viewScale = 1.0;
+      viewportZoom = 1.0;
+      publishLock = new Object();
 
    } // end TGCanvas()
 
@@ -217,9 +315,7 @@ public class TGCanvas extends Component
       }
       if ( tgKeyNum == 0 )
          return;
-      for (int idx=0; idx < keyHandlers.length; idx++)
-         if ( keyHandlers[idx] != null )
-            keyHandlers[idx].keyPressed( tgKeyNum );
+      inputDispatcher.keyPressed( tgKeyNum );
 
    } // end keyPressed()
 
@@ -238,9 +334,7 @@ public class TGCanvas extends Component
       char ch = ke.getKeyChar();
       //System.out.println( "keyTyped: " + ch + ", " + (int) ch );
       //System.out.println( "          " + ke.getKeyCode() );
-      for (int idx=0; idx < keyHandlers.length; idx++)
-         if ( keyHandlers[idx] != null )
-            keyHandlers[idx].keyPressed( ch );
+      inputDispatcher.keyPressed( ch );
 
    } // end keyTyped()
 
@@ -333,18 +427,24 @@ public class TGCanvas extends Component
    public void mouseExited(MouseEvent me)
    { fwdMouseEvent( MouseEvent.MOUSE_EXITED, me ); }
    public void mousePressed(MouseEvent me)
-   { fwdMouseEvent( MouseEvent.MOUSE_PRESSED, me ); }
+   {
+      if ( me.getModifiersEx() == InputEvent.BUTTON1_DOWN_MASK )
+         addDragSample( me, true );
+      else if ( viewportControls
+                && me.getModifiersEx() == InputEvent.BUTTON3_DOWN_MASK )
+      {
+         panFromX = me.getX();
+         panFromY = me.getY();
+      }
+      fwdMouseEvent( MouseEvent.MOUSE_PRESSED, me );
+   }
 
    public void mouseReleased(MouseEvent me)
    {
       int modifiersMask = me.getModifiers();
       if ( modifiersMask == InputEvent.BUTTON1_MASK )
       {
-         mouseX = me.getX();
-         mouseY = me.getY();
-         for (int idx=0; idx < mouseHandlers.length; idx++)
-            if ( mouseHandlers[idx] != null )
-               mouseHandlers[idx].mouseClicked();
+         inputDispatcher.mouseClicked( me.getX(), me.getY() );
          this.requestFocus();
       }
       else
@@ -363,9 +463,25 @@ public class TGCanvas extends Component
 
    /**
     * Invoked when a mouse button is pressed on TGCanvas and
-    * the mouse is dragged.
+    * the mouse is dragged.  Left-button drags are recorded in
+    * the dragBuffer, for TGDragHandlers.  Right-button drags pan
+    * the viewport, when its controls are on.
     */
-   public void mouseDragged(MouseEvent me) { }
+   public void mouseDragged(MouseEvent me)
+   {
+      if ( (me.getModifiersEx() & InputEvent.BUTTON1_DOWN_MASK) != 0 )
+         addDragSample( me, false );
+      else if ( viewportControls
+                && (me.getModifiersEx() & InputEvent.BUTTON3_DOWN_MASK) != 0 )
+      {
+         // what was under the mouse stays under it
+         moveViewport( viewportZoom,
+                       (float) (viewportX - (me.getX() - panFromX) / viewportZoom),
+                       (float) (viewportY - (me.getY() - panFromY) / viewportZoom) );
+         panFromX = me.getX();
+         panFromY = me.getY();
+      }
+   }
 
 
    /**
@@ -376,16 +492,38 @@ public class TGCanvas extends Component
    {
       if ( gotFocus )
       {
-         mouseX = me.getX();
-         mouseY = me.getY();
-         for (int idx=0; idx < mouseHandlers.length; idx++)
-            if ( mouseHandlers[idx] != null )
-               mouseHandlers[idx].mouseMoved();
+         inputDispatcher.mouseMoved( me.getX(), me.getY() );
       }
    }
 
 
 
+   // ------------------ --------- ------
+   // MouseWheelListener interface method
+   // ------------------ --------- ------
+
+   /**
+    * Invoked when the mouse wheel is turned over the TGCanvas.
+    * When the viewport's controls are on, it zooms in or out
+    * around the mouse.
+    */
+   public void mouseWheelMoved(MouseWheelEvent mwe)
+   {
+      if ( ! viewportControls )
+         return;
+      double zoom = viewportZoom * Math.pow( WHEEL_ZOOM_STEP, -mwe.getWheelRotation() );
+      zoom = Math.max( MIN_VIEWPORT_ZOOM, Math.min(MAX_VIEWPORT_ZOOM, zoom) );
+      if ( Math.abs(zoom - 1.0) < 1e-9 )
+         zoom = 1.0;
+      // what is under the mouse stays under it
+      int dx = mwe.getX() - xCenter;
+      int dy = mwe.getY() - yCenter;
+      moveViewport( zoom, (float) (viewportX + dx / viewportZoom - dx / zoom),
+                    (float) (viewportY + dy / viewportZoom - dy / zoom) );
+   }
+
+
+
    //
    // support methods only used in this class
    //
@@ -405,59 +543,416 @@ public class TGCanvas extends Component
    }
 
 
+   // return the pixels of snap, which isn't giWidth x giHeight,
+   // centered in giWidth x giHeight of background, as
+   // fitGraphicsImage() keeps graphics centered
+   //
+   private int[] centerSnapshot( TGSnapshot snap )
+   {
+      int snapWidth = snap.getWidth();
+      int snapHeight = snap.getHeight();
+      int[] snapPixels = snap.getPixels();
+      int[] pixels = new int[ giWidth * giHeight ];
+      Arrays.fill( pixels, background.getRGB() & 0xffffff );
+      int dx = giWidth / 2 - snapWidth / 2;
+      int dy = giHeight / 2 - snapHeight / 2;
+      int left = Math.max( 0, dx );
+      int right = Math.min( giWidth, dx + snapWidth );
+      int top = Math.max( 0, dy );
+      int bottom = Math.min( giHeight, dy + snapHeight );
+      for ( int y=top; left < right && y < bottom; y++ )
+         System.arraycopy( snapPixels, (y - dy) * snapWidth + (left - dx),
+                           pixels, y * giWidth + left, right - left );
+      return pixels;
+
+   } // end centerSnapshot()
+
+
+   // fill graphicsImage with the background color.  only the parts
+   // drawn in since it was last cleared need it, unless the
+   // background has changed since.  when swapping on clear, the
+   // spare image, cleared in the background, is swapped in instead
+   // and the old one is handed to the clearer
+   //
    private void clearGraphicsImage()
    {
-      if ( graphicsImage != null )
+      synchronized ( graphicsOps )
       {
-         Graphics giGraphics = graphicsImage.getGraphics();
-         giGraphics.setClip( 0, 0, GI_WIDTH-1, GI_HEIGHT-1 );
-         giGraphics.setColor( background );
-         giGraphics.fillRect( 0, 0, GI_WIDTH-1, GI_HEIGHT-1 );
-         giGraphics.setColor( INITIAL_PEN_COLOR );
-         giGraphics.dispose();
+         if ( graphicsImage != null )
+         {
+            // being cleared, the images can go (back) to indexed
+            // or have to be RGB
+            boolean indexed = wantIndexed();
+            if ( TGPalette.isIndexed(graphicsImage) != indexed )
+            {
+               graphicsImage = newGraphicsImage();
+               giClearColor = null;
+            }
+            if ( clearer != null )
+            {
+               clearer.waitIdle();
+               if ( TGPalette.isIndexed(spareImage) != indexed )
+               {
+                  spareImage = newGraphicsImage();
+                  spareClearColor = null;
+               }
+               if ( background.equals(spareClearColor) )
+               {
+                  Image image = graphicsImage;
+                  graphicsImage = spareImage;
+                  spareImage = image;
+                  TGDirtyTiles dirty = giDirty;
+                  giDirty = spareDirty;
+                  spareDirty = dirty;
+                  Color color = giClearColor;
+                  giClearColor = spareClearColor;
+                  spareClearColor = color;
+               }
+               else
+                  TGImageClearer.clearImage( graphicsImage, giDirty,
+                                             giClearColor, background );
+               giClearColor = background;
+               clearer.clear( spareImage, spareDirty, spareClearColor,
+                              background );
+               spareClearColor = background;
+            }
+            else
+            {
+               TGImageClearer.clearImage( graphicsImage, giDirty,
+                                          giClearColor, background );
+               giClearColor = background;
+            }
+         }
+         if ( supersampler != null )
+            supersampler.clear( background );
+         if ( pyramid != null )
+            pyramid.invalidateAll();
+         captureAll = true;
       }
 
    } // end clearGraphicsImage()
 
 
+   // return op as it is to be performed on graphicsImage: null if
+   // it can't touch the image, a line reaching out past CLIP_LIMIT
+   // cut down to it, else op itself.  Only what is queued is
+   // clipped; the displayList, spatialIndex and the
+   // TGGraphicsOpHandlers get operations whole
+   //
+   private TGGraphicsOp clipGraphOp( TGGraphicsOp op )
+   {
+      float hafWidth = giWidth / 2;
+      float hafHeight = giHeight / 2;
+      if ( op instanceof TGLineOp )
+      {
+         TGLineOp line = (TGLineOp) op;
+         float margin = line.getPenWidth() + 1;
+         if ( line.clip(-hafWidth - margin, -hafHeight - margin,
+                        hafWidth + margin, hafHeight + margin) == null )
+            return null;
+         // an end that is moved gets rounded to another pixel, which
+         // can shift the whole line half a pixel, so ends are only
+         // pulled in from so far out that their pixel coordinates
+         // would overflow
+         return line.clip( -CLIP_LIMIT, -CLIP_LIMIT, CLIP_LIMIT, CLIP_LIMIT );
+      }
+      if ( op instanceof TGFillOp )
+      {
+         TGPoint point = ((TGFillOp) op).getPoint();
+         int x = point.imageX( giWidth );
+         int y = point.imageY( giHeight );
+         if ( x < 0 || x >= giWidth || y < 0 || y >= giHeight )
+            return null;
+      }
+      else if ( op instanceof TGLabelOp )
+      {
+         // text goes right and (mostly) up from where it starts;
+         // a conservative guess at its extent is good enough
+         TGLabelOp label = (TGLabelOp) op;
+         float x = label.getPoint().xFloatValue();
+         float y = label.getPoint().yFloatValue();
+         float size = label.getFont().getSize2D();
+         if ( x > hafWidth || x + label.getText().length() * size < -hafWidth
+              || y + size < -hafHeight || y - size > hafHeight )
+            return null;
+      }
+      else if ( op instanceof TGPolylineOp )
+      {
+         TGPolylineOp polyline = (TGPolylineOp) op;
+         float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+         float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+         for ( int i=0; i < polyline.getNumPoints(); i++ )
+         {
+            minX = Math.min( minX, polyline.getX(i) );
+            maxX = Math.max( maxX, polyline.getX(i) );
+            minY = Math.min( minY, polyline.getY(i) );
+            maxY = Math.max( maxY, polyline.getY(i) );
+         }
+         float margin = polyline.getPenWidth() + 1;
+         if ( minX > hafWidth + margin || maxX < -hafWidth - margin
+              || minY > hafHeight + margin || maxY < -hafHeight - margin )
+            return null;
+      }
+      return op;
+
+   } // end clipGraphOp()
+
+
+   // resize graphicsImage (see fitSize()) now that the canvas is a
+   // new size, keeping what is drawn around the center where it is.
+   // When graphics are retained, the display list is drawn into the
+   // new image again, so what fell outside the old one shows up too;
+   // as in setView(), flood fills bounded by the edge of the image
+   // can come out differently.  Otherwise the pixels are copied over
+   // in one block and what is new is the color the image was last
+   // cleared to; then it doesn't shrink while anything is drawn in
+   // it, which a smaller image couldn't hold all of.  Off-heap
+   // graphics keep the size they were given
+   //
+   private void fitGraphicsImage()
+   {
+      // Component's constructor gets here before ours has finished;
+      // ours sizes graphicsImage itself.  Nor is a canvas being laid
+      // out at zero size a reason to throw the graphics away
+      if ( graphicsOps == null
+           || canvasWidth < MINIMUM_WIDTH || canvasHeight < MINIMUM_HEIGHT )
+         return;
+      synchronized ( graphicsOps )
+      {
+         if ( offHeapImage != null )
+            return;
+         int width = fitSize( giWidth, canvasWidth );
+         int height = fitSize( giHeight, canvasHeight );
+         if ( displayList == null && giDirty != null && ! giDirty.isEmpty() )
+         {
+            width = Math.max( width, giWidth );
+            height = Math.max( height, giHeight );
+         }
+         if ( width == giWidth && height == giHeight )
+            return;
+         // what is queued was clipped to the image as it is
+         if ( numGraphicsOps > 0 )
+            renderGraphics();
+         int dx = width / 2 - giWidth / 2;
+         int dy = height / 2 - giHeight / 2;
+         giWidth = width;
+         giHeight = height;
+         pyramid = null;
+         if ( graphicsImage == null )
+            return;                     // renderGraphics() makes one
+         if ( clearer != null )
+         {
+            clearer.waitIdle();
+            spareImage = newGraphicsImage();
+            spareDirty = new TGDirtyTiles( giWidth, giHeight );
+            spareClearColor = null;
+         }
+         BufferedImage oldImage = (BufferedImage) graphicsImage;
+         if ( TGPalette.isIndexed(oldImage) )
+            graphicsImage = TGPalette.newImage( giWidth, giHeight );
+         else
+            graphicsImage = new BufferedImage( giWidth, giHeight,
+                                               BufferedImage.TYPE_INT_RGB );
+         giDirty = new TGDirtyTiles( giWidth, giHeight );
+         if ( supersampler != null )
+         {
+            int scale = supersampler.getScale();
+            try { supersampler = new TGSupersampler( giWidth, giHeight, scale ); }
+            catch ( OutOfMemoryError oome )
+            {
+               supersampler = null;
+               sysErr( ".fitGraphicsImage: no room for supersampling" );
+            }
+         }
+         if ( displayList != null )
+         {
+            TGImageClearer.clearImage( graphicsImage, giDirty, null, background );
+            giClearColor = background;
+            if ( supersampler != null )
+               supersampler.clear( background );
+            redrawGraphics();
+         }
+         else
+         {
+            // same kind of raster, so this is one block copy
+            TGImageClearer.clearImage( graphicsImage, giDirty, null, giClearColor );
+            ((BufferedImage) graphicsImage).getRaster().setRect( dx, dy,
+                                                                 oldImage.getRaster() );
+            giDirty.addAll();
+            if ( supersampler != null )
+            {
+               supersampler.clear( giClearColor );
+               supersampler.expand( (BufferedImage) graphicsImage,
+                                    new Rectangle(0, 0, giWidth, giHeight) );
+            }
+         }
+      }
+      paintState = PAINT_REFRESH;
+      captureAll = true;
+
+   } // end fitGraphicsImage()
+
+
+   // return how big graphicsImage should be across (or down) for a
+   // canvas canvasSize across, when it is size now.  It stays as it
+   // is while it covers the canvas without being more than twice as
+   // big, give or take a couple of GI_CHUNKs, so dragging a window's
+   // corner doesn't reallocate it every pixel; otherwise it becomes
+   // half again as big as the canvas, rounded up to GI_CHUNKs, and
+   // odd, so there is a middle
+   //
+   private static int fitSize( int size, int canvasSize )
+   {
+      if ( size >= canvasSize && size <= 2 * (canvasSize + GI_CHUNK) )
+         return size;
+      int chunks = (canvasSize + canvasSize / 2 + GI_CHUNK - 1) / GI_CHUNK;
+      return chunks * GI_CHUNK + 1;
+
+   } // end fitSize()
+
+
+   // the graphicsImage is a BufferedImage, not a createImage() peer
+   // image, so that it exists (and can be rasterized into) before
+   // we are displayed
    private void initGraphicsImage()
    {
-      graphicsImage = createImage( GI_WIDTH, GI_HEIGHT );
+      graphicsImage = newGraphicsImage();
+      giDirty = new TGDirtyTiles( giWidth, giHeight );
+      giClearColor = null;
       clearGraphicsImage();
 
    } // end initGraphicsImage()
 
 
-   // apply all outstanding graphics operations to graphicsImage.
-   // return a clipRect for area of me (TGCanvas extends Component)
-   // that is to be painted into, based on bits changed in the
-   // graphicsImage
+   // return a new, black, image for graphicsImage (or spareImage),
+   // indexed if it can be.  off-heap graphics are never replaced
+   //
+   private Image newGraphicsImage()
+   {
+      if ( offHeapImage != null )
+         return offHeapImage;
+      if ( wantIndexed() )
+         return TGPalette.newImage( giWidth, giHeight );
+      return new BufferedImage( giWidth, giHeight, BufferedImage.TYPE_INT_RGB );
+
+   } // end newGraphicsImage()
+
+
+   // graphicsImage is indexed and something that isn't in the
+   // palette is about to be drawn: replace it with an RGB copy
+   //
+   private void promoteGraphicsImage()
+   {
+      BufferedImage image = new BufferedImage( giWidth, giHeight,
+                                               BufferedImage.TYPE_INT_RGB );
+      Graphics g = image.getGraphics();
+      g.drawImage( graphicsImage, 0, 0, null );
+      g.dispose();
+      graphicsImage = image;
+
+   } // end promoteGraphicsImage()
+
+
+   // graphicsImage has been cleared (or thrown away): have the
+   // display list, if there is one, drawn into it again from the
+   // start, and wake the render thread up to do it, since no new
+   // operation will.  the caller holds the graphicsOps lock
+   //
+   private void redrawGraphics()
+   {
+      displayListMark = 0;
+      if ( renderThread != null )
+         graphicsOps.notifyAll();
+
+   } // end redrawGraphics()
+
+
+   // true when graphicsImage can be, and should be, indexed
+   //
+   private boolean wantIndexed()
+   {
+      return indexedColor && ! offPalette && offHeapImage == null
+             && supersampler == null && TGPalette.indexOf( background ) >= 0;
+
+   } // end wantIndexed()
+
+
+   // apply all outstanding graphics operations to graphicsImage,
+   // adding each one's area to giDirty by itself.  return a
+   // clipRect for area of me (TGCanvas extends Component) that is
+   // to be painted into, based on bits changed in the graphicsImage
    private Rectangle renderGraphics()
    {
-      int giLeftX = GI_WIDTH;
+      int giLeftX = giWidth;
       int giRightX = -1;
-      int giUpperY = GI_HEIGHT;
+      int giUpperY = giHeight;
       int giLowerY = -1;
-      if ( graphicsImage == null )
-      {
-         initGraphicsImage();
-         giLeftX = 0;
-         giRightX = GI_WIDTH-1;
-         giUpperY = 0;
-         giLowerY = GI_HEIGHT-1;
-      }
       synchronized ( graphicsOps )
       {
+         if ( graphicsImage == null )
+         {
+            initGraphicsImage();
+            giLeftX = 0;
+            giRightX = giWidth-1;
+            giUpperY = 0;
+            giLowerY = giHeight-1;
+         }
+         if ( displayList != null )
+         {
+            // when graphics are retained, operations are not queued;
+            // whatever was added to the displayList since last time
+            // is rendered, in the current view
+            int end = displayList.mark();
+            Rectangle clipRect = null;
+            if ( supersampler == null )
+               clipRect = displayList.render( graphicsImage, viewScale,
+                                              viewX, viewY, displayListMark,
+                                              giDirty );
+            else
+               for ( int mark=displayListMark; mark < end;
+                     mark=displayList.next(mark) )
+               {
+                  Rectangle opRect =
+                     supersampler.render( displayList.getOp(mark),
+                                          (BufferedImage) graphicsImage,
+                                          viewScale, viewX, viewY );
+                  if ( opRect == null )
+                     continue;
+                  giDirty.add( opRect.x, opRect.y, opRect.width,
+                               opRect.height );
+                  if ( clipRect == null )
+                     clipRect = opRect;
+                  else
+                     clipRect.add( opRect );
+               }
+            if ( clipRect != null )
+            {
+               giLeftX = Math.min( giLeftX, clipRect.x );
+               giUpperY = Math.min( giUpperY, clipRect.y );
+               giRightX = Math.max( giRightX, clipRect.x+clipRect.width-1 );
+               giLowerY = Math.max( giLowerY, clipRect.y+clipRect.height-1 );
+            }
+            displayListMark = end;
+         }
          for ( int opIdx=0; opIdx < numGraphicsOps; opIdx++ )
          {
             TGGraphicsOp op = graphicsOps[opIdx];
             graphicsOps[opIdx] = null;
             Rectangle clipRect = null;
-            try { clipRect = op.doIt( graphicsImage ); }
+            try
+            {
+               if ( supersampler == null )
+                  clipRect = op.doIt( graphicsImage );
+               else
+                  clipRect = supersampler.render( op, (BufferedImage) graphicsImage,
+                                                  viewScale, viewX, viewY );
+            }
             catch ( NullPointerException npe )
 	    { sysErr(".renderGraphics(): " + npe + " performing " + op); }
             if ( clipRect != null )
             {
+               giDirty.add( clipRect.x, clipRect.y, clipRect.width,
+                            clipRect.height );
                if ( clipRect.x < giLeftX )
                   giLeftX = clipRect.x;
                if ( clipRect.y < giUpperY )
@@ -472,9 +967,14 @@ public class TGCanvas extends Component
          }
          numGraphicsOps = 0;
          graphicsOps.notifyAll();
+         if ( supersampler != null )
+            supersampler.resolve( (BufferedImage) graphicsImage );
+         if ( pyramid != null )
+            pyramid.invalidate( giLeftX, giUpperY, giRightX + 1 - giLeftX,
+                                giLowerY + 1 - giUpperY );
       }
       int width = (giRightX + 1) - giLeftX;
-      int widthInset = (GI_WIDTH - canvasWidth) / 2;
+      int widthInset = (giWidth - canvasWidth) / 2;
       int canvasLeftX = giLeftX - widthInset;
       if ( canvasLeftX < 0 )    // if negative, at least some of the
       {                         // painted pixels are to the left of
@@ -484,7 +984,7 @@ public class TGCanvas extends Component
       if ( width > canvasWidth )
          width = canvasWidth;
       int height = (giLowerY + 1) - giUpperY;
-      int heightInset = (GI_HEIGHT - canvasHeight) / 2;
+      int heightInset = (giHeight - canvasHeight) / 2;
       int canvasUpperY = giUpperY - heightInset;
       if ( canvasUpperY < 0 )
       {
@@ -500,6 +1000,343 @@ public class TGCanvas extends Component
    } // end renderGraphics()
 
 
+   // record where the mouse is in the dragBuffer and tell the
+   // TGDragHandlers
+   //
+   private void addDragSample( MouseEvent me, boolean startsStroke )
+   {
+      float x = (float) toTurtleX( me.getX() );
+      float y = (float) toTurtleY( me.getY() );
+      dragBuffer.add( x, y, me.getWhen(), startsStroke );
+      inputDispatcher.mouseDragged( dragBuffer );
+
+   } // end addDragSample()
+
+
+   // while frames are being captured, remember that rect of the
+   // canvas has changed
+   //
+   private void addCaptureRect( Rectangle rect )
+   {
+      if ( rect == null )
+         return;
+      if ( captureRect == null )
+         captureRect = new Rectangle( rect );
+      else
+         captureRect.add( rect );
+
+   } // end addCaptureRect()
+
+
+   // hand what changed on the canvas since the last frame, turtles
+   // included, to frameCapture
+   //
+   private void captureFrame()
+   {
+      if ( captureAll )
+         captureRect = new Rectangle( 0, 0, canvasWidth, canvasHeight );
+      if ( captureRect == null || graphicsImage == null )
+         return;
+      frameCapture.captureFrame( graphicsImage,
+                                 (giWidth - canvasWidth) / 2,
+                                 (giHeight - canvasHeight) / 2,
+                                 captureRect, visibleTurtles, visibleRects );
+      captureAll = false;
+      captureRect = null;
+
+   } // end captureFrame()
+
+
+   // copy region of the canvas' graphics into overlayImage, at its
+   // upper left corner, and draw the turtles over it
+   //
+   private void compositeTurtles( Rectangle region )
+   {
+      if ( overlayImage == null || overlayImage.getWidth() < region.width
+           || overlayImage.getHeight() < region.height )
+      {
+         int width = region.width;
+         int height = region.height;
+         if ( overlayImage != null )
+         {
+            width = Math.max( width, overlayImage.getWidth() );
+            height = Math.max( height, overlayImage.getHeight() );
+         }
+         overlayImage = new BufferedImage( width, height,
+                                           BufferedImage.TYPE_INT_RGB );
+         DataBufferInt buffer = (DataBufferInt) overlayImage.getRaster().getDataBuffer();
+         overlayPixels = buffer.getData();
+      }
+      int scanSize = overlayImage.getWidth();
+      if ( graphicsImage == null )
+      {
+         int rgb = background.getRGB();
+         for ( int y=0; y < region.height; y++ )
+            Arrays.fill( overlayPixels, y * scanSize, y * scanSize + region.width,
+                         rgb );
+      }
+      else
+      {
+         int giX = region.x + (giWidth - canvasWidth) / 2;
+         int giY = region.y + (giHeight - canvasHeight) / 2;
+         TGPalette.getRGB( (BufferedImage) graphicsImage, giX, giY,
+                           region.width, region.height, overlayPixels,
+                           0, scanSize );
+      }
+      for ( int idx=0; idx < numVisible; idx++ )
+      {
+         Rectangle rect = visibleRects[idx];
+         Rectangle clip = rect.intersection( region );
+         if ( clip.isEmpty() )
+            continue;
+         int[] turtlePixels = visibleTurtles[idx].getImagePixels();
+         if ( turtlePixels.length < rect.width * rect.height )
+            continue;           // its shape changed since findVisibleTurtles()
+         for ( int y=clip.y; y < clip.y + clip.height; y++ )
+         {
+            int src = (y - rect.y) * rect.width + (clip.x - rect.x);
+            int dst = (y - region.y) * scanSize + (clip.x - region.x);
+            for ( int x=0; x < clip.width; x++ )
+            {
+               int argb = turtlePixels[ src + x ];
+               if ( (argb >>> 24) >= 0x80 )
+                  overlayPixels[ dst + x ] = argb;
+            }
+         }
+      }
+
+   } // end compositeTurtles()
+
+
+   // draw the part of graphicsImage the viewport shows over the
+   // whole canvas.  Zoomed out, the pyramid level nearest the zoom
+   // is scaled instead, so the cost doesn't depend on how much of
+   // graphicsImage is shown
+   //
+   private void drawViewport( Graphics g )
+   {
+      g.setColor( background );
+      g.fillRect( 0, 0, canvasWidth, canvasHeight );
+      synchronized ( graphicsOps )
+      {
+         if ( graphicsImage == null )
+            return;
+         BufferedImage image = (BufferedImage) graphicsImage;
+         double scale = viewportZoom;
+         // the point of image at the canvas' top-left corner
+         double left = (giWidth - canvasWidth) / 2 + xCenter + viewportX
+                       - xCenter / viewportZoom;
+         double top = (giHeight - canvasHeight) / 2 + yCenter + viewportY
+                      - yCenter / viewportZoom;
+         if ( viewportZoom < 1.0 )
+         {
+            int level = pyramidLevel( viewportZoom );
+            if ( level > 0 )
+            {
+               image = pyramid.getImage( level );
+               scale *= 1 << level;
+               left /= 1 << level;
+               top /= 1 << level;
+            }
+         }
+         int srcLeft = Math.max( 0, (int) Math.floor(left) );
+         int srcTop = Math.max( 0, (int) Math.floor(top) );
+         int srcRight = Math.min( image.getWidth(),
+                                  (int) Math.ceil(left + canvasWidth / scale) );
+         int srcBottom = Math.min( image.getHeight(),
+                                   (int) Math.ceil(top + canvasHeight / scale) );
+         if ( srcLeft >= srcRight || srcTop >= srcBottom )
+            return;
+
+         // only the part shown is handed to drawImage(); Java2D copies
+         // images it can't scale directly, e.g., off-heap ones, first
+         BufferedImage part = image.getSubimage( srcLeft, srcTop,
+                                                 srcRight - srcLeft,
+                                                 srcBottom - srcTop );
+         Graphics2D g2 = (Graphics2D) g;
+         g2.setRenderingHint( RenderingHints.KEY_INTERPOLATION,
+                              scale < 1.0
+                              ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                              : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+         g2.drawImage( part, (int) Math.round( (srcLeft - left) * scale ),
+                       (int) Math.round( (srcTop - top) * scale ),
+                       (int) Math.round( (srcRight - left) * scale ),
+                       (int) Math.round( (srcBottom - top) * scale ),
+                       0, 0, part.getWidth(), part.getHeight(), null );
+      }
+
+   } // end drawViewport()
+
+
+   // fill visibleTurtles and visibleRects with the shown turtles
+   // whose images are on the canvas, and where; the rest are culled
+   //
+   private void findVisibleTurtles()
+   {
+      Rectangle bounds = new Rectangle( 0, 0, canvasWidth, canvasHeight );
+      int oldNumVisible = numVisible;
+      numVisible = 0;
+      synchronized ( turtleLock )
+      {
+         if ( visibleTurtles.length < turtles.length )
+         {
+            visibleTurtles = new Turtle[ turtles.length ];
+            visibleRects = new Rectangle[ turtles.length ];
+            oldNumVisible = 0;
+         }
+         for ( int idx=0; idx < numTurtles; idx++ )
+         {
+            Rectangle rect = imageRect( turtles[idx] );
+            if ( ! rect.intersects(bounds) )
+               continue;
+            visibleTurtles[ numVisible ] = turtles[idx];
+            visibleRects[ numVisible++ ] = rect;
+         }
+      }
+
+      // TGFrameCapture looks at the whole arrays
+      for ( int idx=numVisible; idx < oldNumVisible; idx++ )
+      {
+         visibleTurtles[idx] = null;
+         visibleRects[idx] = null;
+      }
+
+   } // end findVisibleTurtles()
+
+
+   // return where turtle's image goes on the canvas
+   //
+   private Rectangle imageRect( Turtle turtle )
+   {
+      double x = (turtle.xcor()-viewX)*viewScale - viewportX;
+      double y = -(turtle.ycor()-viewY)*viewScale - viewportY;
+      int turtleX = (int) Math.rint( x*viewportZoom + xCenter );
+      int turtleY = (int) Math.rint( y*viewportZoom + yCenter );
+      int imgSz = turtle.getImageSideSize();
+      return new Rectangle( turtleX - imgSz/2, turtleY - imgSz/2, imgSz, imgSz );
+
+   } // end imageRect()
+
+
+   // move the viewport, see setViewport(), and show it
+   //
+   private void moveViewport( double zoom, float x, float y )
+   {
+      synchronized ( graphicsOps )
+      {
+         viewportZoom = zoom;
+         viewportX = x;
+         viewportY = y;
+      }
+      paintState = PAINT_REFRESH;
+      repaint();
+
+   } // end moveViewport()
+
+
+   // paint() when the viewport isn't the normal one: all of the
+   // canvas changes when anything does, so the whole frame is
+   // composed in viewportImage and copied to the display in one go
+   //
+   private void paintViewport( Graphics g )
+   {
+      if ( canvasWidth <= 0 || canvasHeight <= 0 )
+         return;
+      if ( viewportImage == null || viewportImage.getWidth() != canvasWidth
+           || viewportImage.getHeight() != canvasHeight )
+         viewportImage = new BufferedImage( canvasWidth, canvasHeight,
+                                            BufferedImage.TYPE_INT_RGB );
+      Graphics vg = viewportImage.getGraphics();
+      renderFrame( vg );
+      vg.dispose();
+      g.drawImage( viewportImage, 0, 0, this );
+      paintState = PAINT_REFRESH;
+
+   } // end paintViewport()
+
+
+   // bring the pyramid up to date and return the level of it to draw
+   // graphicsImage at scale from, 0 meaning graphicsImage itself.
+   // Off-heap graphics can be too big for the first level kept, but
+   // a good deal smaller is too much to read every time
+   //
+   private int pyramidLevel( double scale )
+   {
+      if ( pyramid == null )
+         pyramid = new TGPyramid( giWidth, giHeight );
+      pyramid.update( (BufferedImage) graphicsImage );
+      int level = pyramid.levelFor( scale );
+      if ( level == 0 && offHeapImage != null && scale < 0.5
+           && pyramid.getNumLevels() > 1 )
+         level = pyramid.getFirstLevel();
+      return level;
+
+   } // end pyramidLevel()
+
+
+   // move the turtles: return the parts of the canvas to repaint,
+   // where turtles were last drawn and where they are now, with
+   // overlapping rectangles merged.  Each is painted with a single
+   // drawImage() of overlayImage
+   //
+   private Rectangle[] turtleRegions()
+   {
+      Rectangle bounds = new Rectangle( 0, 0, canvasWidth, canvasHeight );
+      Rectangle[] oldRects = Arrays.copyOf( visibleRects, numVisible );
+      findVisibleTurtles();
+      int numRegions = oldRects.length + numVisible;
+      Rectangle[] regions = new Rectangle[ numRegions ];
+      for ( int idx=0; idx < oldRects.length; idx++ )
+         regions[idx] = oldRects[idx].intersection( bounds );
+      for ( int idx=0; idx < numVisible; idx++ )
+         regions[ oldRects.length+idx ] = visibleRects[idx].intersection( bounds );
+
+      // merging two rectangles may make the result overlap one
+      // already looked at, so go around until nothing merges
+      boolean merged = true;
+      while ( merged )
+      {
+         merged = false;
+         for ( int i=0; i < numRegions; i++ )
+         {
+            if ( regions[i] == null )
+               continue;
+            for ( int j=i+1; j < numRegions; j++ )
+               if ( regions[j] != null && regions[i].intersects(regions[j]) )
+               {
+                  regions[i].add( regions[j] );
+                  regions[j] = null;
+                  merged = true;
+               }
+         }
+      }
+      return regions;
+
+   } // end turtleRegions()
+
+
+   // convert AWT coordinates on the canvas to TurtleSpace, through
+   // the viewport and then the view
+   //
+   private double toTurtleX( int x )
+   { return ((x - xCenter) / viewportZoom + viewportX) / viewScale + viewX; }
+
+   private double toTurtleY( int y )
+   { return -((y - yCenter) / viewportZoom + viewportY) / viewScale + viewY; }
+
+
+   // true when TurtleSpace is drawn into graphicsImage as is
+   //
+   private boolean isIdentityView()
+   { return viewScale == 1.0 && viewX == 0.0F && viewY == 0.0F; }
+
+
+   // true when the canvas shows graphicsImage as is
+   //
+   private boolean isIdentityViewport()
+   { return viewportZoom == 1.0 && viewportX == 0.0F && viewportY == 0.0F; }
+
+
    /*
     * print an error message to console tying it to this class
     */
@@ -529,9 +1366,16 @@ public class TGCanvas extends Component
    public void paint(Graphics g)
    {
       //System.out.println("TGCanvas.paint: got here!");
+      if ( activeRenderer != null )
+         return;                // the next frame will cover it
+      if ( ! isIdentityViewport() )
+      {
+         paintViewport( g );
+         return;
+      }
       Rectangle rect = g.getClipBounds();
-      int heightDiff = (GI_HEIGHT - canvasHeight) / 2;
-      int widthDiff = (GI_WIDTH - canvasWidth) / 2;
+      int heightDiff = (giHeight - canvasHeight) / 2;
+      int widthDiff = (giWidth - canvasWidth) / 2;
       switch ( paintState )
       {
          case PAINT_REFRESH:
@@ -545,60 +1389,107 @@ public class TGCanvas extends Component
                   return;
             paintState = PAINT_DRAW_GRAPHICS;
          case PAINT_DRAW_GRAPHICS:
-            rect = renderGraphics();
+            if ( renderThread != null )
+            {
+               synchronized ( publishLock )
+               {
+                  rect = publishedRect;
+                  publishedRect = null;
+               }
+            }
+            else
+               rect = renderGraphics();
+            if ( frameCapture != null )
+               addCaptureRect( rect );
             if ( rect != null )
             {
                g.setClip( rect );
                if ( ! g.drawImage(graphicsImage, -widthDiff, -heightDiff, this) )
                   return;
             }
-            paintState = PAINT_ERASE_TURTLES;
-            paintTurtleNum = 0;
-         case PAINT_ERASE_TURTLES:
-            while ( paintTurtleNum < turtleClipRect.length )
-            {
-               if ( (rect = turtleClipRect[paintTurtleNum]) != null )
-               {
-                  g.setClip( rect );
-                  if ( ! g.drawImage(graphicsImage, -widthDiff, -heightDiff, this) )
-                     return;
-                  turtleClipRect[paintTurtleNum] = null;
-               }
-               paintTurtleNum++;
-            }
-            paintState = PAINT_DRAW_TURTLES;
-            paintTurtleNum = 0;
-         case PAINT_DRAW_TURTLES:
-            while ( paintTurtleNum < turtles.length )
+            paintState = PAINT_TURTLES;
+         case PAINT_TURTLES:
+            Rectangle[] regions = turtleRegions();
+            for ( int idx=0; idx < regions.length; idx++ )
             {
-               Turtle turtle = turtles[paintTurtleNum];
-               if ( turtle != null )
-               {
-                  int turtleX = (int) Math.rint( turtle.xcor() + xCenter );
-                  int turtleY = (int) Math.rint( yCenter - turtle.ycor() );
-                  int imgSz = turtle.getImageSideSize();
-                  int imgLeftX = turtleX - imgSz/2;
-                  int imgTopY = turtleY - imgSz/2;
-                  g.setClip( imgLeftX, imgTopY, imgSz, imgSz);
-                  if ( ! g.drawImage (turtle.getImage(), imgLeftX, imgTopY, this) )
-                     return;
-                  turtleClipRect[paintTurtleNum] = new Rectangle(imgLeftX, imgTopY, imgSz, imgSz);
-               }
-               paintTurtleNum++;
+               rect = regions[idx];
+               if ( rect == null )
+                  continue;
+               if ( frameCapture != null )
+                  addCaptureRect( rect );
+               compositeTurtles( rect );
+               g.setClip( rect );
+               g.drawImage( overlayImage, rect.x, rect.y,
+                            rect.x + rect.width, rect.y + rect.height,
+                            0, 0, rect.width, rect.height, this );
             }
             paintState = PAINT_REFRESH;
+            if ( frameCapture != null )
+               captureFrame();
       }
 
    } //end paint()
 
 
-   public void setBounds( int x, int y, int width, int height )
+   /**
+    * Now that we can be displayed, start performing graphics
+    * operations on a render thread instead of in paint().
+    */
+   public void addNotify()
    {
-      super.setBounds( x, y, width, height );
-      canvasWidth = width;
+      super.addNotify();
+      synchronized ( graphicsOps )
+      {
+         if ( renderThread == null )
+         {
+            renderThread = new TGRenderThread( this );
+            renderThread.start();
+         }
+      }
+
+   } // end addNotify()
+
+
+   /**
+    * No longer displayable; stop the render thread.  paint() goes
+    * back to performing graphics operations itself.
+    */
+   public void removeNotify()
+   {
+      synchronized ( graphicsOps )
+      {
+         renderThread = null;
+         graphicsOps.notifyAll();
+      }
+      super.removeNotify();
+
+   } // end removeNotify()
+
+
+   // while rendering actively, repaint() requests are dropped; every
+   // variant of repaint() ends up here.  x, y, width and height are
+   // as if the viewport were the normal one; when it isn't, what
+   // changed could be anywhere on the canvas
+   //
+   public void repaint( long tm, int x, int y, int width, int height )
+   {
+      if ( activeRenderer != null )
+         return;
+      if ( isIdentityViewport() )
+         super.repaint( tm, x, y, width, height );
+      else
+         super.repaint( tm, 0, 0, canvasWidth, canvasHeight );
+   }
+
+
+   public void setBounds( int x, int y, int width, int height )
+   {
+      super.setBounds( x, y, width, height );
+      canvasWidth = width;
       canvasHeight = height;
       xCenter = width / 2;
       yCenter = height / 2;
+      fitGraphicsImage();
       repaint();
 
    } // end setBounds()
@@ -611,6 +1502,7 @@ public class TGCanvas extends Component
       canvasHeight = height;
       xCenter = width / 2;
       yCenter = height / 2;
+      fitGraphicsImage();
       repaint();
 
    } // end setSize()
@@ -627,6 +1519,17 @@ public class TGCanvas extends Component
    // ------ -------
 
 
+   /**
+    * Add an object which implements TGDragHandler to the list of
+    * those that want to follow the mouse as it is dragged with
+    * the left button down.
+    *
+    * @see #getDragBuffer
+    */
+   public void addDragHandler( TGDragHandler dh )
+   { inputDispatcher.addDragHandler( dh ); }
+
+
    /**
     * Append a graphics operation, a TGGraphicsOp object, to
     * the queue of outstanding operations.
@@ -635,70 +1538,89 @@ public class TGCanvas extends Component
    {
       synchronized (graphicsOps)
       {
+         if ( indexedColor && ! offPalette && ! TGPalette.fits(grafOp) )
+         {
+            offPalette = true;
+            if ( TGPalette.isIndexed(graphicsImage) )
+               promoteGraphicsImage();
+         }
+         if ( spatialIndex != null )
+            spatialIndex.add( grafOp );
+         for (int idx=0; idx < grafOpHandlers.length; idx++)
+            if ( grafOpHandlers[idx] != null )
+               grafOpHandlers[idx].graphicsOpAdded( grafOp );
+         if ( displayList != null )
+         {
+            displayList.add( grafOp );
+            compactor.opsAdded( displayList.size() );
+            if ( renderThread != null )
+               graphicsOps.notifyAll();
+            return;
+         }
+         grafOp = clipGraphOp( grafOp );
+         if ( grafOp == null )
+            return;
          if ( numGraphicsOps == graphicsOps.length )
             expandGraphicsOps();
          graphicsOps[ numGraphicsOps++ ] = grafOp;
+         if ( renderThread != null )
+            graphicsOps.notifyAll();
       }
    }
 
 
+   /**
+    * Add an object which implements TGGraphicsOpHandler to the list
+    * of those that want a callback for every graphics operation
+    * added and every clean()/setbg().  Its graphicsCleared() is
+    * invoked right away with the current background color.
+    */
+   public void addGraphOpHandler( TGGraphicsOpHandler gh )
+   {
+      synchronized ( graphicsOps )
+      {
+         for (int idx=0; idx < grafOpHandlers.length; idx++)
+            if ( grafOpHandlers[idx] == gh )
+               return;
+         for (int idx=0; idx < grafOpHandlers.length; idx++)
+            if ( grafOpHandlers[idx] == null )
+            {
+               grafOpHandlers[idx] = gh;
+               gh.graphicsCleared( background );
+               return;
+            }
+      }
+      sysErr( ".addGraphOpHandler: no space" );
+
+   } // end addGraphOpHandler()
+
+
    /**
     * Add an object which implements TGKeyHandler to the list of
     * those that want a callback when a key is pressed while the
     * graphics canvas has focus. The object's keyPressed() method
-    * is invoked.
+    * is invoked, on a thread of its own, not AWT's.
     */
    public void addKeyHandler( TGKeyHandler kh )
-   {
-      for (int idx=0; idx < keyHandlers.length; idx++)
-         if ( keyHandlers[idx] == kh )
-            return;
-      for (int idx=0; idx < keyHandlers.length; idx++)
-         if ( keyHandlers[idx] == null )
-         {
-            keyHandlers[idx] = kh;
-            return;
-         }
-      sysErr( ".addKeyHandler: no space" );
-
-   } // end addKeyHandler
+   { inputDispatcher.addKeyHandler( kh ); }
 
 
    public void addMouseHandler( TGMouseHandler mh )
-   {
-      for (int idx=0; idx < mouseHandlers.length; idx++)
-         if ( mouseHandlers[idx] == mh )
-            return;
-      for (int idx=0; idx < mouseHandlers.length; idx++)
-         if ( mouseHandlers[idx] == null )
-         {
-            mouseHandlers[idx] = mh;
-            return;
-         }
-      sysErr( ".addMouseHandler: no space" );
-
-   } // end addMouseHandler()
+   { inputDispatcher.addMouseHandler( mh ); }
 
 
    public void addTurtle( Turtle turtle )
    {
-      int openIdx = -1;
-      for (int i=turtles.length-1; i >= 0; i--)
-      {
-         if ( turtles[i] != null )
-         {
-            if ( turtles[i] == turtle )
-               return;
-         }
-         else
-            openIdx = i;
-      }
-      if ( openIdx < 0 )
+      synchronized ( turtleLock )
       {
-         System.err.println(CLASS_NAME+".addTurtle: no room!");
-         return;
+         int slot = turtle.getCanvasSlot();
+         if ( slot >= 0 && slot < numTurtles && turtles[slot] == turtle )
+            return;
+         if ( numTurtles == turtles.length )
+            turtles = Arrays.copyOf( turtles, turtles.length * 2 );
+         turtle.setCanvasSlot( numTurtles );
+         turtles[ numTurtles++ ] = turtle;
       }
-      turtles[openIdx] = turtle;
       repaint();
 
    } // end addTurtle()
@@ -719,6 +1641,15 @@ public class TGCanvas extends Component
       {
          while ( numGraphicsOps > 0 )
             graphicsOps[--numGraphicsOps] = null;
+         if ( displayList != null )
+            displayList.clear();
+         displayListMark = 0;
+         if ( spatialIndex != null )
+            spatialIndex.clear();
+         offPalette = false;
+         for (int idx=0; idx < grafOpHandlers.length; idx++)
+            if ( grafOpHandlers[idx] != null )
+               grafOpHandlers[idx].graphicsCleared( background );
       }
       clearGraphicsImage();
       repaint();
@@ -729,21 +1660,32 @@ public class TGCanvas extends Component
    public int colorunder( TGPoint curXY )
    {
       String me = CLASS_NAME + ".colorunder: ";
-      int imageX = curXY.imageX( GI_WIDTH );
-      if ( imageX < 0 || imageX > GI_WIDTH )
+      if ( ! isIdentityView() )
+         curXY = new TGPoint( (curXY.xFloatValue() - viewX) * viewScale,
+                              (curXY.yFloatValue() - viewY) * viewScale );
+      int imageX = curXY.imageX( giWidth );
+      if ( imageX < 0 || imageX > giWidth )
          return background.getRGB() & 0xffffff;
-      int imageY = curXY.imageY( GI_HEIGHT );
-      if ( imageY < 0 || imageY > GI_HEIGHT )
+      int imageY = curXY.imageY( giHeight );
+      if ( imageY < 0 || imageY > giHeight )
          return background.getRGB() & 0xffffff;
       int[] pixel = new int[1];
-      if ( graphicsImage == null )
+      Image image = graphicsImage;
+      if ( image == null )
          return background.getRGB() & 0xffffff;
-      PixelGrabber pg = new PixelGrabber( graphicsImage,
+      if ( image instanceof BufferedImage && imageX < giWidth && imageY < giHeight )
+      {
+         // PixelGrabber would have the whole image converted
+         TGPalette.getRGB( (BufferedImage) image, imageX, imageY, 1, 1,
+                           pixel, 0, 1 );
+         return pixel[0] & 0xFFFFFF;
+      }
+      PixelGrabber pg = new PixelGrabber( image,
                                           imageX, imageY,
                                           1, 1,
                                           pixel,
                                           0,
-                                          GI_WIDTH
+                                          giWidth
                                         );
       try { pg.grabPixels(); }
       catch (InterruptedException e)
@@ -763,6 +1705,52 @@ public class TGCanvas extends Component
    } // end colorunder()
 
 
+   /*
+    * Drop operations from the retained display list which have been
+    * completely painted over by later ones.  Only operations that
+    * have already been rendered are considered.  The (expensive)
+    * search is done without holding the graphicsOps lock, so it can
+    * be done by TGCompactor while drawing continues; nothing is
+    * dropped if the mark was reset meanwhile.  Return the size of
+    * the display list.
+    */
+   int compactDisplayList()
+   {
+      TGDisplayList list;
+      int[] codes;
+      Object[] objs;
+      int end, numClears, bgRGB;
+      synchronized ( graphicsOps )
+      {
+         list = displayList;
+         if ( list == null )
+            return 0;
+         codes = list.getCodes();
+         objs = list.getObjs();
+         end = displayListMark;
+         numClears = list.getClears();
+         bgRGB = background.getRGB();
+      }
+      BitSet dropped = TGDisplayList.findOverdrawn( codes, objs, end, bgRGB );
+      synchronized ( graphicsOps )
+      {
+         if ( displayList != list || list.getClears() != numClears )
+            return 0;
+         // setView() and friends reset the mark without a clear; if it
+         // is behind end now, ops before end still have to be rendered
+         // and their marks would be invalidated, so leave it for later
+         int mark = displayListMark;
+         if ( ! dropped.isEmpty() && mark >= end )
+         {
+            int newEnd = list.removeOps( dropped, end );
+            displayListMark = mark - (end - newEnd);
+         }
+         return list.size();
+      }
+
+   } // end compactDisplayList()
+
+
    public TGPoint drawLine(TGPoint p1, double steps, double hd, int wd, Color cl )
    {
       if ( steps < 0 )
@@ -781,10 +1769,151 @@ public class TGCanvas extends Component
    { addGraphOp( new TGLineOp(p1, p2, hd, cl, wd) ); }
 
 
+   /**
+    * Write the graphics in region of the canvas, in AWT coordinates
+    * (0,0 is the canvas' top-left corner) to a PNG file.  A null
+    * region means the whole canvas.  Outstanding graphics operations
+    * are performed first; turtles are not included.  The region may
+    * extend past the edges of the canvas, as far as graphics are
+    * kept off-screen.
+    *
+    * @see TGPngEncoder
+    */
+   public void exportPng( String fileName, Rectangle region )
+      throws IOException
+   {
+      if ( region == null )
+         region = new Rectangle( 0, 0, canvasWidth, canvasHeight );
+      synchronized ( graphicsOps )
+      {
+         // renderGraphics() consumes the dirty rectangle paint()
+         // would have used, so the whole canvas is repainted
+         renderGraphics();
+         if ( ! (graphicsImage instanceof BufferedImage) )
+            throw new IOException( CLASS_NAME + ".exportPng: no graphics"
+                                   + " image to export" );
+         BufferedImage image = (BufferedImage) graphicsImage;
+         Rectangle giRegion = new Rectangle( region );
+         giRegion.translate( (giWidth - canvasWidth) / 2,
+                             (giHeight - canvasHeight) / 2 );
+         giRegion = giRegion.intersection(
+                       new Rectangle(0, 0, giWidth, giHeight) );
+         if ( giRegion.isEmpty() )
+            throw new IllegalArgumentException( CLASS_NAME + ".exportPng:"
+                                                + " region " + region
+                                                + " has no graphics" );
+         // the file is only opened, and truncated, once there is
+         // something to write to it
+         OutputStream out;
+         out = new BufferedOutputStream( new FileOutputStream(fileName) );
+         try
+         {
+            new TGPngEncoder().encode( image, giRegion, out );
+         }
+         finally
+         {
+            out.close();
+         }
+      }
+      paintState = PAINT_REFRESH;
+      captureAll = true;
+      repaint();
+
+   } // end exportPng()
+
+
    public void fill( TGPoint point, Color color )
    { addGraphOp( new TGFillOp(point, color) ); }
 
 
+   /**
+    * Return how many mouse motion events were never delivered to
+    * the TGMouseHandlers because more motion, or a click, was
+    * queued while they waited.
+    */
+   public long getCoalescedMoves()
+   { return inputDispatcher.getCoalescedMoves(); }
+
+
+   /**
+    * Return the buffer left-button drags are recorded in.  It is
+    * what TGDragHandlers are handed.
+    */
+   public TGDragBuffer getDragBuffer()
+   { return dragBuffer; }
+
+
+   /**
+    * Return the time, in milliseconds, between each of the most
+    * recent frames drawn in active rendering mode and the one before
+    * it, oldest first.  Empty when not rendering actively.
+    *
+    * @see #startActiveRendering
+    */
+   public float[] getFrameTimes()
+   {
+      TGActiveRenderer renderer = activeRenderer;
+      if ( renderer == null )
+         return new float[ 0 ];
+      return renderer.getFrameTimes();
+
+   } // end getFrameTimes()
+
+
+   /**
+    * Return the time, in milliseconds, each of the most recent key
+    * and mouse events waited before the TGKeyHandlers and
+    * TGMouseHandlers were called with it, oldest first.
+    *
+    * @see #getCoalescedMoves
+    */
+   public float[] getInputLatencies()
+   { return inputDispatcher.getLatencies(); }
+
+
+   /**
+    * Return a picture of all of the graphics, including what is kept
+    * off-screen, no more than maxSize pixels wide or high.  Turtles
+    * are not included.  It is made from the pyramid of shrunken
+    * copies of the graphics kept for zooming out (see setViewport()),
+    * which is brought up to date only where something was drawn, so
+    * it is cheap however big the graphics are.
+    */
+   public BufferedImage getThumbnail( int maxSize )
+   {
+      if ( maxSize <= 0 )
+         throw new IllegalArgumentException( CLASS_NAME
+                                             + ".getThumbnail: bad size "
+                                             + maxSize );
+      BufferedImage thumbnail;
+      synchronized ( graphicsOps )
+      {
+         // renderGraphics() consumes the dirty rectangle paint()
+         // would have used, so the whole canvas is repainted
+         renderGraphics();
+         double scale = Math.min( 1.0,
+                                  (double) maxSize / Math.max(giWidth, giHeight) );
+         int width = Math.max( 1, (int) Math.round(giWidth * scale) );
+         int height = Math.max( 1, (int) Math.round(giHeight * scale) );
+         Image image = graphicsImage;
+         int level = pyramidLevel( scale );
+         if ( level > 0 )
+            image = pyramid.getImage( level );
+         thumbnail = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+         Graphics2D g = thumbnail.createGraphics();
+         g.setRenderingHint( RenderingHints.KEY_INTERPOLATION,
+                             RenderingHints.VALUE_INTERPOLATION_BILINEAR );
+         g.drawImage( image, 0, 0, width, height, null );
+         g.dispose();
+      }
+      paintState = PAINT_REFRESH;
+      captureAll = true;
+      repaint();
+      return thumbnail;
+
+   } // end getThumbnail()
+
+
    public void label( String text, TGPoint p, Font font, Color color )
    { addGraphOp( new TGLabelOp(text, p, font, color) ); }
 
@@ -796,7 +1925,9 @@ public class TGCanvas extends Component
     */
    public int mousex()
    {
-      return mouseX - xCenter;
+      if ( isIdentityView() && isIdentityViewport() )
+         return mouseX - xCenter;
+      return (int) Math.rint( toTurtleX(mouseX) );
    }
 
    /**
@@ -806,44 +1937,691 @@ public class TGCanvas extends Component
     */
    public int mousey()
    {
-      return -(mouseY - yCenter);
+      if ( isIdentityView() && isIdentityViewport() )
+         return -(mouseY - yCenter);
+      return (int) Math.rint( toTurtleY(mouseY) );
    }
 
 
-   public void removeKeyHandler( TGKeyHandler kh )
+   /**
+    * Return the line (TGLineOp) or label (TGLabelOp) drawn closest
+    * to TurtleSpace point p, as long as it is within tolerance of
+    * it, else null.  Distance to a line is measured to the edge of
+    * its stroke, so a point on a wide line is at distance zero.
+    * When several are equally close, the one drawn last (on top)
+    * is returned.
+    * <p>
+    * Only lines and labels drawn while hit-testing is on are found.
+    *
+    * @see #opUnderMouse
+    * @see #setHitTesting
+    */
+   public TGGraphicsOp opNear( TGPoint p, float tolerance )
+   {
+      synchronized ( graphicsOps )
+      {
+         if ( spatialIndex == null )
+            return null;
+         return spatialIndex.nearest( p.xFloatValue(), p.yFloatValue(),
+                                      tolerance );
+      }
+
+   } // end opNear()
+
+
+   /**
+    * Return the line or label under the mouse's position as of the
+    * last mouseMoved() or mouse click, see opNear().  tolerance is
+    * in pixels on the display, whatever the view's scale and the
+    * viewport's zoom.  Meant to
+    * be cheap enough to call from every TGMouseHandler.mouseMoved().
+    *
+    * @see #opNear
+    */
+   public TGGraphicsOp opUnderMouse( float tolerance )
+   {
+      float x = (float) toTurtleX( mouseX );
+      float y = (float) toTurtleY( mouseY );
+      return opNear( new TGPoint(x, y),
+                     (float) (tolerance / (viewScale * viewportZoom)) );
+
+   } // end opUnderMouse()
+
+
+   /**
+    * Rasterize everything drawn since the last clean() or setbg()
+    * into image, scaled by scale around the TurtleSpace point
+    * (centerX,centerY), which ends up in the center of image.  The
+    * program that did the drawing is not involved; the retained
+    * display list is replayed, skipping operations which fall
+    * outside of image.  image is not cleared first.
+    * <p>
+    * Only possible while graphics are being retained.  Return false
+    * if they are not.
+    *
+    * @see #setRetainGraphics
+    */
+   public boolean rasterize( Image image, double scale,
+                             float centerX, float centerY )
+   {
+      synchronized ( graphicsOps )
+      {
+         if ( displayList == null )
+            return false;
+         displayList.render( image, scale, centerX, centerY, 0, null );
+      }
+      return true;
+
+   } // end rasterize()
+
+
+   public void removeDragHandler( TGDragHandler dh )
+   { inputDispatcher.removeDragHandler( dh ); }
+
+
+   public void removeGraphOpHandler( TGGraphicsOpHandler gh )
    {
-      for (int idx=0; idx < keyHandlers.length; idx++)
-         if ( keyHandlers[idx] == kh )
-            keyHandlers[idx] = null;
+      synchronized ( graphicsOps )
+      {
+         for (int idx=0; idx < grafOpHandlers.length; idx++)
+            if ( grafOpHandlers[idx] == gh )
+               grafOpHandlers[idx] = null;
+      }
    }
 
 
+   public void removeKeyHandler( TGKeyHandler kh )
+   { inputDispatcher.removeKeyHandler( kh ); }
+
+
    /**
     * Remove an object from TGCanvas' list of those wanting
     * their mouseClicked() and mouseMoved() methods invoked
     * when we receive these Events.
     */
    public void removeMouseHandler( TGMouseHandler mh )
-   {
-      for (int idx=0; idx < mouseHandlers.length; idx++)
-         if ( mouseHandlers[idx] == mh )
-            mouseHandlers[idx] = null;
-   }
+   { inputDispatcher.removeMouseHandler( mh ); }
 
 
    public void removeTurtle( Turtle turtle )
    {
-      for (int i=turtles.length-1; i >= 0; i--)
-         if ( turtles[i] == turtle )
+      synchronized ( turtleLock )
+      {
+         int slot = turtle.getCanvasSlot();
+         if ( slot < 0 || slot >= numTurtles || turtles[slot] != turtle )
          {
-            turtles[i] = null;
+            System.err.println(CLASS_NAME+".removeTurtle: turtle missing!");
             return;
          }
-      System.err.println(CLASS_NAME+".removeTurtle: turtle missing!");
+
+         // move the last turtle into its slot
+         Turtle last = turtles[ --numTurtles ];
+         turtles[ slot ] = last;
+         last.setCanvasSlot( slot );
+         turtles[ numTurtles ] = null;
+         turtle.setCanvasSlot( -1 );
+      }
 
    } // end removeTurtle()
 
 
+   /*
+    * Used by TGRenderThread: perform outstanding graphics operations
+    * and ask for the part of the canvas they changed to be painted.
+    */
+   void renderAndPublish()
+   {
+      Rectangle rect = renderGraphics();
+      if ( rect == null )
+         return;
+      synchronized ( publishLock )
+      {
+         if ( publishedRect == null )
+            publishedRect = rect;
+         else
+            publishedRect.add( rect );
+      }
+      repaint( rect.x, rect.y, rect.width, rect.height );
+
+   } // end renderAndPublish()
+
+
+   /*
+    * Used by TGActiveRenderer: draw the whole canvas, graphics and
+    * turtles, into g.
+    */
+   void renderFrame( Graphics g )
+   {
+      if ( renderThread != null )
+      {
+         synchronized ( publishLock )
+         {
+            publishedRect = null;
+         }
+      }
+      else
+         renderGraphics();
+      if ( graphicsImage == null )
+      {
+         g.setColor( background );
+         g.fillRect( 0, 0, canvasWidth, canvasHeight );
+      }
+      else if ( isIdentityViewport() )
+         g.drawImage( graphicsImage, -(giWidth - canvasWidth) / 2,
+                      -(giHeight - canvasHeight) / 2, null );
+      else
+         drawViewport( g );
+      findVisibleTurtles();
+      for ( int idx=0; idx < numVisible; idx++ )
+      {
+         Rectangle rect = visibleRects[idx];
+         g.drawImage( visibleTurtles[idx].getImage(), rect.x, rect.y, null );
+      }
+      if ( frameCapture != null )
+      {
+         captureAll = true;
+         captureFrame();
+      }
+
+   } // end renderFrame()
+
+
+   /**
+    * Restore the graphics and turtles saved by saveSnapshot() in
+    * fileName.  turtles[i] is put in the state of the i-th turtle
+    * saved; new Turtles are made for any saved turtles past the end
+    * of turtles (which may be null).  Return the restored turtles,
+    * in the order they were saved.
+    * <p>
+    * Everything drawn on the canvas is replaced.  The pixels are
+    * copied back as is; as after a clean(), a display list being
+    * retained starts out empty.  A snapshot saved from graphics of
+    * a different size is centered on the current ones, the way
+    * they are kept when the canvas is resized: what doesn't fit is
+    * cut off and what it doesn't cover is background.
+    *
+    * @see #saveSnapshot
+    */
+   public Turtle[] restoreSnapshot( String fileName, Turtle[] turtles )
+      throws IOException
+   {
+      if ( offHeapImage != null )
+         throw new IOException( CLASS_NAME + ".restoreSnapshot: graphics are"
+                                + " off-heap" );
+      TGSnapshot snap = TGSnapshot.read( fileName );
+      synchronized ( graphicsOps )
+      {
+         while ( numGraphicsOps > 0 )
+            graphicsOps[--numGraphicsOps] = null;
+         if ( displayList != null )
+            displayList.clear();
+         displayListMark = 0;
+         if ( spatialIndex != null )
+            spatialIndex.clear();
+         background = snap.getBackground();
+         for (int idx=0; idx < grafOpHandlers.length; idx++)
+            if ( grafOpHandlers[idx] != null )
+               grafOpHandlers[idx].graphicsCleared( background );
+         offPalette = false;
+         if ( graphicsImage == null )
+            initGraphicsImage();
+         BufferedImage image = (BufferedImage) graphicsImage;
+         int[] pixels = snap.getPixels();
+         if ( snap.getWidth() != giWidth || snap.getHeight() != giHeight )
+            pixels = centerSnapshot( snap );
+         if ( TGPalette.isIndexed(image)
+              && ! TGPalette.toIndexes(pixels, TGPalette.getIndexes(image)) )
+         {
+            // some of it isn't in the palette
+            offPalette = true;
+            promoteGraphicsImage();
+            image = (BufferedImage) graphicsImage;
+         }
+         if ( image.getType() == BufferedImage.TYPE_INT_RGB )
+            image.getRaster().setDataElements( 0, 0, giWidth, giHeight,
+                                               pixels );
+         else if ( ! TGPalette.isIndexed(image) )
+         {
+            for ( int i=0; i < pixels.length; i++ )
+               pixels[ i ] |= 0xff000000;
+            image.setRGB( 0, 0, giWidth, giHeight, pixels, 0, giWidth );
+         }
+         giDirty.addAll();
+         if ( supersampler != null )
+         {
+            supersampler.clear( background );
+            supersampler.expand( image, new Rectangle(0, 0, giWidth, giHeight) );
+         }
+         if ( pyramid != null )
+            pyramid.invalidateAll();
+      }
+      Turtle[] restored = new Turtle[ snap.getNumTurtles() ];
+      for ( int i=0; i < restored.length; i++ )
+      {
+         if ( turtles != null && i < turtles.length && turtles[i] != null )
+            restored[ i ] = turtles[ i ];
+         else
+            restored[ i ] = new Turtle( this );
+         snap.applyTo( restored[i], i );
+      }
+      paintState = PAINT_REFRESH;
+      captureAll = true;
+      repaint();
+      return restored;
+
+   } // end restoreSnapshot()
+
+
+   /**
+    * Save the graphics (everything but the turtles drawn on the
+    * canvas, including what is off-screen), the background color
+    * and the state of turtles in a snapshot file, which
+    * restoreSnapshot() can bring back, e.g., to resume a long
+    * session.  Outstanding graphics operations are performed first.
+    *
+    * @see #restoreSnapshot
+    * @see TGSnapshot
+    */
+   public void saveSnapshot( String fileName, Turtle[] turtles )
+      throws IOException
+   {
+      if ( offHeapImage != null )
+         throw new IOException( CLASS_NAME + ".saveSnapshot: graphics are"
+                                + " off-heap, see exportPng()" );
+      int[] pixels;
+      Color bg;
+      synchronized ( graphicsOps )
+      {
+         renderGraphics();
+         BufferedImage image = (BufferedImage) graphicsImage;
+         if ( image.getType() == BufferedImage.TYPE_INT_RGB )
+            pixels = (int[]) image.getRaster().getDataElements( 0, 0,
+                                                                giWidth,
+                                                                giHeight,
+                                                                null );
+         else
+         {
+            pixels = new int[ giWidth * giHeight ];
+            TGPalette.getRGB( image, 0, 0, giWidth, giHeight, pixels, 0,
+                              giWidth );
+         }
+         bg = background;
+      }
+      paintState = PAINT_REFRESH;
+      captureAll = true;
+      repaint();
+      TGSnapshot.write( fileName, pixels, giWidth, giHeight, bg, turtles );
+
+   } // end saveSnapshot()
+
+
+   /**
+    * Turn on/off drawing with the mouse.  While on, strokes dragged
+    * with the left button are drawn on the canvas in color, penWidth
+    * pixels wide, as polylines of every sample; a null color turns
+    * it off.  The samples are used up doing so; other TGDragHandlers
+    * find the dragBuffer empty.
+    */
+   public void setDragStroke( Color color, int penWidth )
+   {
+      if ( dragStroke != null )
+         inputDispatcher.removeDragHandler( dragStroke );
+      dragStroke = null;
+      if ( color == null )
+         return;
+      dragStroke = new TGDragStroke( this, color, Math.max(1, penWidth) );
+      inputDispatcher.addDragHandler( dragStroke );
+
+   } // end setDragStroke()
+
+
+   /**
+    * Keep the graphics in a width by height image outside of the
+    * Java heap, instead of the normal one that follows the canvas'
+    * size, for renders far bigger than the heap, e.g., a 30000x30000
+    * poster; up to about two billion pixels.  The pixels are
+    * memory-mapped from fileName (raw 0x00RRGGBB ints, in the
+    * machine's byte order), so they needn't fit in memory either,
+    * or, when it is null, kept in direct buffers (see
+    * -XX:MaxDirectMemorySize).  It doesn't change size with the
+    * canvas.  The canvas
+    * shows the middle of the image; exportPng() writes any part of
+    * it, or all of it, a few rows at a time.  Sizes are made odd,
+    * so there is a middle.  A width or height of zero goes back to
+    * the normal image.
+    * <p>
+    * What was drawn is lost, unless graphics are being retained, in
+    * which case it is drawn again.  Indexed color, snapshots and
+    * swapping on clear aren't available while the graphics are
+    * off-heap, and supersampling is turned off.
+    *
+    * @see #exportPng
+    */
+   public void setOffHeapGraphics( int width, int height, String fileName )
+      throws IOException
+   {
+      BufferedImage image = null;
+      if ( width > 0 && height > 0 )
+         image = TGOffHeapBuffer.newImage( width | 1, height | 1, fileName );
+      setSwapOnClear( false );
+      synchronized ( graphicsOps )
+      {
+         if ( offHeapImage != null )
+            TGOffHeapBuffer.get( offHeapImage ).dispose();
+         offHeapImage = image;
+         giWidth = (image == null) ? fitSize( GI_WIDTH, canvasWidth )
+                                   : image.getWidth();
+         giHeight = (image == null) ? fitSize( GI_HEIGHT, canvasHeight )
+                                    : image.getHeight();
+         graphicsImage = null;          // renderGraphics() makes a new one
+         pyramid = null;
+         supersampler = null;
+         redrawGraphics();
+      }
+      paintState = PAINT_REFRESH;
+      captureAll = true;
+      repaint();
+
+   } // end setOffHeapGraphics()
+
+
+   /**
+    * Turn on/off keeping the graphics as one byte per pixel, an
+    * index into the sixteen Turtle colors, instead of four.  While
+    * everything is drawn in those colors on a background that is one
+    * of them, the graphics take a quarter of the memory, and fill,
+    * colorunder() and snapshots work on the bytes directly.  The
+    * first thing drawn in any other color switches to full RGB, with
+    * no change to what is shown, until the next clean() or setbg().
+    * Turning it on takes effect at the next clean() or setbg().
+    */
+   public void setIndexedColor( boolean on )
+   {
+      synchronized ( graphicsOps )
+      {
+         indexedColor = on;
+         if ( ! on && TGPalette.isIndexed(graphicsImage) )
+            promoteGraphicsImage();
+      }
+
+   } // end setIndexedColor()
+
+
+   /**
+    * Turn on/off keeping a spatial index of the lines and labels
+    * drawn, needed by opNear() and opUnderMouse().  When turned on
+    * while graphics are being retained, everything drawn since the
+    * last clean() or setbg() is indexed; otherwise only what is
+    * drawn from now on.
+    *
+    * @see #opNear
+    */
+   public void setHitTesting( boolean on )
+   {
+      synchronized ( graphicsOps )
+      {
+         if ( ! on )
+         {
+            spatialIndex = null;
+            return;
+         }
+         if ( spatialIndex != null )
+            return;
+         spatialIndex = new TGSpatialIndex( this );
+         if ( displayList != null )
+            for ( int mark=0; mark < displayList.mark(); mark=displayList.next(mark) )
+               spatialIndex.add( displayList.getOp(mark) );
+      }
+
+   } // end setHitTesting()
+
+
+   /*
+    * Used by TGInputDispatcher: set where mousex(), mousey() and
+    * opUnderMouse() say the mouse is to the position of the event
+    * about to be handed to the handlers, so a click's handlers see
+    * where it was clicked even if the mouse has moved on since.
+    */
+   void setMousePosition( int x, int y )
+   {
+      mouseX = x;
+      mouseY = y;
+
+   } // end setMousePosition()
+
+
+   /**
+    * Keep (or stop keeping) a display list of all graphics drawn
+    * since the last clean() or setbg().  Graphics drawn before
+    * retention is turned on are not in the list, so turn it on
+    * before drawing anything.
+    *
+    * @see #rasterize
+    * @see #setView
+    */
+   public void setRetainGraphics( boolean retain )
+   {
+      if ( ! retain && ! isIdentityView() )
+         setView( 1.0, 0.0F, 0.0F );
+      synchronized ( graphicsOps )
+      {
+         if ( retain && displayList == null )
+         {
+            displayList = new TGDisplayList();
+            displayListMark = 0;
+            compactor = new TGCompactor( this );
+            compactor.start();
+            for ( int opIdx=0; opIdx < numGraphicsOps; opIdx++ )
+            {
+               displayList.add( graphicsOps[opIdx] );
+               graphicsOps[opIdx] = null;
+            }
+            numGraphicsOps = 0;
+         }
+         else if ( ! retain && displayList != null )
+         {
+            // anything not rendered yet still needs to be
+            TGDisplayList oldList = displayList;
+            displayList = null;
+            compactor.shutdown();
+            compactor = null;
+            int mark = displayListMark;
+            while ( mark < oldList.mark() )
+            {
+               addGraphOp( oldList.getOp(mark) );
+               mark = oldList.next( mark );
+            }
+         }
+      }
+
+   } // end setRetainGraphics()
+
+
+   /**
+    * Supersample the graphics: with a scale of 2 to 4, lines, fills
+    * and labels are rasterized at scale times the resolution and
+    * averaged down, so their edges are smooth instead of jagged,
+    * e.g., on a high density display.  Only what was drawn is
+    * averaged, so the extra time is proportional to what changes;
+    * the supersampled graphics take scale*scale times the memory of
+    * the normal ones, about 7.7MB each.  A scale of 1 turns it off.
+    * <p>
+    * While graphics are being retained, what has been drawn is drawn
+    * again, supersampled.  Indexed color and off-heap graphics can't
+    * be supersampled.
+    *
+    * @see #setIndexedColor
+    * @see #setOffHeapGraphics
+    */
+   public void setSupersampling( int scale )
+   {
+      if ( scale < 1 || scale > MAX_SUPERSAMPLING )
+      {
+         sysErr( ".setSupersampling: bad scale " + scale );
+         return;
+      }
+      synchronized ( graphicsOps )
+      {
+         if ( scale == 1 )
+         {
+            // graphicsImage already holds everything, averaged
+            supersampler = null;
+            return;
+         }
+         if ( offHeapImage != null )
+         {
+            sysErr( ".setSupersampling: graphics are off-heap" );
+            return;
+         }
+         if ( supersampler != null && supersampler.getScale() == scale )
+            return;
+         try { supersampler = new TGSupersampler( giWidth, giHeight, scale ); }
+         catch ( OutOfMemoryError oome )
+         {
+            supersampler = null;
+            sysErr( ".setSupersampling: no room for scale " + scale );
+            return;
+         }
+         if ( graphicsImage != null )
+         {
+            if ( TGPalette.isIndexed(graphicsImage) )
+               promoteGraphicsImage();
+            if ( displayList != null )
+            {
+               clearGraphicsImage();
+               redrawGraphics();
+            }
+            else
+               supersampler.expand( (BufferedImage) graphicsImage,
+                                    new Rectangle(0, 0, giWidth, giHeight) );
+         }
+      }
+      paintState = PAINT_REFRESH;
+      captureAll = true;
+      repaint();
+
+   } // end setSupersampling()
+
+
+   /**
+    * Turn on/off swapping graphics images on clean() and setbg().
+    * When on, a second graphics image is kept; clean() swaps it in,
+    * and the one just drawn in is cleared on a background thread,
+    * ready for the next clean().  Meant for animations that clean()
+    * for every frame and draw all over the canvas each time.
+    * Without it, clean() only clears what has been drawn on since
+    * the last clean(), which is as fast or faster for small drawings.
+    */
+   public void setSwapOnClear( boolean on )
+   {
+      synchronized ( graphicsOps )
+      {
+         if ( on && offHeapImage != null )
+         {
+            sysErr( ".setSwapOnClear: graphics are off-heap" );
+            return;
+         }
+         if ( on && clearer == null )
+         {
+            spareImage = newGraphicsImage();
+            spareDirty = new TGDirtyTiles( giWidth, giHeight );
+            clearer = new TGImageClearer();
+            clearer.start();
+            clearer.clear( spareImage, spareDirty, null, background );
+            spareClearColor = background;
+         }
+         else if ( ! on && clearer != null )
+         {
+            clearer.shutdown();
+            clearer = null;
+            spareImage = null;
+            spareDirty = null;
+         }
+      }
+
+   } // end setSwapOnClear()
+
+
+   /**
+    * Change what graphicsImage shows: TurtleSpace scaled by scale
+    * around (centerX,centerY), which ends up in the center of the
+    * display.  The image is re-rasterized from the retained display
+    * list; following graphics, the turtles and mouse coordinates
+    * follow the new view.  setView( 1.0, 0, 0 ) is the normal view.
+    * <p>
+    * A fill is a flood fill from its point, so one whose point is
+    * outside of graphicsImage in the new view can't be performed
+    * and is left out; the part of its region that is in view shows
+    * unfilled.  Keep the points fills were made from in view, or
+    * zoom out far enough, when the view needs to match the drawing.
+    * <p>
+    * Only possible while graphics are being retained.
+    *
+    * @see #setRetainGraphics
+    */
+   public void setView( double scale, float centerX, float centerY )
+   {
+      if ( scale <= 0.0 )
+      {
+         sysErr( ".setView: bad scale " + scale );
+         return;
+      }
+      synchronized ( graphicsOps )
+      {
+         if ( displayList == null )
+         {
+            sysErr( ".setView: graphics are not being retained" );
+            return;
+         }
+         viewScale = scale;
+         viewX = centerX;
+         viewY = centerY;
+         clearGraphicsImage();
+         redrawGraphics();
+      }
+      repaint();
+
+   } // end setView()
+
+
+   /**
+    * Magnify what the canvas shows by zoom, with the TurtleSpace
+    * point (centerX,centerY) in the middle of it; a zoom less than
+    * 1.0 shows more, including graphics kept off-screen.  Unlike
+    * setView(), nothing is drawn again: what has been drawn is
+    * scaled, from a pyramid of shrunken copies when zooming out, so
+    * a repaint costs the same however much has been drawn and
+    * however much of it is shown.  Turtles keep their size and
+    * mousex()/mousey() stay in TurtleSpace.  exportPng() and
+    * captured frames are not affected.  setViewport( 1.0, 0, 0 ) is
+    * the normal viewport.
+    *
+    * @see #setViewportControls
+    */
+   public void setViewport( double zoom, float centerX, float centerY )
+   {
+      if ( zoom < MIN_VIEWPORT_ZOOM || zoom > MAX_VIEWPORT_ZOOM )
+      {
+         sysErr( ".setViewport: bad zoom " + zoom );
+         return;
+      }
+      moveViewport( zoom, (float) ((centerX - viewX) * viewScale),
+                    (float) (-(centerY - viewY) * viewScale) );
+
+   } // end setViewport()
+
+
+   /**
+    * Turn on/off letting the viewport be moved with the mouse:
+    * turning the wheel zooms in or out around the mouse, dragging
+    * with the right button pans.
+    *
+    * @see #setViewport
+    */
+   public void setViewportControls( boolean on )
+   { viewportControls = on; }
+
+
    /**
     * Set the background color of the graphics canvas.
     * <p>
@@ -856,10 +2634,126 @@ public class TGCanvas extends Component
       {
          while ( numGraphicsOps > 0 )
             graphicsOps[--numGraphicsOps] = null;
+         if ( displayList != null )
+            displayList.clear();
+         displayListMark = 0;
+         if ( spatialIndex != null )
+            spatialIndex.clear();
+         background = Turtle.rgbToColor( rgbValue );
+         offPalette = false;
+         for (int idx=0; idx < grafOpHandlers.length; idx++)
+            if ( grafOpHandlers[idx] != null )
+               grafOpHandlers[idx].graphicsCleared( background );
       }
-      background = Turtle.rgbToColor( rgbValue );
       clearGraphicsImage();
       repaint();
    }
 
+
+   /**
+    * Start drawing the canvas actively: framesPerSecond times a
+    * second a frame holding the graphics and turtles is composed in
+    * a back buffer and copied to the display, instead of waiting for
+    * AWT to call paint().  For animations and games that move
+    * turtles in response to keys; frame times are available from
+    * getFrameTimes().  Drawing goes on until stopActiveRendering().
+    *
+    * @see #stopActiveRendering
+    */
+   public void startActiveRendering( int framesPerSecond )
+   {
+      if ( framesPerSecond <= 0 )
+         throw new IllegalArgumentException( CLASS_NAME
+                                             + ".startActiveRendering(): bad rate "
+                                             + framesPerSecond );
+      stopActiveRendering();
+      activeRenderer = new TGActiveRenderer( this, framesPerSecond );
+      activeRenderer.start();
+
+   } // end startActiveRendering()
+
+
+   /**
+    * Start recording what is displayed, turtles included, as an
+    * animation, in fileName.  format is CAPTURE_GIF for an animated
+    * GIF or CAPTURE_RAW for a raw sequence of frames, see
+    * TGFrameCapture.  A frame is captured each time the canvas is
+    * painted, holding only what changed; it is encoded on a
+    * background thread.  Recording goes on until stopCapture(),
+    * which must be called for the file to be complete: the encoder
+    * is a daemon thread, so it does not keep the program running.
+    *
+    * @see #stopCapture
+    */
+   public void startCapture( String fileName, int format ) throws IOException
+   {
+      stopCapture();
+      TGFrameCapture capture;
+      capture = new TGFrameCapture( fileName, format, canvasWidth, canvasHeight );
+      captureRect = null;
+      captureAll = true;
+      frameCapture = capture;
+      repaint();
+
+   } // end startCapture()
+
+
+   /**
+    * Go back to drawing the canvas when AWT calls paint().
+    *
+    * @see #startActiveRendering
+    */
+   public void stopActiveRendering()
+   {
+      TGActiveRenderer renderer = activeRenderer;
+      if ( renderer == null )
+         return;
+      activeRenderer = null;
+      renderer.shutdown();
+      paintState = PAINT_REFRESH;
+      repaint();
+
+   } // end stopActiveRendering()
+
+
+   /**
+    * Stop recording started by startCapture() and finish the file,
+    * which may take a moment if frames are still queued.  Any error
+    * writing the file is thrown.
+    *
+    * @see #startCapture
+    */
+   public void stopCapture() throws IOException
+   {
+      TGFrameCapture capture = frameCapture;
+      if ( capture == null )
+         return;
+      frameCapture = null;
+      capture.stopCapture();
+
+   } // end stopCapture()
+
+
+   /*
+    * Used by TGRenderThread: wait until there are graphics operations
+    * to perform.  Return false when thread is to stop instead.
+    */
+   boolean waitForGraphics( TGRenderThread thread )
+   {
+      synchronized ( graphicsOps )
+      {
+         while ( renderThread == thread )
+         {
+            if ( graphicsImage == null || numGraphicsOps > 0 )
+               return true;
+            if ( displayList != null && displayList.mark() != displayListMark )
+               return true;
+            try { graphicsOps.wait(); }
+            catch ( InterruptedException ie ) { return false; }
+         }
+         return false;
+      }
+
+   } // end waitForGraphics()
+
 } // end class TGCanvas
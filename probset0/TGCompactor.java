@@ -0,0 +1,94 @@
+/*
+ * This class is a background thread which keeps a TGCanvas'
+ * retained display list from growing without bound.
+ *
+ * Each time the list has doubled in size since it was last
+ * compacted (and is at least MIN_COMPACT_OPS long) the canvas is
+ * asked to drop operations which are completely painted over by
+ * later ones, see TGCanvas.compactDisplayList() and
+ * TGDisplayList.findOverdrawn().  A program that keeps redrawing
+ * the same things, an animated clock for instance, ends up with a
+ * list (and a re-rasterization time) proportional to what is on
+ * the display rather than to how long it has been running.
+ */
+
+class TGCompactor extends Thread
+{
+
+   // constants
+   //
+   private static final int MIN_COMPACT_OPS = 10000;
+
+
+   // variables with class-wide scope
+   //
+   private boolean compactDue;
+   private boolean stopped;
+   private volatile int compactAt;  // size of display list which will
+                                    // trigger the next compaction
+   private TGCanvas tgc;
+
+
+   //
+   // constructor
+   //
+   TGCompactor( TGCanvas tgc )
+   {
+      super( "TGCompactor" );
+      setDaemon( true );
+      this.tgc = tgc;
+      compactAt = MIN_COMPACT_OPS;
+   }
+
+
+   public void run()
+   {
+      while ( true )
+      {
+         synchronized ( this )
+         {
+            while ( ! compactDue && ! stopped )
+            {
+               try { wait(); }
+               catch ( InterruptedException ie ) { }
+            }
+            if ( stopped )
+               return;
+            compactDue = false;
+         }
+         int numOps = tgc.compactDisplayList();
+         compactAt = Math.max( MIN_COMPACT_OPS, numOps * 2 );
+      }
+
+   } // end run()
+
+
+   /*
+    * The display list is now numOps operations long.  Cheap enough
+    * to call on every operation added to it.
+    */
+   void opsAdded( int numOps )
+   {
+      if ( numOps < compactAt )
+         return;
+      synchronized ( this )
+      {
+         compactDue = true;
+         notifyAll();
+      }
+
+   } // end opsAdded()
+
+
+   /*
+    * Let the thread end; the display list it was compacting is no
+    * longer being retained.
+    */
+   synchronized void shutdown()
+   {
+      stopped = true;
+      notifyAll();
+
+   } // end shutdown()
+
+} // end class TGCompactor
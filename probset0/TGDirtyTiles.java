@@ -0,0 +1,103 @@
+import java.awt.Graphics;
+import java.util.BitSet;
+
+/*
+ * This class keeps track of which parts of an image have been
+ * drawn on since it was last cleared, so that clearing it again
+ * only needs to touch those parts.
+ *
+ * The image is divided into TILE_SIZE pixel square tiles; a tile is
+ * dirty if anything was drawn in any of its pixels.  Unlike a
+ * single bounding rectangle, a turtle busy in two opposite corners
+ * does not make everything between them dirty.
+ */
+
+class TGDirtyTiles
+{
+
+   // constants
+   //
+   private static final int TILE_SIZE = 64;
+
+
+   // variables with class-wide scope
+   //
+   private int numCols;
+   private int numRows;
+   private BitSet tiles;          // row-major, numCols per row
+
+
+   //
+   // constructor
+   //
+   TGDirtyTiles( int width, int height )
+   {
+      numCols = (width + TILE_SIZE - 1) / TILE_SIZE;
+      numRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+      tiles = new BitSet( numCols * numRows );
+   }
+
+
+   // --------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // --------------------------------------------------------------
+
+   /*
+    * Mark the rectangle (x,y,width,height) of the image dirty.
+    */
+   void add( int x, int y, int width, int height )
+   {
+      if ( width <= 0 || height <= 0 )
+         return;
+      int minCol = Math.max( 0, x / TILE_SIZE );
+      int maxCol = Math.min( numCols - 1, (x + width - 1) / TILE_SIZE );
+      int minRow = Math.max( 0, y / TILE_SIZE );
+      int maxRow = Math.min( numRows - 1, (y + height - 1) / TILE_SIZE );
+      if ( minCol > maxCol )
+         return;
+      for ( int row=minRow; row <= maxRow; row++ )
+         tiles.set( row * numCols + minCol, row * numCols + maxCol + 1 );
+
+   } // end add()
+
+
+   /*
+    * Mark the whole image dirty.
+    */
+   void addAll()
+   { tiles.set( 0, numCols * numRows ); }
+
+
+   /*
+    * Forget about everything, e.g., after the image has been cleared.
+    */
+   void clear()
+   { tiles.clear(); }
+
+
+   /*
+    * Fill the dirty tiles, in g's current color, merging the dirty
+    * tiles in a row into one rectangle each.
+    */
+   void fill( Graphics g )
+   {
+      for ( int row=0; row < numRows; row++ )
+      {
+         int rowStart = row * numCols;
+         int col = tiles.nextSetBit( rowStart );
+         while ( col >= 0 && col < rowStart + numCols )
+         {
+            int end = Math.min( tiles.nextClearBit(col), rowStart + numCols );
+            g.fillRect( (col - rowStart) * TILE_SIZE, row * TILE_SIZE,
+                        (end - col) * TILE_SIZE, TILE_SIZE );
+            col = tiles.nextSetBit( end );
+         }
+      }
+
+   } // end fill()
+
+
+   boolean isEmpty()
+   { return tiles.isEmpty(); }
+
+} // end class TGDirtyTiles
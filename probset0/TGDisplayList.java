@@ -0,0 +1,686 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.util.BitSet;
+
+/*
+ * This class is a retained list of the graphics operations given
+ * to a TGCanvas since it was last cleared.  Once an operation has
+ * been applied to TGCanvas' graphicsImage it is gone; all that is
+ * left is pixels.  With a TGDisplayList the vector description of
+ * the drawing survives, so it can be rasterized again at another
+ * scale or around another center, e.g., to zoom in on part of a
+ * drawing without re-running the program that drew it.
+ *
+ * Operations are not kept as objects.  A TGLineOp is a dozen
+ * objects (points, color, arrays); here it is eight ints.  All
+ * operations are encoded into one growable int array:
+ *
+ *   LINE   kind, x1, y1, x2, y2, heading, rgb, penWidth
+ *   FILL   kind, x, y, rgb
+ *   LABEL  kind, x, y, rgb, objIdx   (text and Font at objIdx)
+ *   OTHER  kind, objIdx              (the TGGraphicsOp itself)
+ *   POLYLINE  kind, rgb, penWidth, objIdx  (float[] xs and ys at objIdx)
+ *
+ * where coordinates and the heading are float bits
+ * (Float.floatToRawIntBits) in TurtleSpace.  Only the few
+ * things that can't be encoded as ints, or vary in length, are
+ * kept in a side Object array.
+ *
+ * Long-running programs redraw the same things over and over (a
+ * clock's hands, a line erased by redrawing it in the background
+ * color, ...), so the list is periodically compacted, see
+ * findOverdrawn() and TGCompactor.  Appended ints are never
+ * changed afterwards; clear() and removeOps() build new arrays
+ * instead of reusing the old ones.  So, the arrays returned by
+ * getCodes() and getObjs(), up to the mark() at the time they
+ * were handed out, can be examined by another thread without
+ * holding any lock.
+ *
+ * Otherwise, a TGDisplayList is not thread safe; TGCanvas only
+ * touches its list while it holds the graphicsOps lock.
+ */
+
+class TGDisplayList
+{
+
+   // constants
+   //
+   static final int LINE = 1;
+   static final int FILL = 2;
+   static final int LABEL = 3;
+   static final int OTHER = 4;
+   static final int POLYLINE = 5;
+
+   private static final int INIT_NUM_INTS = 4096;
+   private static final int INIT_NUM_OBJS = 64;
+
+   // findOverdrawn() keeps track of which parts of TurtleSpace have
+   // been drawn on with a grid of GRID_SIZE x GRID_SIZE cells, each
+   // CELL_SIZE pixels square, centered on [0,0].  anything off the
+   // grid lands in its edge cells
+   private static final int CELL_SIZE = 32;
+   private static final int GRID_SIZE = 512;
+
+
+   // variables with class-wide scope
+   //
+   private int numClears;         // number of times clear() was called
+   private int numInts;           // number of ints used in codes
+   private int numObjs;           // number of Objects used in objs
+   private int numOps;            // number of operations encoded
+   private int[] codes;           // the encoded operations
+   private Object[] objs;         // label Strings and Fonts, polyline
+                                  // points, OTHER ops
+
+
+   //
+   // constructor
+   //
+   TGDisplayList()
+   {
+      codes = new int[ INIT_NUM_INTS ];
+      objs = new Object[ INIT_NUM_OBJS ];
+   }
+
+
+   private void ensureInts( int needed )
+   {
+      if ( numInts + needed <= codes.length )
+         return;
+      int[] oldCodes = codes;
+      codes = new int[ Math.max(oldCodes.length * 2, numInts + needed) ];
+      System.arraycopy( oldCodes, 0, codes, 0, numInts );
+
+   } // end ensureInts()
+
+
+   private int addObj( Object obj )
+   {
+      if ( numObjs == objs.length )
+      {
+         Object[] oldObjs = objs;
+         objs = new Object[ oldObjs.length * 2 ];
+         System.arraycopy( oldObjs, 0, objs, 0, numObjs );
+      }
+      objs[ numObjs ] = obj;
+      return numObjs++;
+
+   } // end addObj()
+
+
+   private static int bits( float num )
+   { return Float.floatToRawIntBits( num ); }
+
+
+   private static float flt( int bits )
+   { return Float.intBitsToFloat( bits ); }
+
+
+   /*
+    * Return the number of ints an operation of this kind uses.
+    */
+   static int opLength( int kind )
+   {
+      switch ( kind )
+      {
+         case LINE:  return 8;
+         case FILL:  return 4;
+         case LABEL: return 5;
+         case POLYLINE: return 4;
+         default:    return 2;
+      }
+
+   } // end opLength()
+
+
+   /*
+    * Return a TGGraphicsOp which performs the operation encoded at
+    * codes[idx], scaled by scale around TurtleSpace point
+    * (centerX,centerY), or null if it falls entirely outside of a
+    * viewWidth by viewHeight image.  OTHER operations, which we
+    * know nothing about, can only be given back untransformed.
+    */
+   private TGGraphicsOp decode( int idx, double scale,
+                                float centerX, float centerY,
+                                int viewWidth, int viewHeight )
+   {
+      float hafWidth = viewWidth / 2.0F + 1.0F;
+      float hafHeight = viewHeight / 2.0F + 1.0F;
+      switch ( codes[idx] )
+      {
+         case LINE:
+         {
+            float x1 = (float) ((flt(codes[idx+1]) - centerX) * scale);
+            float y1 = (float) ((flt(codes[idx+2]) - centerY) * scale);
+            float x2 = (float) ((flt(codes[idx+3]) - centerX) * scale);
+            float y2 = (float) ((flt(codes[idx+4]) - centerY) * scale);
+            int penWidth = (int) Math.round( codes[idx+7] * scale );
+            if ( penWidth < 1 )
+               penWidth = 1;
+            float margin = penWidth;
+            if ( Math.max(x1, x2) + margin < -hafWidth
+                 || Math.min(x1, x2) - margin > hafWidth
+                 || Math.max(y1, y2) + margin < -hafHeight
+                 || Math.min(y1, y2) - margin > hafHeight )
+               return null;
+            return new TGLineOp( new TGPoint(x1, y1), new TGPoint(x2, y2),
+                                 (double) flt(codes[idx+5]),
+                                 new Color(codes[idx+6]), penWidth );
+         }
+         case FILL:
+         {
+            // flood fills start from their point, see render()
+            float x = (float) ((flt(codes[idx+1]) - centerX) * scale);
+            float y = (float) ((flt(codes[idx+2]) - centerY) * scale);
+            if ( x < -hafWidth || x > hafWidth
+                 || y < -hafHeight || y > hafHeight )
+               return null;
+            return new TGFillOp( new TGPoint(x, y), new Color(codes[idx+3]) );
+         }
+         case LABEL:
+         {
+            float x = (float) ((flt(codes[idx+1]) - centerX) * scale);
+            float y = (float) ((flt(codes[idx+2]) - centerY) * scale);
+            String text = (String) objs[ codes[idx+4] ];
+            Font font = (Font) objs[ codes[idx+4] + 1 ];
+            if ( scale != 1.0 )
+               font = font.deriveFont( (float) (font.getSize2D() * scale) );
+            // text goes right and (mostly) up from where it starts;
+            // a conservative guess at its extent is good enough
+            float size = font.getSize2D();
+            if ( x > hafWidth || x + text.length() * size < -hafWidth
+                 || y + size < -hafHeight || y - size > hafHeight )
+               return null;
+            return new TGLabelOp( text, new TGPoint(x, y), font,
+                                  new Color(codes[idx+3]) );
+         }
+         case POLYLINE:
+         {
+            float[] xs = (float[]) objs[ codes[idx+3] ];
+            float[] ys = (float[]) objs[ codes[idx+3] + 1 ];
+            int penWidth = (int) Math.round( codes[idx+2] * scale );
+            if ( penWidth < 1 )
+               penWidth = 1;
+            float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+            float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+            float[] x = new float[ xs.length ];
+            float[] y = new float[ ys.length ];
+            for ( int i=0; i < xs.length; i++ )
+            {
+               x[ i ] = (float) ((xs[i] - centerX) * scale);
+               y[ i ] = (float) ((ys[i] - centerY) * scale);
+               minX = Math.min( minX, x[i] );
+               maxX = Math.max( maxX, x[i] );
+               minY = Math.min( minY, y[i] );
+               maxY = Math.max( maxY, y[i] );
+            }
+            float margin = penWidth;
+            if ( maxX + margin < -hafWidth || minX - margin > hafWidth
+                 || maxY + margin < -hafHeight || minY - margin > hafHeight )
+               return null;
+            return new TGPolylineOp( x, y, new Color(codes[idx+1]), penWidth );
+         }
+         default:
+            return (TGGraphicsOp) objs[ codes[idx+1] ];
+      }
+
+   } // end decode()
+
+
+   // fill bounds with a TurtleSpace rectangle, [minX,minY,maxX,maxY],
+   // which the line or label at codes[idx] stays inside of
+   //
+   private static void getBounds( int[] codes, Object[] objs, int idx,
+                                  float[] bounds )
+   {
+      if ( codes[idx] == LINE )
+      {
+         float margin = codes[ idx+7 ] + 1;
+         float x1 = flt( codes[idx+1] );
+         float y1 = flt( codes[idx+2] );
+         float x2 = flt( codes[idx+3] );
+         float y2 = flt( codes[idx+4] );
+         bounds[ 0 ] = Math.min( x1, x2 ) - margin;
+         bounds[ 1 ] = Math.min( y1, y2 ) - margin;
+         bounds[ 2 ] = Math.max( x1, x2 ) + margin;
+         bounds[ 3 ] = Math.max( y1, y2 ) + margin;
+      }
+      else
+      {
+         // same conservative guess decode() uses
+         float x = flt( codes[idx+1] );
+         float y = flt( codes[idx+2] );
+         String text = (String) objs[ codes[idx+4] ];
+         float size = ((Font) objs[ codes[idx+4] + 1 ]).getSize2D();
+         bounds[ 0 ] = x - 1;
+         bounds[ 1 ] = y - size;
+         bounds[ 2 ] = x + text.length() * size;
+         bounds[ 3 ] = y + size;
+      }
+
+   } // end getBounds()
+
+
+   private static int geometryHash( int[] codes, Object[] objs, int idx )
+   {
+      int hash = codes[ idx ];
+      int numInts = 5;
+      if ( codes[idx] == LABEL )
+      {
+         numInts = 2;
+         hash = hash * 31 + objs[ codes[idx+4] ].hashCode();
+         hash = hash * 31 + objs[ codes[idx+4] + 1 ].hashCode();
+      }
+      else
+         hash = hash * 31 + codes[ idx+7 ];
+      for ( int i=1; i <= numInts; i++ )
+         hash = hash * 31 + codes[ idx+i ];
+      return hash ^ (hash >>> 16);
+
+   } // end geometryHash()
+
+
+   private static int gridIndex( float coord )
+   {
+      int cell = (int) Math.floor( coord / CELL_SIZE ) + GRID_SIZE / 2;
+      if ( cell < 0 )
+         return 0;
+      if ( cell >= GRID_SIZE )
+         return GRID_SIZE - 1;
+      return cell;
+
+   } // end gridIndex()
+
+
+   // true if the operations at codes[idx1] and codes[idx2] paint
+   // exactly the same pixels (ignoring their color)
+   //
+   private static boolean sameGeometry( int[] codes, Object[] objs,
+                                        int idx1, int idx2 )
+   {
+      if ( codes[idx1] != codes[idx2] )
+         return false;
+      if ( codes[idx1] == LINE )
+      {
+         for ( int i=1; i <= 5; i++ )
+            if ( codes[idx1+i] != codes[idx2+i] )
+               return false;
+         return codes[ idx1+7 ] == codes[ idx2+7 ];
+      }
+      if ( codes[idx1+1] != codes[idx2+1] || codes[idx1+2] != codes[idx2+2] )
+         return false;
+      int obj1 = codes[ idx1+4 ];
+      int obj2 = codes[ idx2+4 ];
+      return objs[obj1].equals( objs[obj2] )
+             && objs[obj1+1].equals( objs[obj2+1] );
+
+   } // end sameGeometry()
+
+
+   // --------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // --------------------------------------------------------------
+
+   /*
+    * Append an operation to the list.
+    */
+   void add( TGGraphicsOp op )
+   {
+      if ( op instanceof TGLineOp )
+      {
+         TGLineOp line = (TGLineOp) op;
+         ensureInts( 8 );
+         codes[ numInts++ ] = LINE;
+         codes[ numInts++ ] = bits( line.getP1().xFloatValue() );
+         codes[ numInts++ ] = bits( line.getP1().yFloatValue() );
+         codes[ numInts++ ] = bits( line.getP2().xFloatValue() );
+         codes[ numInts++ ] = bits( line.getP2().yFloatValue() );
+         codes[ numInts++ ] = bits( (float) line.getHeading() );
+         codes[ numInts++ ] = line.getColor().getRGB();
+         codes[ numInts++ ] = line.getPenWidth();
+      }
+      else if ( op instanceof TGFillOp )
+      {
+         TGFillOp fill = (TGFillOp) op;
+         ensureInts( 4 );
+         codes[ numInts++ ] = FILL;
+         codes[ numInts++ ] = bits( fill.getPoint().xFloatValue() );
+         codes[ numInts++ ] = bits( fill.getPoint().yFloatValue() );
+         codes[ numInts++ ] = fill.getColor().getRGB();
+      }
+      else if ( op instanceof TGLabelOp )
+      {
+         TGLabelOp label = (TGLabelOp) op;
+         ensureInts( 5 );
+         codes[ numInts++ ] = LABEL;
+         codes[ numInts++ ] = bits( label.getPoint().xFloatValue() );
+         codes[ numInts++ ] = bits( label.getPoint().yFloatValue() );
+         codes[ numInts++ ] = label.getColor().getRGB();
+         codes[ numInts++ ] = addObj( label.getText() );
+         addObj( label.getFont() );
+      }
+      else if ( op instanceof TGPolylineOp )
+      {
+         TGPolylineOp polyline = (TGPolylineOp) op;
+         int numPoints = polyline.getNumPoints();
+         float[] xs = new float[ numPoints ];
+         float[] ys = new float[ numPoints ];
+         for ( int i=0; i < numPoints; i++ )
+         {
+            xs[ i ] = polyline.getX( i );
+            ys[ i ] = polyline.getY( i );
+         }
+         ensureInts( 4 );
+         codes[ numInts++ ] = POLYLINE;
+         codes[ numInts++ ] = polyline.getColor().getRGB();
+         codes[ numInts++ ] = polyline.getPenWidth();
+         codes[ numInts++ ] = addObj( xs );
+         addObj( ys );
+      }
+      else
+      {
+         ensureInts( 2 );
+         codes[ numInts++ ] = OTHER;
+         codes[ numInts++ ] = addObj( op );
+      }
+      numOps++;
+
+   } // end add()
+
+
+   /*
+    * Forget everything, e.g., the TGCanvas has been cleaned.
+    */
+   void clear()
+   {
+      codes = new int[ INIT_NUM_INTS ];
+      objs = new Object[ INIT_NUM_OBJS ];
+      numInts = 0;
+      numObjs = 0;
+      numOps = 0;
+      numClears++;
+
+   } // end clear()
+
+
+   /*
+    * Return the set of operations (by their marks) in codes, up to
+    * end, which can be dropped without changing the picture the
+    * rest of them paint on a background of color bgRGB.  This is
+    * the case for an operation that is
+    *
+    * - a line or label which is later repainted by an identical
+    *   line (same end points, heading and width) or label (same
+    *   text, font and position) in any color.  identical geometry
+    *   means identical pixels, and anything painted over those
+    *   pixels in between is painted over again, or
+    *
+    * - a line or label in the background color which only touches
+    *   pixels nothing has been drawn on yet, or
+    *
+    * - a fill right after an identical one (same point and color).
+    *   the first leaves its point in its color, so the second finds
+    *   nothing to fill.
+    *
+    * Otherwise fills, polylines (and operations we know nothing
+    * about) are barriers.  A fill's result depends on the pixels it
+    * finds, so nothing in front of one can be dropped because of
+    * something after it, and where it has painted is unknown.  So
+    * a region filled over and over in alternating colors, or with
+    * anything drawn in between, is kept fill by fill.
+    *
+    * codes and objs are the arrays of a list, see getCodes() and
+    * getObjs().  They are only read.
+    */
+   static BitSet findOverdrawn( int[] codes, Object[] objs, int end, int bgRGB )
+   {
+      BitSet dropped = new BitSet();
+      int numOps = 0;
+      for ( int idx=0; idx < end; idx += opLength(codes[idx]) )
+         numOps++;
+      int[] marks = new int[ numOps ];
+      numOps = 0;
+      for ( int idx=0; idx < end; idx += opLength(codes[idx]) )
+         marks[ numOps++ ] = idx;
+
+      // walking backwards, remember the lines and labels seen since
+      // the last barrier in an open hash table. entries from before
+      // the last barrier have an old generation and are ignored
+      int tableSize = 16;
+      while ( tableSize < numOps * 2 )
+         tableSize *= 2;
+      int[] slotMark = new int[ tableSize ];
+      int[] slotGen = new int[ tableSize ];
+      int gen = 1;
+      for ( int opNum=numOps-1; opNum >= 0; opNum-- )
+      {
+         int idx = marks[ opNum ];
+         int kind = codes[ idx ];
+         if ( kind != LINE && kind != LABEL )
+         {
+            gen++;
+            continue;
+         }
+         int slot = geometryHash( codes, objs, idx ) & (tableSize - 1);
+         while ( slotGen[slot] == gen )
+         {
+            if ( sameGeometry(codes, objs, idx, slotMark[slot]) )
+               break;
+            slot = (slot + 1) & (tableSize - 1);
+         }
+         if ( slotGen[slot] == gen )
+            dropped.set( idx );
+         else
+         {
+            slotGen[ slot ] = gen;
+            slotMark[ slot ] = idx;
+         }
+      }
+
+      // fills repeating the one just before them
+      for ( int opNum=1; opNum < numOps; opNum++ )
+      {
+         int idx = marks[ opNum ];
+         int prev = marks[ opNum - 1 ];
+         if ( codes[idx] == FILL && codes[prev] == FILL
+              && codes[idx+1] == codes[prev+1] && codes[idx+2] == codes[prev+2]
+              && ((codes[idx+3] ^ codes[prev+3]) & 0xffffff) == 0 )
+            dropped.set( idx );
+      }
+
+      // walking forwards, drop background colored lines and labels
+      // that land on untouched cells
+      boolean[] touched = new boolean[ GRID_SIZE * GRID_SIZE ];
+      boolean allTouched = false;
+      float[] bounds = new float[ 4 ];
+      for ( int opNum=0; opNum < numOps && ! allTouched; opNum++ )
+      {
+         int idx = marks[ opNum ];
+         int kind = codes[ idx ];
+         if ( kind != LINE && kind != LABEL )
+         {
+            allTouched = true;
+            continue;
+         }
+         if ( dropped.get(idx) )
+            continue;
+         getBounds( codes, objs, idx, bounds );
+         int minCol = gridIndex( bounds[0] );
+         int maxCol = gridIndex( bounds[2] );
+         int minRow = gridIndex( bounds[1] );
+         int maxRow = gridIndex( bounds[3] );
+         int rgb = (kind == LINE) ? codes[idx+6] : codes[idx+3];
+         boolean virgin = ((rgb ^ bgRGB) & 0xffffff) == 0;
+         for ( int row=minRow; row <= maxRow && virgin; row++ )
+            for ( int col=minCol; col <= maxCol && virgin; col++ )
+               if ( touched[row * GRID_SIZE + col] )
+                  virgin = false;
+         if ( virgin )
+         {
+            dropped.set( idx );
+            continue;
+         }
+         for ( int row=minRow; row <= maxRow; row++ )
+            for ( int col=minCol; col <= maxCol; col++ )
+               touched[ row * GRID_SIZE + col ] = true;
+      }
+      return dropped;
+
+   } // end findOverdrawn()
+
+
+   /*
+    * Return the number of times the list has been cleared.  Marks
+    * and arrays obtained before a clear() mean nothing after it.
+    */
+   int getClears()
+   { return numClears; }
+
+
+   /*
+    * Return the array operations are encoded in.  See the class
+    * comment for what may be done with it.
+    */
+   int[] getCodes()
+   { return codes; }
+
+
+   /*
+    * Return the array of Objects referenced by encoded operations.
+    */
+   Object[] getObjs()
+   { return objs; }
+
+
+   /*
+    * Return the operation at mark, a value returned by mark() or
+    * next(), as a TGGraphicsOp in TurtleSpace.
+    */
+   TGGraphicsOp getOp( int mark )
+   {
+      return decode( mark, 1.0, 0.0F, 0.0F,
+                     Integer.MAX_VALUE, Integer.MAX_VALUE );
+
+   } // end getOp()
+
+
+   /*
+    * Return a mark for the current end of the list, to be handed
+    * to render() later so it only applies operations added since.
+    */
+   int mark()
+   { return numInts; }
+
+
+   /*
+    * Return the mark of the operation following the one at mark.
+    */
+   int next( int mark )
+   { return mark + opLength( codes[mark] ); }
+
+
+   /*
+    * Remove the operations whose marks are in dropped, all of which
+    * are before end, e.g., the ones findOverdrawn() found.  Return
+    * where end is now.  All other marks are invalid afterwards.
+    */
+   int removeOps( BitSet dropped, int end )
+   {
+      int[] oldCodes = codes;
+      Object[] oldObjs = objs;
+      int oldNumInts = numInts;
+      codes = new int[ Math.max(INIT_NUM_INTS, oldNumInts) ];
+      objs = new Object[ Math.max(INIT_NUM_OBJS, numObjs) ];
+      numInts = 0;
+      numObjs = 0;
+      numOps = 0;
+      int newEnd = 0;
+      for ( int idx=0; idx < oldNumInts; idx += opLength(oldCodes[idx]) )
+      {
+         if ( idx == end )
+            newEnd = numInts;
+         if ( idx < end && dropped.get(idx) )
+            continue;
+         int kind = oldCodes[ idx ];
+         int len = opLength( kind );
+         System.arraycopy( oldCodes, idx, codes, numInts, len );
+         if ( kind == LABEL )
+         {
+            codes[ numInts+4 ] = addObj( oldObjs[oldCodes[idx+4]] );
+            addObj( oldObjs[oldCodes[idx+4] + 1] );
+         }
+         else if ( kind == POLYLINE )
+         {
+            codes[ numInts+3 ] = addObj( oldObjs[oldCodes[idx+3]] );
+            addObj( oldObjs[oldCodes[idx+3] + 1] );
+         }
+         else if ( kind == OTHER )
+            codes[ numInts+1 ] = addObj( oldObjs[oldCodes[idx+1]] );
+         numInts += len;
+         numOps++;
+      }
+      if ( end == oldNumInts )
+         newEnd = numInts;
+      return newEnd;
+
+   } // end removeOps()
+
+
+   /*
+    * Apply the operations in the list to image, in order, after
+    * scaling TurtleSpace by scale around (centerX,centerY), i.e.,
+    * (centerX,centerY) ends up in the center of image.  Operations
+    * which can't touch image are skipped without being rasterized;
+    * a fill can only be performed from a point on image, so one
+    * whose point is off it is skipped even though some of the
+    * region it filled may be on image.  Only operations from mark
+    * (a value returned by mark(), zero for all of them) on are
+    * applied.  If dirty isn't null, each operation's area is marked
+    * in it, one at a time.  Return the union of the areas of image
+    * that were changed, or null if nothing was.
+    */
+   Rectangle render( Image image, double scale, float centerX, float centerY,
+                     int mark, TGDirtyTiles dirty )
+   {
+      int imageWidth = image.getWidth( null );
+      int imageHeight = image.getHeight( null );
+      boolean identity = scale == 1.0 && centerX == 0.0F && centerY == 0.0F;
+      Rectangle changed = null;
+      int idx = mark;
+      while ( idx < numInts )
+      {
+         int kind = codes[ idx ];
+         if ( kind != OTHER || identity )
+         {
+            TGGraphicsOp op = decode( idx, scale, centerX, centerY,
+                                      imageWidth, imageHeight );
+            Rectangle clipRect = null;
+            if ( op != null )
+               clipRect = op.doIt( image );
+            if ( clipRect != null )
+            {
+               if ( dirty != null )
+                  dirty.add( clipRect.x, clipRect.y, clipRect.width,
+                             clipRect.height );
+               if ( changed == null )
+                  changed = clipRect;
+               else
+                  changed.add( clipRect );
+            }
+         }
+         idx = next( idx );
+      }
+      return changed;
+
+   } // end render()
+
+
+   /*
+    * Return the number of operations in the list.
+    */
+   int size()
+   { return numOps; }
+
+} // end class TGDisplayList
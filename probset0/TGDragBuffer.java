@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TGDragBuffer holds the positions the mouse is dragged through on
+ * a TGCanvas, every one of them, for freehand drawing.
+ *
+ * The canvas adds a sample (TurtleSpace x and y, and the time of the
+ * MouseEvent) for each left-button press and each drag event that
+ * follows it; TGDragHandlers are told when there are new ones and
+ * take them out in bulk with drain().  The first sample of each
+ * stroke, the one for the button press, is flagged as such.
+ *
+ * Samples are kept in a fixed-size ring of primitive arrays with one
+ * producer (the AWT event dispatch thread) and one consumer (the
+ * thread TGDragHandlers are called on), so neither side ever locks.
+ * If the ring is full, because nobody is draining it, new samples
+ * are dropped and counted.
+ *
+ * @see TGCanvas#getDragBuffer
+ * @see TGDragHandler
+ */
+
+public class TGDragBuffer
+{
+
+   // constants
+   //
+   private static final int CAPACITY = 4096;  // a power of two
+
+
+   // variables with class-wide scope
+   //
+   private boolean[] newStroke;    // the sample started a stroke
+   private float[] xs;             // TurtleSpace coordinates
+   private float[] ys;
+   private long[] whens;           // MouseEvent.getWhen()
+   private AtomicLong head;        // next sample to drain
+   private AtomicLong tail;        // next slot to fill
+   private AtomicLong numDropped;
+
+
+   //
+   // constructor
+   //
+   TGDragBuffer()
+   {
+      newStroke = new boolean[ CAPACITY ];
+      xs = new float[ CAPACITY ];
+      ys = new float[ CAPACITY ];
+      whens = new long[ CAPACITY ];
+      head = new AtomicLong();
+      tail = new AtomicLong();
+      numDropped = new AtomicLong();
+   }
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   /*
+    * Add a sample; called by TGCanvas, on the AWT thread only.
+    * Return false if the ring is full and it was dropped.
+    */
+   boolean add( float x, float y, long when, boolean startsStroke )
+   {
+      long t = tail.get();
+      if ( t - head.get() == CAPACITY )
+      {
+         numDropped.incrementAndGet();
+         return false;
+      }
+      int slot = (int) t & (CAPACITY - 1);
+      xs[ slot ] = x;
+      ys[ slot ] = y;
+      whens[ slot ] = when;
+      newStroke[ slot ] = startsStroke;
+      tail.lazySet( t + 1 );    // publishes the slot's contents
+      return true;
+
+   } // end add()
+
+
+   /**
+    * Move as many samples as fit, oldest first, into x, y, when and
+    * startsStroke (which may be null) and return how many that was.
+    * All four arrays are filled from index 0.  Only call this from
+    * one thread at a time, e.g., from TGDragHandler.mouseDragged().
+    */
+   public int drain( float[] x, float[] y, long[] when, boolean[] startsStroke )
+   {
+      long h = head.get();
+      int count = (int) Math.min( tail.get() - h, x.length );
+      count = Math.min( count, Math.min(y.length, when.length) );
+      if ( startsStroke != null )
+         count = Math.min( count, startsStroke.length );
+      for ( int i=0; i < count; i++ )
+      {
+         int slot = (int) (h + i) & (CAPACITY - 1);
+         x[ i ] = xs[ slot ];
+         y[ i ] = ys[ slot ];
+         when[ i ] = whens[ slot ];
+         if ( startsStroke != null )
+            startsStroke[ i ] = newStroke[ slot ];
+      }
+      head.lazySet( h + count );  // hands the slots back
+      return count;
+
+   } // end drain()
+
+
+   /**
+    * Return the number of samples dropped because the buffer was
+    * full.
+    */
+   public long getDropped()
+   { return numDropped.get(); }
+
+
+   /**
+    * Return the number of samples waiting to be drained.
+    */
+   public int size()
+   { return (int) (tail.get() - head.get()); }
+
+} // end class TGDragBuffer
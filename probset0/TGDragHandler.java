@@ -0,0 +1,14 @@
+/**
+ * TGDragHandler is an interface that a class implements when
+ * it would like to follow the mouse as it is dragged on a TGCanvas,
+ * e.g., for freehand drawing.
+ *
+ * mouseDragged() is called, on the same thread as TGKeyHandlers and
+ * TGMouseHandlers, after new samples have been added to samples; it
+ * takes them out with TGDragBuffer.drain().  Calls are coalesced, so
+ * there may be many samples waiting by the time it is called.
+ */
+public interface TGDragHandler
+{
+   public void mouseDragged( TGDragBuffer samples );
+}
@@ -0,0 +1,91 @@
+import java.awt.Color;
+
+/*
+ * This class is the TGDragHandler TGCanvas.setDragStroke() installs:
+ * it turns what the mouse is dragged through into ink on the canvas.
+ *
+ * Whatever samples have piled up in the TGDragBuffer since the last
+ * call are drained and drawn as one TGPolylineOp per stroke, joined
+ * to where the stroke's previous polyline ended, so a stroke costs
+ * a handful of operations however fast the mouse moves.
+ */
+
+class TGDragStroke implements TGDragHandler
+{
+
+   // constants
+   //
+   private static final int DRAIN_SIZE = 1024;
+
+
+   // variables with class-wide scope
+   //
+   private boolean inStroke;      // lastX,lastY is where the stroke
+   private float lastX, lastY;    // being drawn got to
+   private boolean[] starts;      // drain() buffers
+   private float[] xs;
+   private float[] ys;
+   private long[] whens;
+   private Color color;
+   private int penWidth;
+   private TGCanvas tgc;
+
+
+   //
+   // constructor
+   //
+   TGDragStroke( TGCanvas tgc, Color color, int penWidth )
+   {
+      this.tgc = tgc;
+      this.color = color;
+      this.penWidth = penWidth;
+      starts = new boolean[ DRAIN_SIZE ];
+      xs = new float[ DRAIN_SIZE ];
+      ys = new float[ DRAIN_SIZE ];
+      whens = new long[ DRAIN_SIZE ];
+   }
+
+
+   // draw samples from..to-1, which belong to one stroke
+   //
+   private void drawRun( int from, int to )
+   {
+      int offset = inStroke ? 1 : 0;
+      int numPoints = offset + (to - from);
+      float[] x = new float[ numPoints ];
+      float[] y = new float[ numPoints ];
+      if ( inStroke )
+      {
+         x[ 0 ] = lastX;
+         y[ 0 ] = lastY;
+      }
+      System.arraycopy( xs, from, x, offset, to - from );
+      System.arraycopy( ys, from, y, offset, to - from );
+      tgc.addGraphOp( new TGPolylineOp(x, y, color, penWidth) );
+      lastX = x[ numPoints-1 ];
+      lastY = y[ numPoints-1 ];
+      inStroke = true;
+
+   } // end drawRun()
+
+
+   public void mouseDragged( TGDragBuffer samples )
+   {
+      int count;
+      while ( (count = samples.drain(xs, ys, whens, starts)) > 0 )
+      {
+         int runStart = 0;
+         for ( int i=0; i < count; i++ )
+            if ( starts[i] )
+            {
+               if ( i > runStart )
+                  drawRun( runStart, i );
+               inStroke = false;
+               runStart = i;
+            }
+         drawRun( runStart, count );
+      }
+
+   } // end mouseDragged()
+
+} // end class TGDragStroke
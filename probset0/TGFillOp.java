@@ -1,6 +1,8 @@
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.ImageObserver;
 import java.awt.image.MemoryImageSource;
 import java.awt.image.PixelGrabber;
@@ -62,6 +64,8 @@ class TGFillOp implements ImageObserver, TGGraphicsOp
    private int maxFloodY;
    private int minFloodX;
    private int minFloodY;
+   private int numSeeds;       // fillElems()' stack of (x,y) seeds
+   private int[] seeds;
    private int sourceHeight;
    private int sourceWidth;
    private int subPixHt;
@@ -196,6 +200,97 @@ class TGFillOp implements ImageObserver, TGGraphicsOp
    } // end floodFill
 
 
+   // flood fill an image in place, straight in its DataBuffer, one
+   // horizontal run at a time: an indexed image (see TGPalette)
+   // with mask 0xff and newValue an index, or an RGB one, on-heap
+   // or off (see TGOffHeapBuffer), with mask 0xffffff and newValue
+   // an RGB.  the runs still to be looked at above and below are
+   // kept on a stack of (x,y) seeds instead of the Java stack
+   //
+   private Rectangle fillElems( DataBuffer data, int wd, int ht, int imageX,
+                                int imageY, int mask, int newValue )
+   {
+      int curValue = data.getElem( imageY * wd + imageX ) & mask;
+      if ( curValue == newValue )
+         return null;
+      maxFloodX = minFloodX = imageX;
+      maxFloodY = minFloodY = imageY;
+      seeds = new int[ 256 ];
+      numSeeds = 0;
+      pushSeed( imageX, imageY );
+      while ( numSeeds > 0 )
+         fillRun( data, wd, ht, mask, curValue, newValue );
+      seeds = null;
+      return new Rectangle( minFloodX, minFloodY, (maxFloodX+1) - minFloodX,
+                            (maxFloodY+1) - minFloodY );
+
+   } // end fillElems()
+
+   // fillElems(): pop a seed and fill the run of curValue pixels
+   // through it, if it hasn't been filled since it was pushed, then
+   // push seeds for the runs above and below it
+   //
+   private void fillRun( DataBuffer data, int wd, int ht, int mask,
+                         int curValue, int newValue )
+   {
+      int y = seeds[ --numSeeds ];
+      int x = seeds[ --numSeeds ];
+      int row = y * wd;
+      if ( (data.getElem(row + x) & mask) != curValue )
+         return;
+      int left = x;
+      while ( left > 0 && (data.getElem(row + left - 1) & mask) == curValue )
+         left--;
+      int right = x;
+      while ( right < wd - 1 && (data.getElem(row + right + 1) & mask) == curValue )
+         right++;
+      for ( int i=left; i <= right; i++ )
+         data.setElem( row + i, newValue );
+      minFloodX = Math.min( minFloodX, left );
+      maxFloodX = Math.max( maxFloodX, right );
+      minFloodY = Math.min( minFloodY, y );
+      maxFloodY = Math.max( maxFloodY, y );
+      if ( y > 0 )
+         pushRuns( data, wd, left, right, y - 1, mask, curValue );
+      if ( y < ht - 1 )
+         pushRuns( data, wd, left, right, y + 1, mask, curValue );
+
+   } // end fillRun()
+
+
+   // fillElems(): push a seed for each run of curValue pixels in row
+   // y between left and right, next to the run just filled
+   //
+   private void pushRuns( DataBuffer data, int wd, int left, int right, int y,
+                          int mask, int curValue )
+   {
+      int row = y * wd;
+      boolean inRun = false;
+      for ( int i=left; i <= right; i++ )
+      {
+         boolean matches = (data.getElem(row + i) & mask) == curValue;
+         if ( matches && ! inRun )
+            pushSeed( i, y );
+         inRun = matches;
+      }
+
+   } // end pushRuns()
+
+
+   private void pushSeed( int x, int y )
+   {
+      if ( numSeeds + 2 > seeds.length )
+      {
+         int[] oldSeeds = seeds;
+         seeds = new int[ oldSeeds.length * 2 ];
+         System.arraycopy( oldSeeds, 0, seeds, 0, numSeeds );
+      }
+      seeds[ numSeeds++ ] = x;
+      seeds[ numSeeds++ ] = y;
+
+   } // end pushSeed()
+
+
    // print pixels in TG-coordinate-based rectangle,
    // i.e., x and y origins are at center of the graphicsImage.
    // x=leftmostEdge, y=bottomEdge
@@ -235,7 +330,12 @@ class TGFillOp implements ImageObserver, TGGraphicsOp
    //        may not be within current bounds of the graphics
    //        Image.  in this case, the operation can not be
    //        performed.
-   //        
+   //
+   //        an indexed graphics Image (see TGPalette), an off-heap
+   //        one (see TGOffHeapBuffer) or an RGB BufferedImage, e.g.,
+   //        a TGSupersampler's, is filled directly, without grabbing
+   //        its pixels
+   //
    public Rectangle doIt( Image graphicsImage )
    {
       sourceImage = graphicsImage;
@@ -252,6 +352,19 @@ class TGFillOp implements ImageObserver, TGGraphicsOp
       int imageY = point.imageY( sourceHeight );
       if ( imageY < 0 || imageY >= sourceHeight )
          return null;
+      if ( TGPalette.isIndexed(graphicsImage) && TGPalette.indexOf(color) >= 0 )
+         return fillElems( ((BufferedImage) graphicsImage).getRaster().getDataBuffer(),
+                           sourceWidth, sourceHeight, imageX, imageY,
+                           0xff, TGPalette.indexOf(color) );
+      TGOffHeapBuffer offHeap = TGOffHeapBuffer.get( graphicsImage );
+      if ( offHeap != null )
+         return fillElems( offHeap, sourceWidth, sourceHeight, imageX, imageY,
+                           0xffffff, color.getRGB() & 0xffffff );
+      if ( graphicsImage instanceof BufferedImage
+           && ((BufferedImage) graphicsImage).getType() == BufferedImage.TYPE_INT_RGB )
+         return fillElems( ((BufferedImage) graphicsImage).getRaster().getDataBuffer(),
+                           sourceWidth, sourceHeight, imageX, imageY,
+                           0xffffff, color.getRGB() & 0xffffff );
       pixels = new int[sourceWidth * sourceHeight];
       yCenter = sourceHeight / 2;
       subPixLeftX = imageX - EXPAND_SIZE;
@@ -299,7 +412,7 @@ class TGFillOp implements ImageObserver, TGGraphicsOp
       waitingForImage = true;
       boolean retVal = g.drawImage( newImg, x, y, this );
       //System.out.println("TGFillOp.drawImage: retVal=" + retVal );
-      if ( retVal )
+      if ( ! retVal )
          while ( waitingForImage )
          {
             try  { wait(); }
@@ -317,6 +430,10 @@ class TGFillOp implements ImageObserver, TGGraphicsOp
    { return color; }
 
 
+   public TGPoint getPoint()
+   { return point; }
+
+
    private boolean getPixels( int x, int y, int width, int height )
    {
       //System.out.print("getPixels: x="+x+", y="+y);
@@ -0,0 +1,509 @@
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/*
+ * This class records what a TGCanvas displays, turtles included,
+ * as an animation.
+ *
+ * Each time the canvas is painted, the part of it that changed (new
+ * graphics plus where turtles were and are) is copied, with the
+ * turtles composited over it, and put on a bounded queue.  Copying
+ * a dirty rectangle is cheap; the painting thread only waits if the
+ * encoder thread has fallen QUEUE_SIZE frames behind.
+ *
+ * The first frame queued must be the whole picture.  The encoder
+ * thread keeps a shadow copy of it.  It compares each later frame
+ * with the shadow, shrinks it to the bounding box of the pixels
+ * which really changed and drops it altogether if nothing did, so
+ * a turtle program that repaints without drawing adds nothing to
+ * the output.  What is left is written as
+ *
+ *   GIF  an animated GIF.  Each frame is just the changed box, drawn
+ *        over the previous ones ("doNotDispose"), with unchanged
+ *        pixels in it transparent.  Frame delays come from the
+ *        times the frames were captured.
+ *   RAW  a stream of big-endian ints: RAW_MAGIC, width, height, then
+ *        per frame: milliseconds since the capture started, x, y,
+ *        width and height of the changed box, and its RGB pixels.
+ *
+ * A GIF frame holds at most 255 colors plus transparency; further
+ * colors are drawn with the closest of those, which turtle
+ * graphics seldom need.
+ */
+
+class TGFrameCapture extends Thread
+{
+
+   // constants
+   //
+   static final int GIF = 1;
+   static final int RAW = 2;
+   private static final int MAX_COLORS = 255;    // plus a transparent one
+   private static final int MIN_DELAY = 2;       // GIF centiseconds
+   private static final int QUEUE_SIZE = 32;
+   private static final int RAW_MAGIC = 0x54474652;  // "TGFR"
+
+
+   /*
+    * A captured part of the display.
+    */
+   private static class Frame
+   {
+      int x, y, width, height;
+      int[] pixels;               // RGB
+      long time;                  // System.currentTimeMillis()
+   }
+
+
+   // the last element put on the queue, by stopCapture()
+   //
+   private static final Frame END = new Frame();
+
+
+   // variables with class-wide scope
+   //
+   private boolean firstFrame;    // nothing has been encoded yet
+   private int format;
+   private int height;            // of the whole picture
+   private int width;
+   private int[] shadow;          // the picture as encoded so far, RGB
+   private long startTime;
+   private ArrayBlockingQueue<Frame> queue;
+   private AtomicInteger numDropped;  // frames lost to interrupts
+   private DataOutputStream rawOut;
+   private Frame pending;         // GIF: waiting to find out its delay
+   private ImageOutputStream gifOut;
+   private ImageWriter gifWriter;
+   private IOException ioErr;     // first error, reported by stopCapture()
+   private BufferedImage pendingImage;
+
+
+   //
+   // constructor
+   //
+   TGFrameCapture( String fileName, int format, int width, int height )
+      throws IOException
+   {
+      super( "TGFrameCapture" );
+      this.format = format;
+      this.width = width;
+      this.height = height;
+      shadow = new int[ width * height ];
+      firstFrame = true;
+      queue = new ArrayBlockingQueue<Frame>( QUEUE_SIZE );
+      numDropped = new AtomicInteger();
+      startTime = System.currentTimeMillis();
+      if ( format == GIF )
+      {
+         gifWriter = ImageIO.getImageWritersByFormatName( "gif" ).next();
+         File file = new File( fileName );
+         file.delete();
+         gifOut = ImageIO.createImageOutputStream( file );
+         if ( gifOut == null )
+            throw new IOException( "TGFrameCapture: can't write " + fileName );
+         gifWriter.setOutput( gifOut );
+         gifWriter.prepareWriteSequence( null );
+      }
+      else if ( format == RAW )
+      {
+         rawOut = new DataOutputStream( new BufferedOutputStream(
+                                           new FileOutputStream(fileName)) );
+         rawOut.writeInt( RAW_MAGIC );
+         rawOut.writeInt( width );
+         rawOut.writeInt( height );
+      }
+      else
+         throw new IllegalArgumentException( "TGFrameCapture: bad format "
+                                             + format );
+      setDaemon( true );          // a forgotten capture can't hang exit
+      start();
+   }
+
+
+   // shrink frame to the box of pixels that differ from the shadow,
+   // copying them into it.  return false if nothing changed
+   //
+   private boolean diffFrame( Frame frame )
+   {
+      int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+      int maxX = -1, maxY = -1;
+      for ( int row=0; row < frame.height; row++ )
+      {
+         int sIdx = (frame.y + row) * width + frame.x;
+         int fIdx = row * frame.width;
+         for ( int col=0; col < frame.width; col++, sIdx++, fIdx++ )
+         {
+            int rgb = frame.pixels[ fIdx ];
+            if ( shadow[sIdx] != rgb )
+            {
+               shadow[ sIdx ] = rgb;
+               if ( col < minX ) minX = col;
+               if ( col > maxX ) maxX = col;
+               if ( row < minY ) minY = row;
+               maxY = row;
+            }
+         }
+      }
+      if ( maxX < 0 )
+         return false;
+      int newWidth = maxX - minX + 1;
+      int newHeight = maxY - minY + 1;
+      if ( newWidth != frame.width || newHeight != frame.height )
+      {
+         int[] pixels = new int[ newWidth * newHeight ];
+         for ( int row=0; row < newHeight; row++ )
+            System.arraycopy( frame.pixels, (minY + row) * frame.width + minX,
+                              pixels, row * newWidth, newWidth );
+         frame.pixels = pixels;
+         frame.x += minX;
+         frame.y += minY;
+         frame.width = newWidth;
+         frame.height = newHeight;
+      }
+      return true;
+
+   } // end diffFrame()
+
+
+   // turn a frame into an indexed image.  pixels which are the same
+   // as in the picture before the frame are transparent; prior is
+   // that picture's pixels in the frame's box
+   //
+   private BufferedImage indexedImage( Frame frame, int[] prior )
+   {
+      int[] keys = new int[ 1024 ];       // open hash of RGB to index,
+      int[] values = new int[ 1024 ];     // key -1 is an empty slot
+      Arrays.fill( keys, -1 );
+      int[] palette = new int[ MAX_COLORS + 1 ];
+      int numColors = 1;                  // 0 is transparent
+      int numKeys = 0;
+      byte[] indexes = new byte[ frame.pixels.length ];
+      for ( int i=0; i < indexes.length; i++ )
+      {
+         int rgb = frame.pixels[ i ];
+         if ( prior != null && prior[i] == rgb )
+            continue;                     // index 0
+         int slot = (rgb * 0x9E3779B1) >>> 22;
+         while ( keys[slot] != -1 && keys[slot] != rgb )
+            slot = (slot + 1) & 1023;
+         if ( keys[slot] == -1 )
+         {
+            int index;
+            if ( numColors <= MAX_COLORS )
+            {
+               index = numColors++;
+               palette[ index ] = rgb;
+            }
+            else
+               index = closestColor( palette, rgb );
+            // keep the table at most half full; past that, colors
+            // beyond the palette's are looked up every time
+            if ( numKeys < 512 )
+            {
+               keys[ slot ] = rgb;
+               values[ slot ] = index;
+               numKeys++;
+            }
+            indexes[ i ] = (byte) index;
+         }
+         else
+            indexes[ i ] = (byte) values[ slot ];
+      }
+      // a GIF color table's size is a power of two
+      int tableSize = 2;
+      while ( tableSize < numColors )
+         tableSize *= 2;
+      byte[] reds = new byte[ tableSize ];
+      byte[] greens = new byte[ tableSize ];
+      byte[] blues = new byte[ tableSize ];
+      for ( int i=1; i < numColors; i++ )
+      {
+         reds[ i ] = (byte) (palette[i] >> 16);
+         greens[ i ] = (byte) (palette[i] >> 8);
+         blues[ i ] = (byte) palette[ i ];
+      }
+      int bits = Integer.numberOfTrailingZeros( tableSize );
+      IndexColorModel icm = new IndexColorModel( bits, tableSize, reds, greens,
+                                                 blues, 0 );
+      BufferedImage image = new BufferedImage( frame.width, frame.height,
+                                               BufferedImage.TYPE_BYTE_INDEXED,
+                                               icm );
+      image.getRaster().setDataElements( 0, 0, frame.width, frame.height,
+                                         indexes );
+      return image;
+
+   } // end indexedImage()
+
+
+   private static int closestColor( int[] palette, int rgb )
+   {
+      int best = 1;
+      int bestDist = Integer.MAX_VALUE;
+      for ( int i=1; i < palette.length; i++ )
+      {
+         int dr = ((palette[i] >> 16) & 0xff) - ((rgb >> 16) & 0xff);
+         int dg = ((palette[i] >> 8) & 0xff) - ((rgb >> 8) & 0xff);
+         int db = (palette[i] & 0xff) - (rgb & 0xff);
+         int dist = dr * dr + dg * dg + db * db;
+         if ( dist < bestDist )
+         {
+            best = i;
+            bestDist = dist;
+         }
+      }
+      return best;
+
+   } // end closestColor()
+
+
+   // pixels in the shadow under frame's box
+   //
+   private int[] shadowPixels( Frame frame )
+   {
+      int[] pixels = new int[ frame.width * frame.height ];
+      for ( int row=0; row < frame.height; row++ )
+         System.arraycopy( shadow, (frame.y + row) * width + frame.x,
+                           pixels, row * frame.width, frame.width );
+      return pixels;
+
+   } // end shadowPixels()
+
+
+   private void writeGifFrame( BufferedImage image, Frame frame, long delay )
+      throws IOException
+   {
+      ImageWriteParam param = gifWriter.getDefaultWriteParam();
+      ImageTypeSpecifier type = new ImageTypeSpecifier( image );
+      IIOMetadata metadata = gifWriter.getDefaultImageMetadata( type, param );
+      String formatName = metadata.getNativeMetadataFormatName();
+      IIOMetadataNode root = new IIOMetadataNode( formatName );
+      IIOMetadataNode descriptor = new IIOMetadataNode( "ImageDescriptor" );
+      descriptor.setAttribute( "imageLeftPosition", "" + frame.x );
+      descriptor.setAttribute( "imageTopPosition", "" + frame.y );
+      descriptor.setAttribute( "imageWidth", "" + frame.width );
+      descriptor.setAttribute( "imageHeight", "" + frame.height );
+      descriptor.setAttribute( "interlaceFlag", "FALSE" );
+      root.appendChild( descriptor );
+      IIOMetadataNode control = new IIOMetadataNode( "GraphicControlExtension" );
+      control.setAttribute( "disposalMethod", "doNotDispose" );
+      control.setAttribute( "userInputFlag", "FALSE" );
+      control.setAttribute( "transparentColorFlag", "TRUE" );
+      control.setAttribute( "delayTime", "" + Math.max(MIN_DELAY, delay / 10) );
+      control.setAttribute( "transparentColorIndex", "0" );
+      root.appendChild( control );
+      metadata.mergeTree( formatName, root );
+      gifWriter.writeToSequence( new IIOImage(image, null, metadata), param );
+
+   } // end writeGifFrame()
+
+
+   // encode one frame from the queue
+   //
+   private void encode( Frame frame ) throws IOException
+   {
+      int[] prior = null;
+      if ( firstFrame )
+      {
+         // the first frame is the whole picture, as is
+         for ( int row=0; row < frame.height; row++ )
+            System.arraycopy( frame.pixels, row * frame.width, shadow,
+                              (frame.y + row) * width + frame.x, frame.width );
+         firstFrame = false;
+      }
+      else
+      {
+         Frame box = new Frame();
+         box.x = frame.x;
+         box.y = frame.y;
+         box.width = frame.width;
+         box.height = frame.height;
+         int[] before = shadowPixels( box );
+         if ( ! diffFrame(frame) )
+            return;
+         // what was under the shrunk frame
+         prior = new int[ frame.width * frame.height ];
+         for ( int row=0; row < frame.height; row++ )
+            System.arraycopy( before, (frame.y - box.y + row) * box.width
+                                      + (frame.x - box.x),
+                              prior, row * frame.width, frame.width );
+      }
+      if ( format == RAW )
+      {
+         rawOut.writeInt( (int) (frame.time - startTime) );
+         rawOut.writeInt( frame.x );
+         rawOut.writeInt( frame.y );
+         rawOut.writeInt( frame.width );
+         rawOut.writeInt( frame.height );
+         for ( int i=0; i < frame.pixels.length; i++ )
+            rawOut.writeInt( frame.pixels[i] );
+         return;
+      }
+      // a GIF frame's delay is how long it is shown, so it is not
+      // known until the next frame arrives
+      BufferedImage image = indexedImage( frame, prior );
+      if ( pending != null )
+         writeGifFrame( pendingImage, pending, frame.time - pending.time );
+      pending = frame;
+      pendingImage = image;
+
+   } // end encode()
+
+
+   private void finish() throws IOException
+   {
+      if ( format == RAW )
+      {
+         rawOut.close();
+         return;
+      }
+      if ( pending != null )
+         writeGifFrame( pendingImage, pending, 1000 );
+      gifWriter.endWriteSequence();
+      gifOut.close();
+      gifWriter.dispose();
+
+   } // end finish()
+
+
+   public void run()
+   {
+      while ( true )
+      {
+         Frame frame;
+         try { frame = queue.take(); }
+         catch ( InterruptedException ie ) { continue; }
+         if ( frame == END )
+            break;
+         if ( ioErr != null )
+            continue;                     // keep draining the queue
+         try { encode( frame ); }
+         catch ( IOException ioe ) { ioErr = ioe; }
+      }
+      try { finish(); }
+      catch ( IOException ioe )
+      {
+         if ( ioErr == null )
+            ioErr = ioe;
+      }
+
+   } // end run()
+
+
+   // --------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // --------------------------------------------------------------
+
+   /*
+    * Queue a copy of dirty, a rectangle of the canvas, made from
+    * graphicsImage (whose pixel (offsetX,offsetY) is the canvas' top
+    * left corner) with the turtles drawn at turtleRects over it.
+    * Waits only if the queue is full.
+    */
+   void captureFrame( Image graphicsImage, int offsetX, int offsetY,
+                      Rectangle dirty, Turtle[] turtles,
+                      Rectangle[] turtleRects )
+   {
+      Rectangle box = dirty.intersection( new Rectangle(0, 0, width, height) );
+      if ( box.isEmpty() )
+         return;
+      Frame frame = new Frame();
+      frame.time = System.currentTimeMillis();
+      frame.x = box.x;
+      frame.y = box.y;
+      frame.width = box.width;
+      frame.height = box.height;
+      BufferedImage image = (BufferedImage) graphicsImage;
+      int giX = box.x + offsetX;
+      int giY = box.y + offsetY;
+      if ( image.getType() == BufferedImage.TYPE_INT_RGB )
+         frame.pixels = (int[]) image.getRaster().getDataElements( giX, giY,
+                                                                   box.width,
+                                                                   box.height,
+                                                                   null );
+      else
+      {
+         frame.pixels = new int[ box.width * box.height ];
+         TGPalette.getRGB( image, giX, giY, box.width, box.height,
+                           frame.pixels, 0, box.width );
+      }
+      for ( int i=0; i < frame.pixels.length; i++ )
+         frame.pixels[ i ] &= 0xffffff;
+      for ( int t=0; t < turtles.length; t++ )
+      {
+         Turtle turtle = turtles[ t ];
+         Rectangle rect = turtleRects[ t ];
+         if ( turtle == null || rect == null || ! rect.intersects(box) )
+            continue;
+         // rect is side x side, the turtle's image when it was
+         // found; a setshape() since then can have swapped in a
+         // smaller array, so the array is read once and checked
+         int[] turtlePixels = turtle.getImagePixels();
+         int side = rect.width;
+         if ( turtlePixels == null || turtlePixels.length < side * rect.height )
+            continue;
+         Rectangle clip = rect.intersection( box );
+         for ( int y=clip.y; y < clip.y + clip.height; y++ )
+            for ( int x=clip.x; x < clip.x + clip.width; x++ )
+            {
+               int argb = turtlePixels[ (y - rect.y) * side + (x - rect.x) ];
+               if ( (argb >>> 24) >= 0x80 )
+                  frame.pixels[ (y - box.y) * box.width + (x - box.x) ]
+                     = argb & 0xffffff;
+            }
+      }
+      try { queue.put( frame ); }
+      catch ( InterruptedException ie )
+      {
+         numDropped.incrementAndGet();
+         Thread.currentThread().interrupt();
+      }
+
+   } // end captureFrame()
+
+
+   /*
+    * Encode what is still queued, finish the output file and end
+    * the encoder thread.  Any error writing the file is thrown.
+    */
+   void stopCapture() throws IOException
+   {
+      boolean interrupted = false;
+      while ( true )
+      {
+         try
+         {
+            queue.put( END );
+            join();
+            break;
+         }
+         catch ( InterruptedException ie ) { interrupted = true; }
+      }
+      if ( interrupted )
+         Thread.currentThread().interrupt();
+      if ( numDropped.get() > 0 )
+         System.err.println( "TGFrameCapture: " + numDropped.get()
+                             + " frame(s) dropped, painting was interrupted" );
+      if ( ioErr != null )
+         throw ioErr;
+
+   } // end stopCapture()
+
+} // end class TGFrameCapture
@@ -0,0 +1,17 @@
+import java.awt.Color;
+
+/**
+ * TGGraphicsOpHandler is an interface that a class implements when
+ * it would like to see every graphics operation handed to TGCanvas,
+ * in order, as it is added.
+ *
+ * Callbacks are made on whatever thread added the operation, with
+ * TGCanvas' queue of operations locked, so they should be quick.
+ */
+
+public interface TGGraphicsOpHandler
+{
+   public void graphicsCleared( Color background ); // clean() or setbg(),
+                                                    // and when added
+   public void graphicsOpAdded( TGGraphicsOp op );
+}
@@ -0,0 +1,138 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Image;
+
+/*
+ * This class is a background thread which clears TGCanvas' spare
+ * graphics image while the other one is being drawn in, see
+ * TGCanvas.setSwapOnClear().  It also knows how to clear an image
+ * as little as possible, which TGCanvas uses when it clears an
+ * image itself.
+ */
+
+class TGImageClearer extends Thread
+{
+
+   // variables with class-wide scope
+   //
+   private boolean busy;          // a request is being worked on
+   private boolean stopped;
+   private Color color;           // the request: fill image's dirty tiles
+   private Color oldColor;        // (all of it if oldColor differs from
+   private Image image;           // color) with color
+   private TGDirtyTiles dirty;
+
+
+   //
+   // constructor
+   //
+   TGImageClearer()
+   {
+      super( "TGImageClearer" );
+      setDaemon( true );
+   }
+
+
+   public void run()
+   {
+      while ( true )
+      {
+         synchronized ( this )
+         {
+            while ( image == null && ! stopped )
+            {
+               try { wait(); }
+               catch ( InterruptedException ie ) { }
+            }
+            if ( stopped )
+               return;
+         }
+         clearImage( image, dirty, oldColor, color );
+         synchronized ( this )
+         {
+            image = null;
+            dirty = null;
+            busy = false;
+            notifyAll();
+         }
+      }
+
+   } // end run()
+
+
+   // --------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // --------------------------------------------------------------
+
+   /*
+    * Start clearing image to color in the background.  Waits for a
+    * clear already in progress to finish first.
+    */
+   synchronized void clear( Image image, TGDirtyTiles dirty, Color oldColor,
+                            Color color )
+   {
+      waitIdle();
+      this.image = image;
+      this.dirty = dirty;
+      this.oldColor = oldColor;
+      this.color = color;
+      busy = true;
+      notifyAll();
+
+   } // end clear()
+
+
+   /*
+    * Clear image to color.  If its pixels that aren't dirty already
+    * are that color (oldColor is color) only the dirty tiles are
+    * filled; else all of it is.  dirty is left empty.
+    */
+   static void clearImage( Image image, TGDirtyTiles dirty, Color oldColor,
+                           Color color )
+   {
+      TGOffHeapBuffer offHeap = TGOffHeapBuffer.get( image );
+      if ( offHeap != null && ! color.equals(oldColor) )
+      {
+         // Java2D would fill it a pixel at a time
+         offHeap.fill( color.getRGB() );
+         dirty.clear();
+         return;
+      }
+      Graphics g = image.getGraphics();
+      g.setColor( color );
+      if ( color.equals(oldColor) )
+         dirty.fill( g );
+      else
+         g.fillRect( 0, 0, image.getWidth(null), image.getHeight(null) );
+      g.dispose();
+      dirty.clear();
+
+   } // end clearImage()
+
+
+   /*
+    * Let the thread end.
+    */
+   synchronized void shutdown()
+   {
+      waitIdle();
+      stopped = true;
+      notifyAll();
+
+   } // end shutdown()
+
+
+   /*
+    * Wait until the image last given to clear() is cleared.
+    */
+   synchronized void waitIdle()
+   {
+      while ( busy )
+      {
+         try { wait(); }
+         catch ( InterruptedException ie ) { }
+      }
+
+   } // end waitIdle()
+
+} // end class TGImageClearer
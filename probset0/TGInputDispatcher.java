@@ -0,0 +1,264 @@
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * This class delivers a TGCanvas' key and mouse events to its
+ * TGKeyHandlers, TGMouseHandlers and TGDragHandlers.
+ *
+ * Handlers are not called on the AWT event dispatch thread, where
+ * a slow one (one that draws a lot in response to a key, say) would
+ * hold up painting and every event behind it.  Events are queued,
+ * in order, to a single thread of their own which calls the
+ * handlers.  Just before a mouse event's handlers are called, the
+ * canvas' idea of where the mouse is (TGCanvas.mousex(), mousey())
+ * is set to where the event happened, so a click's handlers see its
+ * position even if the mouse has moved on since.  Mouse motion
+ * comes in bursts, and a mouseMoved() handler only ever looks at
+ * where the mouse is now, so a queued mouseMoved(), which carries
+ * the position it happened at, is skipped if further motion or a
+ * click was queued after it; only the latest is delivered.  While
+ * a mouseDragged() is waiting to be delivered, further dragging is
+ * coalesced into it instead of being queued; drag handlers drain
+ * all the samples collected in the canvas' TGDragBuffer in the
+ * meantime.
+ *
+ * Any number of handlers may be added.  The time from each of the
+ * last LATENCY_HISTORY events arriving to its handlers being called
+ * is kept for getLatencies().
+ */
+
+class TGInputDispatcher
+{
+
+   // constants
+   //
+   private static final int LATENCY_HISTORY = 120;
+
+
+   // variables with class-wide scope
+   //
+   private int latencyIdx;               // where the next latency goes
+   private int numLatencies;             // latencies recorded, up to
+                                         // LATENCY_HISTORY
+   private long[] latencies;             // nanoseconds, a ring
+   private AtomicLong dragQueuedAt;      // same for mouseDragged()
+   private AtomicLong latestMove;        // number of the latest mouseMoved()
+                                         // or mouseClicked() queued
+   private AtomicLong numCoalesced;      // mouseMoved()s skipped for a
+                                         // later one
+   private CopyOnWriteArrayList<TGDragHandler> dragHandlers;
+   private CopyOnWriteArrayList<TGKeyHandler> keyHandlers;
+   private CopyOnWriteArrayList<TGMouseHandler> mouseHandlers;
+   private ExecutorService executor;
+   private TGCanvas canvas;
+
+
+   //
+   // constructor
+   //
+   TGInputDispatcher( TGCanvas canvas )
+   {
+      this.canvas = canvas;
+      latencies = new long[ LATENCY_HISTORY ];
+      dragQueuedAt = new AtomicLong();
+      latestMove = new AtomicLong();
+      numCoalesced = new AtomicLong();
+      dragHandlers = new CopyOnWriteArrayList<TGDragHandler>();
+      keyHandlers = new CopyOnWriteArrayList<TGKeyHandler>();
+      mouseHandlers = new CopyOnWriteArrayList<TGMouseHandler>();
+      executor = Executors.newSingleThreadExecutor( new ThreadFactory()
+         {
+            public Thread newThread( Runnable r )
+            {
+               Thread thread = new Thread( r, "TGInputDispatcher" );
+               thread.setDaemon( true );
+               return thread;
+            }
+         } );
+   }
+
+
+   // called on the dispatch thread when an event queued at queuedAt
+   // is about to be handed to the handlers
+   //
+   private synchronized void recordLatency( long queuedAt )
+   {
+      latencies[ latencyIdx ] = System.nanoTime() - queuedAt;
+      latencyIdx = (latencyIdx + 1) % LATENCY_HISTORY;
+      if ( numLatencies < LATENCY_HISTORY )
+         numLatencies++;
+
+   } // end recordLatency()
+
+
+   // a handler blowing up mustn't stop others, or later events
+   //
+   private static void reportError( String what, RuntimeException re )
+   {
+      System.err.println( "TGInputDispatcher: " + what + ": " + re );
+      re.printStackTrace();
+
+   } // end reportError()
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   void addDragHandler( TGDragHandler dh )
+   { dragHandlers.addIfAbsent( dh ); }
+
+
+   void addKeyHandler( TGKeyHandler kh )
+   { keyHandlers.addIfAbsent( kh ); }
+
+
+   void addMouseHandler( TGMouseHandler mh )
+   { mouseHandlers.addIfAbsent( mh ); }
+
+
+   /*
+    * Return how many mouseMoved() events were skipped because more
+    * motion, or a click, was queued after them.
+    */
+   long getCoalescedMoves()
+   { return numCoalesced.get(); }
+
+
+   /*
+    * Return the time, in milliseconds, each of the most recently
+    * delivered events waited before its handlers were called, oldest
+    * first.
+    */
+   synchronized float[] getLatencies()
+   {
+      float[] times = new float[ numLatencies ];
+      int idx = (latencyIdx + LATENCY_HISTORY - numLatencies) % LATENCY_HISTORY;
+      for ( int i=0; i < numLatencies; i++ )
+      {
+         times[ i ] = latencies[ idx ] / 1000000.0F;
+         idx = (idx + 1) % LATENCY_HISTORY;
+      }
+      return times;
+
+   } // end getLatencies()
+
+
+   void keyPressed( final int keyNum )
+   {
+      if ( keyHandlers.isEmpty() )
+         return;
+      final long queuedAt = System.nanoTime();
+      executor.execute( new Runnable()
+         {
+            public void run()
+            {
+               recordLatency( queuedAt );
+               for ( TGKeyHandler kh : keyHandlers )
+               {
+                  try { kh.keyPressed( keyNum ); }
+                  catch ( RuntimeException re ) { reportError( "keyPressed", re ); }
+               }
+            }
+         } );
+
+   } // end keyPressed()
+
+
+   void mouseClicked( final int x, final int y )
+   {
+      if ( mouseHandlers.isEmpty() )
+      {
+         canvas.setMousePosition( x, y );
+         return;
+      }
+      latestMove.incrementAndGet();     // motion queued before the
+                                        // click is out of date
+      final long queuedAt = System.nanoTime();
+      executor.execute( new Runnable()
+         {
+            public void run()
+            {
+               recordLatency( queuedAt );
+               canvas.setMousePosition( x, y );
+               for ( TGMouseHandler mh : mouseHandlers )
+               {
+                  try { mh.mouseClicked(); }
+                  catch ( RuntimeException re ) { reportError( "mouseClicked", re ); }
+               }
+            }
+         } );
+
+   } // end mouseClicked()
+
+
+   void mouseDragged( final TGDragBuffer samples )
+   {
+      if ( dragHandlers.isEmpty() )
+         return;
+      if ( ! dragQueuedAt.compareAndSet(0, System.nanoTime()) )
+         return;                // will find the new samples too
+      executor.execute( new Runnable()
+         {
+            public void run()
+            {
+               recordLatency( dragQueuedAt.getAndSet(0) );
+               for ( TGDragHandler dh : dragHandlers )
+               {
+                  try { dh.mouseDragged( samples ); }
+                  catch ( RuntimeException re ) { reportError( "mouseDragged", re ); }
+               }
+            }
+         } );
+
+   } // end mouseDragged()
+
+
+   void mouseMoved( final int x, final int y )
+   {
+      if ( mouseHandlers.isEmpty() )
+      {
+         canvas.setMousePosition( x, y );
+         return;
+      }
+      final long moveNum = latestMove.incrementAndGet();
+      final long queuedAt = System.nanoTime();
+      executor.execute( new Runnable()
+         {
+            public void run()
+            {
+               // handlers only care where the mouse is now; leave it
+               // to the motion or click queued after this one
+               if ( latestMove.get() != moveNum )
+               {
+                  numCoalesced.incrementAndGet();
+                  return;
+               }
+               recordLatency( queuedAt );
+               canvas.setMousePosition( x, y );
+               for ( TGMouseHandler mh : mouseHandlers )
+               {
+                  try { mh.mouseMoved(); }
+                  catch ( RuntimeException re ) { reportError( "mouseMoved", re ); }
+               }
+            }
+         } );
+
+   } // end mouseMoved()
+
+
+   void removeDragHandler( TGDragHandler dh )
+   { dragHandlers.remove( dh ); }
+
+
+   void removeKeyHandler( TGKeyHandler kh )
+   { keyHandlers.remove( kh ); }
+
+
+   void removeMouseHandler( TGMouseHandler mh )
+   { mouseHandlers.remove( mh ); }
+
+} // end class TGInputDispatcher
@@ -0,0 +1,297 @@
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * This class implements an L-system (Lindenmayer system) whose
+ * productions are expanded lazily and interpreted as TurtleTalk
+ * commands for a Turtle.
+ *
+ * The usual way to draw an L-system is to rewrite the axiom N
+ * times and then walk the resulting string.  The string grows
+ * exponentially with N; a depth-12 plant is tens of millions of
+ * characters.  Instead, TGLSystem keeps an explicit stack of
+ * (production, index) frames, one per level of rewriting, and
+ * hands each terminal symbol to the turtle as soon as it is
+ * reached.  Memory needed is proportional to the number of
+ * levels (and the nesting of "[" ... "]"), not to the length of
+ * the expanded string.
+ *
+ * Symbols understood (anything else is silently skipped, so
+ * variables like X and Y can be used only for rewriting):
+ *
+ *   F, G  move forward one step, drawing if the pen is down
+ *   f     move forward one step without drawing
+ *   +     turn left by the angle
+ *   -     turn right by the angle
+ *   |     turn around (180 degrees)
+ *   [     push the turtle's state (position, heading, pen)
+ *   ]     pop the turtle's state
+ *
+ * Symbols are restricted to 7-bit ASCII characters.
+ *
+ * A typical use, a fractal plant:
+ *
+ *   TGLSystem plant = new TGLSystem( "X", 25.0, 4.0 );
+ *   plant.addRule( 'X', "F+[[X]-X]-F[-FX]+X" );
+ *   plant.addRule( 'F', "FF" );
+ *   plant.run( turtle, 6 );
+ *
+ * Big systems can be walked in parallel; branches ("[" ... "]")
+ * found above a split depth are handed to a ForkJoinPool, see
+ * TGLSystemTask.  The TGCanvas receives the same operations, in
+ * the same order, as it would from the sequential run().
+ */
+
+public class TGLSystem
+{
+
+   // constants
+   //
+   private static final int NUM_SYMBOLS = 128;
+   private static final int INIT_NUM_STATES = 16;
+
+
+   // pool used by run() when the caller doesn't supply one
+   //
+   private static ForkJoinPool defaultPool;
+
+
+   // variables with class-wide scope
+   //
+   private double angle;          // degrees turned by + and -
+   private double step;           // distance moved by F, G and f
+   private String axiom;
+   private String[] rules;        // replacement strings indexed by the
+                                  // symbol they replace, null if the
+                                  // symbol is a constant
+
+
+   //
+   // constructor
+   //
+   public TGLSystem( String axiom, double angle, double step )
+   {
+      checkSymbols( axiom );
+      this.axiom = axiom;
+      this.angle = angle;
+      this.step = step;
+      rules = new String[ NUM_SYMBOLS ];
+   }
+
+
+   /*
+    * Make sure a string only contains symbols we can index rules[]
+    * with and that its brackets are balanced; an unbalanced "]"
+    * would otherwise pop state that was never pushed.
+    */
+   private void checkSymbols( String str )
+   {
+      int nesting = 0;
+      for ( int i=0; i < str.length(); i++ )
+      {
+         char ch = str.charAt( i );
+         if ( ch >= NUM_SYMBOLS )
+            throw new IllegalArgumentException( "TGLSystem: bad symbol '"
+                                                + ch + "' in " + str );
+         if ( ch == '[' )
+            nesting++;
+         else if ( ch == ']' && --nesting < 0 )
+            break;
+      }
+      if ( nesting != 0 )
+         throw new IllegalArgumentException( "TGLSystem: unbalanced [] in "
+                                             + str );
+
+   } // end checkSymbols()
+
+
+   // -----------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // -----------------------------------------------------------------
+
+   /**
+    * Add a production; every occurrence of symbol is replaced by
+    * replacement at each level of rewriting.  Adding a second
+    * rule for the same symbol replaces the first.
+    */
+   public void addRule( char symbol, String replacement )
+   {
+      if ( symbol == '[' || symbol == ']' )
+         throw new IllegalArgumentException( "TGLSystem: can't rewrite "
+                                             + symbol );
+      checkSymbols( String.valueOf(symbol) );
+      checkSymbols( replacement );
+      rules[ symbol ] = replacement;
+
+   } // end addRule()
+
+
+   public double getAngle()
+   { return angle; }
+
+
+   public String getAxiom()
+   { return axiom; }
+
+
+   /**
+    * Return the replacement for symbol, or null if symbol is a
+    * constant.
+    */
+   public String getRule( char symbol )
+   {
+      if ( symbol >= NUM_SYMBOLS )
+         return null;
+      return rules[ symbol ];
+
+   } // end getRule()
+
+
+   public double getStep()
+   { return step; }
+
+
+   /**
+    * Rewrite the axiom the given number of times, driving turtle
+    * with the resulting commands as they are produced.  When run()
+    * returns, the turtle is left where the last command put it.
+    */
+   public void run( Turtle turtle, int iterations )
+   {
+      if ( iterations < 0 )
+         throw new IllegalArgumentException( "TGLSystem: negative iterations "
+                                             + iterations );
+      // frame stack, frame N is at rewriting level N
+      String[] frameStr = new String[ iterations + 1 ];
+      int[] frameIdx = new int[ iterations + 1 ];
+      TGTurtleState[] states = new TGTurtleState[ INIT_NUM_STATES ];
+      int numStates = 0;
+
+      frameStr[ 0 ] = axiom;
+      frameIdx[ 0 ] = 0;
+      int sp = 1;
+      while ( sp > 0 )
+      {
+         int top = sp - 1;
+         String str = frameStr[ top ];
+         if ( frameIdx[top] == str.length() )
+         {
+            frameStr[ top ] = null;
+            sp--;
+            continue;
+         }
+         char ch = str.charAt( frameIdx[top]++ );
+         String rule = rules[ ch ];
+         if ( rule != null && top < iterations )
+         {
+            frameStr[ sp ] = rule;
+            frameIdx[ sp ] = 0;
+            sp++;
+            continue;
+         }
+         switch ( ch )
+         {
+            case 'F':
+            case 'G':
+               turtle.fd( step );
+               break;
+            case 'f':
+               if ( turtle.ispendown() )
+               {
+                  turtle.pu();
+                  turtle.fd( step );
+                  turtle.pd();
+               }
+               else
+                  turtle.fd( step );
+               break;
+            case '+':
+               turtle.lt( angle );
+               break;
+            case '-':
+               turtle.rt( angle );
+               break;
+            case '|':
+               turtle.rt( 180.0 );
+               break;
+            case '[':
+               if ( numStates == states.length )
+               {
+                  TGTurtleState[] oldStates = states;
+                  states = new TGTurtleState[ oldStates.length * 2 ];
+                  System.arraycopy( oldStates, 0, states, 0, numStates );
+               }
+               states[ numStates++ ] = turtle.getState();
+               break;
+            case ']':
+               turtle.setState( states[--numStates] );
+               states[ numStates ] = null;
+               break;
+         }
+      }
+
+   } // end run()
+
+
+   /**
+    * Same as run(turtle, iterations), but branches found at
+    * rewriting levels less than splitDepth are walked in parallel
+    * on a ForkJoinPool shared by all TGLSystems.  A splitDepth of
+    * zero walks everything on the calling thread.
+    */
+   public void run( Turtle turtle, int iterations, int splitDepth )
+   {
+      ForkJoinPool pool;
+      synchronized ( TGLSystem.class )
+      {
+         if ( defaultPool == null )
+            defaultPool = new ForkJoinPool();
+         pool = defaultPool;
+      }
+      run( turtle, iterations, splitDepth, pool );
+
+   } // end run()
+
+
+   /**
+    * Same as run(turtle, iterations), but branches found at
+    * rewriting levels less than splitDepth are walked in parallel
+    * on pool.  Each branch buffers the graphics operations it
+    * produces; the buffers are handed to the turtle's TGCanvas in
+    * the order a sequential walk would have produced them, so the
+    * picture is identical to one drawn by run(turtle, iterations).
+    * A turtle that wraps or is fenced is walked sequentially, by
+    * run(turtle, iterations), since where each of its moves ends
+    * depends on the edges of the canvas.
+    */
+   public void run( Turtle turtle, int iterations, int splitDepth,
+                    ForkJoinPool pool )
+   {
+      if ( iterations < 0 )
+         throw new IllegalArgumentException( "TGLSystem: negative iterations "
+                                             + iterations );
+      if ( ! turtle.isWindowed() )
+      {
+         run( turtle, iterations );
+         return;
+      }
+      TGLSystemTask root;
+      root = new TGLSystemTask( this, iterations, splitDepth,
+                                axiom, 0, axiom.length(), 0,
+                                turtle.getState() );
+      pool.invoke( root );
+      TGCanvas tgc = turtle.getCanvas();
+      root.drainTo( tgc );
+      turtle.setState( root.getState() );
+      tgc.repaint();
+
+   } // end run()
+
+
+   public void setAngle( double degrees )
+   { angle = degrees; }
+
+
+   public void setStep( double distance )
+   { step = distance; }
+
+} // end class TGLSystem
@@ -0,0 +1,281 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * This class walks part of a TGLSystem's expansion on a ForkJoinPool.
+ *
+ * Everything between a "[" and its matching "]" is independent of
+ * what follows it: the turtle's state is popped back to what it was
+ * at the "[".  So, when a walker reaches a "[" in a production at a
+ * rewriting level shallower than the split depth, it hands the
+ * branch to a new task, starting from a copy of its current state,
+ * and carries on after the "]" as if the branch had already been
+ * drawn.
+ *
+ * Tasks do not touch a Turtle.  Each one keeps a lightweight copy
+ * of the turtle's state (point, heading, pen) and does the same
+ * arithmetic Turtle.fd(), Turtle.lt() and Turtle.rt() would, which
+ * makes the TGLineOps it produces identical to the ones a sequential
+ * run would have added to the TGCanvas.  The ops are buffered along
+ * with the sub-tasks they were interleaved with, in the order a
+ * sequential walk would have produced them.  drainTo() replays the
+ * buffer, joining sub-tasks as it reaches them, so the TGCanvas
+ * ends up with exactly the sequential sequence of operations no
+ * matter how the tasks were scheduled.
+ */
+
+class TGLSystemTask extends RecursiveAction
+{
+
+   // constants
+   //
+   private static final int INIT_NUM_STATES = 16;
+   private static final long serialVersionUID = 1L;
+
+
+   // variables with class-wide scope
+   //
+   private boolean penDown;
+   private Color penColor;
+   private float heading;         // radians in conventional/AWT manner
+   private int iterations;        // total levels of rewriting
+   private int level;             // rewriting level of str
+   private int penSize;
+   private int splitDepth;        // fork branches found above this level
+   private int strEnd;            // index past the last symbol to walk
+   private int strStart;          // index of the first symbol to walk
+   private ArrayList<Object> output; // TGGraphicsOps and TGLSystemTasks
+                                     // in sequential order
+   private String str;            // string this task walks part of
+   private TGLSystem lsys;
+   private TGPoint point;
+
+
+   //
+   // constructor
+   //
+   TGLSystemTask( TGLSystem lsys, int iterations, int splitDepth,
+                  String str, int strStart, int strEnd, int level,
+                  TGTurtleState state )
+   {
+      this.lsys = lsys;
+      this.iterations = iterations;
+      this.splitDepth = splitDepth;
+      this.str = str;
+      this.strStart = strStart;
+      this.strEnd = strEnd;
+      this.level = level;
+      point = state.getPoint();
+      heading = state.getHeading();
+      penDown = state.isPenDown();
+      penColor = state.getPenColor();
+      penSize = state.getPenSize();
+      output = new ArrayList<Object>();
+   }
+
+
+   // return the index of the "]" matching the "[" just before idx
+   //
+   private static int closingBracket( String str, int idx )
+   {
+      int nesting = 1;
+      for ( ; idx < str.length(); idx++ )
+      {
+         char ch = str.charAt( idx );
+         if ( ch == '[' )
+            nesting++;
+         else if ( ch == ']' && --nesting == 0 )
+            break;
+      }
+      return idx;
+
+   } // end closingBracket()
+
+
+   // same as Turtle.fd() for a turtle in window() mode, which goes
+   // through TGCanvas.drawLine() when the pen is down.  Wrapping and
+   // fencing aren't done here: TGLSystem.run() walks the commands
+   // sequentially for a turtle in those modes
+   //
+   private void forward( double steps, boolean draw )
+   {
+      if ( ! draw )
+      {
+         point = point.otherEndPoint( (double) heading, steps );
+         return;
+      }
+      double hd = (double) heading;
+      if ( steps < 0 )
+      {
+         hd -= Math.PI;
+         if ( hd < 0 )
+            hd += (2 * Math.PI);
+         steps = -steps;
+      }
+      TGPoint p2 = point.otherEndPoint( hd, steps );
+      output.add( new TGLineOp(point, p2, hd, penColor, penSize) );
+      point = p2;
+
+   } // end forward()
+
+
+   // same arithmetic as Turtle.lt()
+   //
+   private void left( double degrees )
+   {
+      float radians = (float) (degrees * (Math.PI/180.0));
+      heading += radians;
+      if ( heading > Math.PI * 2.0 )
+         heading -= Math.PI * 2.0;
+
+   } // end left()
+
+
+   // same arithmetic as Turtle.rt()
+   //
+   private void right( double degrees )
+   {
+      float radians = (float) (degrees * (Math.PI/180.0));
+      heading -= radians;
+      if ( heading < 0.0F )
+         heading += Math.PI * 2.0;
+
+   } // end right()
+
+
+   protected void compute()
+   {
+      double angle = lsys.getAngle();
+      double step = lsys.getStep();
+      int maxFrames = iterations - level + 1;
+      String[] frameStr = new String[ maxFrames ];
+      int[] frameIdx = new int[ maxFrames ];
+      int[] frameEnd = new int[ maxFrames ];
+      TGPoint[] savedPoints = new TGPoint[ INIT_NUM_STATES ];
+      float[] savedHeadings = new float[ INIT_NUM_STATES ];
+      boolean[] savedPens = new boolean[ INIT_NUM_STATES ];
+      int numStates = 0;
+
+      frameStr[ 0 ] = str;
+      frameIdx[ 0 ] = strStart;
+      frameEnd[ 0 ] = strEnd;
+      int sp = 1;
+      while ( sp > 0 )
+      {
+         int top = sp - 1;
+         String frame = frameStr[ top ];
+         if ( frameIdx[top] == frameEnd[top] )
+         {
+            frameStr[ top ] = null;
+            sp--;
+            continue;
+         }
+         char ch = frame.charAt( frameIdx[top]++ );
+         String rule = lsys.getRule( ch );
+         int frameLevel = level + top;
+         if ( rule != null && frameLevel < iterations )
+         {
+            frameStr[ sp ] = rule;
+            frameIdx[ sp ] = 0;
+            frameEnd[ sp ] = rule.length();
+            sp++;
+            continue;
+         }
+         switch ( ch )
+         {
+            case 'F':
+            case 'G':
+               forward( step, penDown );
+               break;
+            case 'f':
+               forward( step, false );
+               break;
+            case '+':
+               left( angle );
+               break;
+            case '-':
+               right( angle );
+               break;
+            case '|':
+               right( 180.0 );
+               break;
+            case '[':
+               if ( frameLevel < splitDepth )
+               {
+                  int start = frameIdx[ top ];
+                  int end = closingBracket( frame, start );
+                  TGTurtleState state;
+                  state = new TGTurtleState( point, heading, penDown,
+                                             penColor, penSize );
+                  TGLSystemTask branch;
+                  branch = new TGLSystemTask( lsys, iterations, splitDepth,
+                                              frame, start, end, frameLevel,
+                                              state );
+                  output.add( branch );
+                  branch.fork();
+                  frameIdx[ top ] = end + 1;
+                  break;
+               }
+               if ( numStates == savedPoints.length )
+               {
+                  TGPoint[] oldPoints = savedPoints;
+                  savedPoints = new TGPoint[ numStates * 2 ];
+                  System.arraycopy( oldPoints, 0, savedPoints, 0, numStates );
+                  float[] oldHeadings = savedHeadings;
+                  savedHeadings = new float[ numStates * 2 ];
+                  System.arraycopy( oldHeadings, 0, savedHeadings, 0, numStates );
+                  boolean[] oldPens = savedPens;
+                  savedPens = new boolean[ numStates * 2 ];
+                  System.arraycopy( oldPens, 0, savedPens, 0, numStates );
+               }
+               savedPoints[ numStates ] = point;
+               savedHeadings[ numStates ] = heading;
+               savedPens[ numStates ] = penDown;
+               numStates++;
+               break;
+            case ']':
+               numStates--;
+               point = savedPoints[ numStates ];
+               heading = savedHeadings[ numStates ];
+               penDown = savedPens[ numStates ];
+               savedPoints[ numStates ] = null;
+               break;
+         }
+      }
+
+   } // end compute()
+
+
+   /*
+    * Hand the buffered operations to tgc, in sequential order,
+    * waiting for (and draining) sub-tasks as they are reached.
+    * Buffers are released as they are drained.
+    */
+   void drainTo( TGCanvas tgc )
+   {
+      for ( int i=0; i < output.size(); i++ )
+      {
+         Object obj = output.get( i );
+         output.set( i, null );
+         if ( obj instanceof TGLSystemTask )
+         {
+            TGLSystemTask branch = (TGLSystemTask) obj;
+            branch.join();
+            branch.drainTo( tgc );
+         }
+         else
+            tgc.addGraphOp( (TGGraphicsOp) obj );
+      }
+      output.clear();
+
+   } // end drainTo()
+
+
+   /*
+    * Return the state the walk left the turtle in.
+    */
+   TGTurtleState getState()
+   { return new TGTurtleState( point, heading, penDown, penColor, penSize ); }
+
+} // end class TGLSystemTask
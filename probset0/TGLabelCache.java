@@ -0,0 +1,140 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/*
+ * This class keeps the labels TGLabelOp draws already rendered, so
+ * drawing one again in the same font and color, e.g., the tick
+ * labels of a chart, is a single drawImage() instead of setting up
+ * a Graphics, getting its font metrics, measuring the text and
+ * rasterizing the glyphs.
+ *
+ * A label is kept as a transparent image of just the rectangle
+ * TGLabelOp clips the text to, with the text drawn on it in its
+ * color.  Nothing is antialiased, so its pixels are either clear or
+ * exactly the color, and blitting it leaves the same pixels that
+ * drawString() does, in indexed images too.  The labels used least
+ * recently are dropped when there are more than MAX_LABELS of them
+ * or they add up to more than MAX_PIXELS.
+ */
+
+class TGLabelCache
+{
+
+   // constants
+   //
+   private static final int MAX_LABELS = 1024;
+   private static final int MAX_PIXELS = 1 << 22;    // 16MB of ARGB
+
+
+   // a label as rendered: image is null when there is nothing to see
+   //
+   static class Label
+   {
+      int ascent;                 // baseline, down from the top
+      int width, height;
+      BufferedImage image;
+   }
+
+
+   // what a label is looked up by
+   //
+   private static class Key
+   {
+      private Color color;
+      private Font font;
+      private String text;
+
+      Key( Font font, String text, Color color )
+      {
+         this.color = color;
+         this.font = font;
+         this.text = text;
+      }
+
+      public boolean equals( Object obj )
+      {
+         if ( ! (obj instanceof Key) )
+            return false;
+         Key key = (Key) obj;
+         return text.equals( key.text ) && font.equals( key.font )
+                && color.equals( key.color );
+      }
+
+      public int hashCode()
+      { return (text.hashCode() * 31 + font.hashCode()) * 31 + color.hashCode(); }
+   }
+
+
+   // variables with class-wide scope
+   //
+   private static int numPixels;           // in all of labels' images
+   private static Graphics metrics;        // measures text
+   private static LinkedHashMap<Key,Label> labels =
+      new LinkedHashMap<Key,Label>( 256, 0.75F, true );
+
+
+   // return text, in font and color, rendered
+   //
+   private static Label render( Font font, String text, Color color )
+   {
+      if ( metrics == null )
+      {
+         BufferedImage image = new BufferedImage( 1, 1, BufferedImage.TYPE_INT_ARGB );
+         metrics = image.getGraphics();
+      }
+      FontMetrics fm = metrics.getFontMetrics( font );
+      Label label = new Label();
+      label.ascent = fm.getMaxAscent();
+      label.width = fm.stringWidth( text );
+      label.height = fm.getHeight();
+      if ( label.width > 0 && label.height > 0 )
+      {
+         label.image = new BufferedImage( label.width, label.height,
+                                          BufferedImage.TYPE_INT_ARGB );
+         Graphics g = label.image.getGraphics();
+         g.setColor( color );
+         g.setFont( font );
+         g.drawString( text, 0, label.ascent );
+         g.dispose();
+      }
+      return label;
+
+   } // end render()
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   /*
+    * Return text, in font and color, rendered; from the cache when
+    * it is there.  The Label must not be changed.
+    */
+   static synchronized Label get( Font font, String text, Color color )
+   {
+      Key key = new Key( font, text, color );
+      Label label = labels.get( key );
+      if ( label != null )
+         return label;
+      label = render( font, text, color );
+      labels.put( key, label );
+      numPixels += label.width * label.height;
+      Iterator<Label> iter = labels.values().iterator();
+      while ( labels.size() > MAX_LABELS || numPixels > MAX_PIXELS )
+      {
+         Label eldest = iter.next();
+         if ( eldest == label )
+            break;                  // too big to keep company
+         numPixels -= eldest.width * eldest.height;
+         iter.remove();
+      }
+      return label;
+
+   } // end get()
+
+} // end class TGLabelCache
@@ -1,6 +1,5 @@
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.image.ImageObserver;
@@ -41,21 +40,16 @@ class TGLabelOp implements ImageObserver, TGGraphicsOp
       if ( canvasHeight < 0 )
          return null;
       int imageY = where.imageY( canvasHeight );
-      Graphics g = inMemoryImage.getGraphics();
-      g.setColor( color );
-      g.setFont( font );
-      FontMetrics fm = g.getFontMetrics();
+      TGLabelCache.Label label = TGLabelCache.get( font, text, color );
       int crX = imageX;
-      int crWidth = fm.stringWidth( text );
-      int crHeight = fm.getHeight();
-      int crY = imageY - fm.getMaxAscent();
-      g.setClip( crX, crY, crWidth, crHeight );
-      g.drawString( text, imageX, imageY );
-      g.dispose();
-      //int chWidth = fm.charWidth( 'W' );
-      //System.out.print("TGLabelOp: using " + font.getSize() + "pt font,");
-      //System.out.println(" ht=" + crHeight + ", wd=" + chWidth);
-      Rectangle clipRect = new Rectangle( crX, crY, crWidth, crHeight );
+      int crY = imageY - label.ascent;
+      if ( label.image != null )
+      {
+         Graphics g = inMemoryImage.getGraphics();
+         g.drawImage( label.image, crX, crY, this );
+         g.dispose();
+      }
+      Rectangle clipRect = new Rectangle( crX, crY, label.width, label.height );
       return clipRect;
 
    } // end doIt()
@@ -65,6 +59,18 @@ class TGLabelOp implements ImageObserver, TGGraphicsOp
    { return color; }
 
 
+   public Font getFont()
+   { return font; }
+
+
+   public TGPoint getPoint()
+   { return where; }
+
+
+   public String getText()
+   { return text; }
+
+
    public boolean imageUpdate(Image img, int flags, int x, int y, int wd, int ht)
    {
       System.out.println( "TGLabelOp.imageUpdate: got here!" );
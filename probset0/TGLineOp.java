@@ -3,6 +3,7 @@ import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.image.ImageObserver;
 import java.awt.Rectangle;
+import java.util.ArrayList;
 
 /*
  * This class implements a TurtleGraphics Line graphics Operation.
@@ -208,6 +209,63 @@ class TGLineOp implements ImageObserver, TGGraphicsOp
    } // end min()
 
 
+   // one Liang-Barsky step: narrow the part of the line kept, t[0]
+   // to t[1] of the way from p1 to p2, to the side of one edge where
+   // p*t <= q.  false when nothing is left
+   //
+   static boolean clipEdge( double p, double q, double[] t )
+   {
+      if ( p == 0.0 )
+         return q >= 0.0;
+      double r = q / p;
+      if ( p < 0.0 )
+      {
+         if ( r > t[1] )
+            return false;
+         if ( r > t[0] )
+            t[ 0 ] = r;
+      }
+      else
+      {
+         if ( r < t[0] )
+            return false;
+         if ( r < t[1] )
+            t[ 1 ] = r;
+      }
+      return true;
+
+   } // end clipEdge()
+
+
+   /*
+    * Return the part of this line inside the TurtleSpace rectangle
+    * left..right, bottom..top: this line if it is all inside, null
+    * if none of it is, else a new, shorter, TGLineOp along it with
+    * the same heading, color and pen width.
+    */
+   TGLineOp clip( float left, float bottom, float right, float top )
+   {
+      double x1 = p1.xFloatValue();
+      double y1 = p1.yFloatValue();
+      double dx = p2.xFloatValue() - x1;
+      double dy = p2.yFloatValue() - y1;
+      double[] t = { 0.0, 1.0 };
+      if ( ! clipEdge(-dx, x1 - left, t) || ! clipEdge(dx, right - x1, t)
+           || ! clipEdge(-dy, y1 - bottom, t) || ! clipEdge(dy, top - y1, t) )
+         return null;
+      if ( t[0] == 0.0 && t[1] == 1.0 )
+         return this;
+      TGPoint pt1 = p1;
+      if ( t[0] > 0.0 )
+         pt1 = new TGPoint( x1 + t[0] * dx, y1 + t[0] * dy );
+      TGPoint pt2 = p2;
+      if ( t[1] < 1.0 )
+         pt2 = new TGPoint( x1 + t[1] * dx, y1 + t[1] * dy );
+      return new TGLineOp( pt1, pt2, heading, color, penWidth );
+
+   } // end clip()
+
+
    public Rectangle doIt( Image inMemoryImage )
    {
       int crX, crY, crHeight, crWidth;
@@ -246,9 +304,89 @@ class TGLineOp implements ImageObserver, TGGraphicsOp
    { return color; }
 
 
+   public double getHeading()
+   { return heading; }
+
+
+   public TGPoint getP1()
+   { return p1; }
+
+
+   public TGPoint getP2()
+   { return p2; }
+
+
+   public int getPenWidth()
+   { return penWidth; }
+
+
    public String toString()
    {
       return "TGLineOp[color="+color+",width="+penWidth+",p1="+p1+",p2="+p2+"]";
    }
 
+
+   /*
+    * Return the line from pt1 to pt2 as it is drawn when TurtleSpace
+    * wraps around (see Turtle.wrap()) the rectangle left..left+width,
+    * bottom..bottom+height, which pt1 is in: a piece for each time
+    * the line crosses an edge, plus one, each moved back into the
+    * rectangle.  Where it crosses the edges is worked out from where
+    * it starts and its slope, not by stepping along it.
+    */
+   static TGLineOp[] wrap( TGPoint pt1, TGPoint pt2, double hd, Color color,
+                           int wid, float left, float bottom, float width,
+                           float height )
+   {
+      double x1 = pt1.xFloatValue();
+      double y1 = pt1.yFloatValue();
+      double dx = pt2.xFloatValue() - x1;
+      double dy = pt2.yFloatValue() - y1;
+      // how far along the line (0 to 1) the next vertical and the
+      // next horizontal edge are, and how much further each one
+      // after that is
+      double nextX = Double.MAX_VALUE, stepX = 0.0;
+      if ( dx != 0.0 )
+      {
+         double edge = (dx > 0.0) ? left + width : left;
+         nextX = (edge - x1) / dx;
+         stepX = width / Math.abs( dx );
+      }
+      double nextY = Double.MAX_VALUE, stepY = 0.0;
+      if ( dy != 0.0 )
+      {
+         double edge = (dy > 0.0) ? bottom + height : bottom;
+         nextY = (edge - y1) / dy;
+         stepY = height / Math.abs( dy );
+      }
+      ArrayList<TGLineOp> pieces = new ArrayList<TGLineOp>();
+      double from = 0.0;
+      double offsetX = 0.0, offsetY = 0.0;   // back into the rectangle
+      while ( true )
+      {
+         double to = Math.min( 1.0, Math.min(nextX, nextY) );
+         if ( to > from )
+            pieces.add( new TGLineOp(new TGPoint(x1 + from*dx + offsetX,
+                                                 y1 + from*dy + offsetY),
+                                     new TGPoint(x1 + to*dx + offsetX,
+                                                 y1 + to*dy + offsetY),
+                                     hd, color, wid) );
+         if ( to >= 1.0 )
+            break;
+         if ( nextX == to )
+         {
+            offsetX -= (dx > 0.0) ? width : -width;
+            nextX += stepX;
+         }
+         if ( nextY == to )
+         {
+            offsetY -= (dy > 0.0) ? height : -height;
+            nextY += stepY;
+         }
+         from = to;
+      }
+      return pieces.toArray( new TGLineOp[pieces.size()] );
+
+   } // end wrap()
+
 } // end class TGLineOp
@@ -0,0 +1,226 @@
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*
+ * This class is a DataBuffer of 0x00RRGGBB int pixels which lives
+ * outside the Java heap, for TGCanvas graphics far bigger than the
+ * heap, e.g., a 30000x30000 poster (see
+ * TGCanvas.setOffHeapGraphics()).
+ *
+ * A ByteBuffer holds at most 2GB, so pixels are kept in chunks of
+ * CHUNK_SIZE, each a direct ByteBuffer or, when there is a file, a
+ * MappedByteBuffer over its part of the file; then the operating
+ * system pages pixels in and out and they needn't fit in memory at
+ * all.  newImage() wraps the buffer in a BufferedImage, so Java2D
+ * rasterizes lines and labels straight into it.  Java2D doesn't
+ * know this kind of DataBuffer and goes through getElem()/setElem()
+ * pixel by pixel, so the bulk operations everything else needs,
+ * reading rows and clearing, are done here on the chunks directly.
+ */
+
+class TGOffHeapBuffer extends DataBuffer
+{
+
+   // constants
+   //
+   private static final int CHUNK_SHIFT = 26;    // 64M pixels, 256MB
+   private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+   private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+   private static final int FILL_SIZE = 1 << 16;
+
+   private static final DirectColorModel COLOR_MODEL =
+      new DirectColorModel( 24, 0xff0000, 0x00ff00, 0x0000ff );
+
+
+   // variables with class-wide scope
+   //
+   private int width;             // pixels per row
+   private IntBuffer[] chunks;
+   private MappedByteBuffer[] maps;   // when mapped, chunks' buffers
+   private RandomAccessFile file;     // when mapped
+
+
+   //
+   // constructor
+   //
+   private TGOffHeapBuffer( int width, int height, String fileName )
+      throws IOException
+   {
+      super( DataBuffer.TYPE_INT, width * height );
+      this.width = width;
+      long numPixels = (long) width * height;
+      int numChunks = (int) ((numPixels + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+      chunks = new IntBuffer[ numChunks ];
+      if ( fileName != null )
+      {
+         maps = new MappedByteBuffer[ numChunks ];
+         file = new RandomAccessFile( fileName, "rw" );
+         file.setLength( numPixels * 4 );
+      }
+      try
+      {
+         for ( int idx=0; idx < numChunks; idx++ )
+         {
+            long first = (long) idx << CHUNK_SHIFT;
+            int numInts = (int) Math.min( CHUNK_SIZE, numPixels - first );
+            ByteBuffer bytes;
+            if ( file == null )
+               bytes = ByteBuffer.allocateDirect( numInts * 4 );
+            else
+            {
+               maps[ idx ] = file.getChannel().map( FileChannel.MapMode.READ_WRITE,
+                                                    first * 4, numInts * 4L );
+               bytes = maps[ idx ];
+            }
+            chunks[ idx ] = bytes.order( ByteOrder.nativeOrder() ).asIntBuffer();
+         }
+      }
+      catch ( IOException ioe )
+      {
+         dispose();
+         throw ioe;
+      }
+      catch ( OutOfMemoryError oome )
+      {
+         dispose();
+         throw new IOException( "TGOffHeapBuffer: no room for " + width + "x"
+                                + height + " pixels: " + oome.getMessage() );
+      }
+   }
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   /*
+    * Write mapped pixels out to the file and let go of it.  The
+    * buffer can't be used afterwards.
+    */
+   void dispose()
+   {
+      if ( maps != null )
+         for ( int idx=0; idx < maps.length; idx++ )
+            if ( maps[idx] != null )
+               maps[ idx ].force();
+      maps = null;
+      chunks = null;
+      if ( file != null )
+      {
+         try { file.close(); }
+         catch ( IOException ioe )
+         { System.err.println( "TGOffHeapBuffer.dispose: " + ioe ); }
+      }
+      file = null;
+
+   } // end dispose()
+
+
+   /*
+    * Set every pixel to rgb.
+    */
+   void fill( int rgb )
+   {
+      int[] ints = new int[ FILL_SIZE ];
+      Arrays.fill( ints, rgb & 0xffffff );
+      for ( int idx=0; idx < chunks.length; idx++ )
+      {
+         IntBuffer chunk = chunks[ idx ].duplicate();
+         chunk.clear();
+         while ( chunk.remaining() >= FILL_SIZE )
+            chunk.put( ints );
+         chunk.put( ints, 0, chunk.remaining() );
+      }
+
+   } // end fill()
+
+
+   /*
+    * Return the TGOffHeapBuffer an image made by newImage() keeps
+    * its pixels in, or null if it wasn't made by newImage().
+    */
+   static TGOffHeapBuffer get( Image image )
+   {
+      if ( ! (image instanceof BufferedImage) )
+         return null;
+      DataBuffer buffer = ((BufferedImage) image).getRaster().getDataBuffer();
+      if ( buffer instanceof TGOffHeapBuffer )
+         return (TGOffHeapBuffer) buffer;
+      return null;
+
+   } // end get()
+
+
+   public int getElem( int bank, int i )
+   { return chunks[ i >>> CHUNK_SHIFT ].get( i & CHUNK_MASK ); }
+
+
+   /*
+    * Copy the rectangle (x,y,width,height) into rgbs as opaque ARGB,
+    * like BufferedImage.getRGB(): starting at offset, scanSize ints
+    * per row.
+    */
+   void getRGB( int x, int y, int width, int height, int[] rgbs, int offset,
+                int scanSize )
+   {
+      for ( int row=0; row < height; row++ )
+      {
+         int src = (y + row) * this.width + x;
+         int dst = offset + row * scanSize;
+         int left = width;
+         while ( left > 0 )
+         {
+            // a row can straddle two chunks
+            IntBuffer chunk = chunks[ src >>> CHUNK_SHIFT ].duplicate();
+            chunk.position( src & CHUNK_MASK );
+            int count = Math.min( left, chunk.remaining() );
+            chunk.get( rgbs, dst, count );
+            src += count;
+            dst += count;
+            left -= count;
+         }
+         for ( int i=offset + row * scanSize; i < dst; i++ )
+            rgbs[ i ] |= 0xff000000;
+      }
+
+   } // end getRGB()
+
+
+   /*
+    * Return a new width by height RGB image whose pixels are in a
+    * TGOffHeapBuffer, mapped from fileName unless it is null.  They
+    * start out black (or whatever is already in the file).
+    */
+   static BufferedImage newImage( int width, int height, String fileName )
+      throws IOException
+   {
+      if ( width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE )
+         throw new IllegalArgumentException( "TGOffHeapBuffer: bad size "
+                                             + width + "x" + height );
+      TGOffHeapBuffer buffer = new TGOffHeapBuffer( width, height, fileName );
+      SinglePixelPackedSampleModel sm =
+         new SinglePixelPackedSampleModel( DataBuffer.TYPE_INT, width, height,
+                                           COLOR_MODEL.getMasks() );
+      WritableRaster raster = Raster.createWritableRaster( sm, buffer, null );
+      return new BufferedImage( COLOR_MODEL, raster, false, null );
+
+   } // end newImage()
+
+
+   public void setElem( int bank, int i, int val )
+   { chunks[ i >>> CHUNK_SHIFT ].put( i & CHUNK_MASK, val ); }
+
+} // end class TGOffHeapBuffer
@@ -0,0 +1,181 @@
+import java.awt.Color;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+
+/*
+ * This class holds the palette of the sixteen Turtle colors and
+ * what is needed to keep a TGCanvas' graphicsImage as one byte per
+ * pixel, an index into it, instead of four (see
+ * TGCanvas.setIndexedColor()).
+ *
+ * Nothing is antialiased, so as long as everything is drawn in
+ * palette colors every pixel is exactly a palette color, and Java2D
+ * writes its index when rasterizing into an indexed image.  Drawing
+ * anything else would be quantized to the nearest palette color;
+ * TGCanvas checks each operation with fits() first and switches
+ * graphicsImage to RGB when one doesn't.
+ *
+ * Reading pixels back with BufferedImage.getRGB() goes through the
+ * ColorModel a pixel at a time.  getRGB() here looks the bytes up
+ * in the palette itself (and reads off-heap graphics, see
+ * TGOffHeapBuffer, in bulk).
+ */
+
+class TGPalette
+{
+
+   // constants
+   //
+   private static final int NUM_COLORS = 16;
+
+   private static final IndexColorModel COLOR_MODEL;
+   private static final int[] RGBS;          // the palette, opaque ARGB
+   static
+   {
+      RGBS = new int[ NUM_COLORS ];
+      for ( int i=0; i < NUM_COLORS; i++ )
+         RGBS[ i ] = Turtle.rgbToColor( i ).getRGB() | 0xff000000;
+      COLOR_MODEL = new IndexColorModel( 8, NUM_COLORS, RGBS, 0, false, -1,
+                                         DataBufferByte.TYPE_BYTE );
+   }
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   /*
+    * Return true if op only paints in palette colors, so it can be
+    * performed on an indexed image as is.  Operations we know
+    * nothing about don't.
+    */
+   static boolean fits( TGGraphicsOp op )
+   {
+      Color color;
+      if ( op instanceof TGLineOp )
+         color = ((TGLineOp) op).getColor();
+      else if ( op instanceof TGFillOp )
+         color = ((TGFillOp) op).getColor();
+      else if ( op instanceof TGLabelOp )
+         color = ((TGLabelOp) op).getColor();
+      else if ( op instanceof TGPolylineOp )
+         color = ((TGPolylineOp) op).getColor();
+      else
+         return false;
+      return indexOf( color ) >= 0;
+
+   } // end fits()
+
+
+   /*
+    * Return the pixels of an indexed image, row after row with no
+    * padding.
+    */
+   static byte[] getIndexes( BufferedImage image )
+   { return ((DataBufferByte) image.getRaster().getDataBuffer()).getData(); }
+
+
+   /*
+    * Return the image's pixels, in the manner of BufferedImage's
+    * getRGB(): the rectangle (x,y,width,height) goes into rgbs
+    * starting at offset, scanSize ints per row.
+    */
+   static void getRGB( BufferedImage image, int x, int y, int width,
+                       int height, int[] rgbs, int offset, int scanSize )
+   {
+      if ( ! isIndexed(image) )
+      {
+         TGOffHeapBuffer offHeap = TGOffHeapBuffer.get( image );
+         if ( offHeap != null )
+            offHeap.getRGB( x, y, width, height, rgbs, offset, scanSize );
+         else
+            image.getRGB( x, y, width, height, rgbs, offset, scanSize );
+         return;
+      }
+      byte[] indexes = getIndexes( image );
+      int imageWidth = image.getWidth();
+      for ( int row=0; row < height; row++ )
+      {
+         int src = (y + row) * imageWidth + x;
+         int dst = offset + row * scanSize;
+         for ( int col=0; col < width; col++ )
+            rgbs[ dst + col ] = RGBS[ indexes[src + col] & 0xff ];
+      }
+
+   } // end getRGB()
+
+
+   /*
+    * Return the opaque ARGB value of palette entry index.
+    */
+   static int getRGB( int index )
+   { return RGBS[ index ]; }
+
+
+   /*
+    * Return color's index in the palette, or -1 if it isn't one of
+    * the palette's colors.
+    */
+   static int indexOf( Color color )
+   {
+      int argb = color.getRGB();
+      for ( int i=0; i < NUM_COLORS; i++ )
+         if ( RGBS[i] == argb )
+            return i;
+      return -1;
+
+   } // end indexOf()
+
+
+   /*
+    * Return true if image was made by newImage().
+    */
+   static boolean isIndexed( Image image )
+   {
+      return image instanceof BufferedImage
+             && ((BufferedImage) image).getColorModel() == COLOR_MODEL;
+
+   } // end isIndexed()
+
+
+   /*
+    * Return a new width by height indexed image, all palette entry
+    * zero (black).
+    */
+   static BufferedImage newImage( int width, int height )
+   {
+      return new BufferedImage( width, height, BufferedImage.TYPE_BYTE_INDEXED,
+                                COLOR_MODEL );
+
+   } // end newImage()
+
+
+   /*
+    * Convert rgbs, opaque or not, into palette indexes.  Return false,
+    * leaving indexes partially filled in, if some aren't palette
+    * colors.
+    */
+   static boolean toIndexes( int[] rgbs, byte[] indexes )
+   {
+      int lastIdx = 0;              // black
+      for ( int i=0; i < rgbs.length; i++ )
+      {
+         int rgb = rgbs[ i ] | 0xff000000;
+         if ( rgb != RGBS[lastIdx] )
+         {
+            lastIdx = -1;
+            for ( int j=0; j < NUM_COLORS; j++ )
+               if ( RGBS[j] == rgb )
+                  lastIdx = j;
+            if ( lastIdx < 0 )
+               return false;
+         }
+         indexes[ i ] = (byte) lastIdx;
+      }
+      return true;
+
+   } // end toIndexes()
+
+} // end class TGPalette
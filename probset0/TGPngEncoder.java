@@ -0,0 +1,398 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * This class writes part of a BufferedImage to a PNG file using all
+ * available processors.
+ *
+ * The image is cut into horizontal bands of BAND_ROWS rows.  Each
+ * band is filtered and compressed by its own task, the way pigz
+ * does it: its rows are read straight from the image, one at a
+ * time, filtered (each row with whichever PNG filter leaves it
+ * with the longest runs of repeated pixels) and handed to a raw
+ * Deflater which ends with a SYNC_FLUSH, so its output is a run of
+ * complete deflate blocks that can simply be concatenated with the
+ * next band's.  The last band is finished instead of flushed.  The
+ * zlib Adler-32 checksum of the whole stream is combined from the
+ * bands' checksums.  Each band becomes one IDAT chunk.
+ *
+ * Bands are written in order as they complete, and only a few of
+ * them per processor are ever in progress, so memory used depends
+ * on the image's width, not its height; there is no limit on the
+ * size of image which can be written.
+ */
+
+public class TGPngEncoder
+{
+
+   // constants
+   //
+   private static final int ADLER_BASE = 65521;
+   private static final int BAND_ROWS = 32;
+   private static final int BANDS_PER_THREAD = 2;  // max in progress
+   private static final byte[] IDAT = { 'I', 'D', 'A', 'T' };
+   private static final byte[] IEND = { 'I', 'E', 'N', 'D' };
+   private static final byte[] IHDR = { 'I', 'H', 'D', 'R' };
+   private static final byte[] SIGNATURE = { (byte) 137, 'P', 'N', 'G',
+                                             13, 10, 26, 10 };
+
+
+   // pool used when the caller doesn't supply one
+   //
+   private static ForkJoinPool defaultPool;
+
+
+   // variables with class-wide scope
+   //
+   private int level;             // Deflater compression level
+   private ForkJoinPool pool;
+
+
+   //
+   // constructors
+   //
+   public TGPngEncoder()
+   { this( Deflater.DEFAULT_COMPRESSION, null ); }
+
+   public TGPngEncoder( int level, ForkJoinPool pool )
+   {
+      this.level = level;
+      if ( pool == null )
+      {
+         synchronized ( TGPngEncoder.class )
+         {
+            if ( defaultPool == null )
+               defaultPool = new ForkJoinPool();
+            pool = defaultPool;
+         }
+      }
+      this.pool = pool;
+   }
+
+
+   /*
+    * A band of rows, filtered and compressed.
+    */
+   private class Band implements Callable<Band>
+   {
+      private boolean last;       // finish rather than flush the stream
+      private int numRows;
+      private int topY;           // first row, image coordinates
+      private int adler;          // Adler-32 of the filtered bytes
+      private int length;         // number of filtered bytes
+      private int zLength;        // number of compressed bytes
+      private byte[] zBytes;      // compressed bytes
+      private BufferedImage image;
+      private Rectangle region;
+
+      Band( BufferedImage image, Rectangle region, int topY, int numRows,
+            boolean last )
+      {
+         this.image = image;
+         this.region = region;
+         this.topY = topY;
+         this.numRows = numRows;
+         this.last = last;
+      }
+
+      public Band call()
+      {
+         int width = region.width;
+         int rowLen = width * 3;
+         int[] pixels = new int[ width ];
+         byte[] prior = new byte[ rowLen ];
+         byte[] row = new byte[ rowLen ];
+         byte[][] filtered = new byte[ 5 ][ rowLen + 1 ];
+         Deflater deflater = new Deflater( level, true );
+         zBytes = new byte[ numRows * (rowLen + 1) / 4 + 1024 ];
+         long a = 1, b = 0;
+         // the first row is filtered against the one above it, which
+         // belongs to the previous band (or is all zeros)
+         if ( topY > region.y )
+            readRow( image, region, topY - 1, pixels, prior );
+         for ( int y=topY; y < topY + numRows; y++ )
+         {
+            readRow( image, region, y, pixels, row );
+            byte[] best = filterRow( row, prior, filtered );
+            for ( int i=0; i <= rowLen; i++ )
+            {
+               a += best[i] & 0xff;
+               b += a;
+            }
+            a %= ADLER_BASE;
+            b %= ADLER_BASE;
+            deflater.setInput( best, 0, rowLen + 1 );
+            while ( ! deflater.needsInput() )
+               deflateSome( deflater, Deflater.NO_FLUSH );
+            byte[] tmp = prior;
+            prior = row;
+            row = tmp;
+         }
+         if ( last )
+         {
+            deflater.finish();
+            while ( ! deflater.finished() )
+               deflateSome( deflater, Deflater.NO_FLUSH );
+         }
+         else
+         {
+            // a SYNC_FLUSH is complete when it doesn't fill the output
+            while ( deflateSome(deflater, Deflater.SYNC_FLUSH) )
+               ;
+         }
+         deflater.end();
+         adler = (int) ((b << 16) | a);
+         length = numRows * (rowLen + 1);
+         return this;
+
+      } // end call()
+
+      // deflate into zBytes, growing it if need be.  return true if
+      // the output space was filled
+      //
+      private boolean deflateSome( Deflater deflater, int flush )
+      {
+         if ( zLength == zBytes.length )
+         {
+            byte[] oldBytes = zBytes;
+            zBytes = new byte[ oldBytes.length * 2 ];
+            System.arraycopy( oldBytes, 0, zBytes, 0, zLength );
+         }
+         int space = zBytes.length - zLength;
+         int count = deflater.deflate( zBytes, zLength, space, flush );
+         zLength += count;
+         return count == space;
+
+      } // end deflateSome()
+
+   } // end class Band
+
+
+   // return zlib's adler32_combine(): the Adler-32 of two sequences
+   // given the checksums of each and the length of the second
+   //
+   private static int adlerCombine( int adler1, int adler2, long len2 )
+   {
+      long rem = len2 % ADLER_BASE;
+      long sum1 = adler1 & 0xffff;
+      long sum2 = (rem * sum1) % ADLER_BASE;
+      sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+      sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff)
+              + ADLER_BASE - rem;
+      if ( sum1 >= ADLER_BASE ) sum1 -= ADLER_BASE;
+      if ( sum1 >= ADLER_BASE ) sum1 -= ADLER_BASE;
+      if ( sum2 >= (long) ADLER_BASE << 1 ) sum2 -= (long) ADLER_BASE << 1;
+      if ( sum2 >= ADLER_BASE ) sum2 -= ADLER_BASE;
+      return (int) ((sum2 << 16) | sum1);
+
+   } // end adlerCombine()
+
+
+   // apply each of the five PNG filters to row and return the result
+   // with the fewest bytes that differ from the same byte of the
+   // pixel to their left, filter type first.  the usual heuristic,
+   // smallest sum of absolute values, does poorly on turtle graphics:
+   // runs of a flat color compress best unfiltered, which this
+   // measure picks, while it still picks Sub or Up for gradients
+   //
+   private static byte[] filterRow( byte[] row, byte[] prior,
+                                    byte[][] filtered )
+   {
+      int rowLen = row.length;
+      int[] changes = new int[ 5 ];
+      for ( int type=0; type < 5; type++ )
+         filtered[ type ][ 0 ] = (byte) type;
+      for ( int i=0; i < rowLen; i++ )
+      {
+         int x = row[ i ] & 0xff;
+         int left = (i >= 3) ? (row[i-3] & 0xff) : 0;
+         int up = prior[ i ] & 0xff;
+         int upLeft = (i >= 3) ? (prior[i-3] & 0xff) : 0;
+         int p = left + up - upLeft;
+         int pa = Math.abs( p - left );
+         int pb = Math.abs( p - up );
+         int pc = Math.abs( p - upLeft );
+         int paeth = (pa <= pb && pa <= pc) ? left : (pb <= pc) ? up : upLeft;
+         byte f0 = (byte) x;
+         byte f1 = (byte) (x - left);
+         byte f2 = (byte) (x - up);
+         byte f3 = (byte) (x - ((left + up) >> 1));
+         byte f4 = (byte) (x - paeth);
+         filtered[ 0 ][ i+1 ] = f0;
+         filtered[ 1 ][ i+1 ] = f1;
+         filtered[ 2 ][ i+1 ] = f2;
+         filtered[ 3 ][ i+1 ] = f3;
+         filtered[ 4 ][ i+1 ] = f4;
+         if ( i >= 3 )
+         {
+            if ( f0 != filtered[0][i-2] ) changes[ 0 ]++;
+            if ( f1 != filtered[1][i-2] ) changes[ 1 ]++;
+            if ( f2 != filtered[2][i-2] ) changes[ 2 ]++;
+            if ( f3 != filtered[3][i-2] ) changes[ 3 ]++;
+            if ( f4 != filtered[4][i-2] ) changes[ 4 ]++;
+         }
+      }
+      int best = 0;
+      for ( int type=1; type < 5; type++ )
+         if ( changes[type] < changes[best] )
+            best = type;
+      return filtered[ best ];
+
+   } // end filterRow()
+
+
+   private static void putInt( byte[] bytes, int off, int value )
+   {
+      bytes[ off ] = (byte) (value >>> 24);
+      bytes[ off+1 ] = (byte) (value >>> 16);
+      bytes[ off+2 ] = (byte) (value >>> 8);
+      bytes[ off+3 ] = (byte) value;
+
+   } // end putInt()
+
+
+   // read image row y of region as R,G,B bytes
+   //
+   private static void readRow( BufferedImage image, Rectangle region,
+                                int y, int[] pixels, byte[] row )
+   {
+      if ( image.getType() == BufferedImage.TYPE_INT_RGB
+           || image.getType() == BufferedImage.TYPE_INT_ARGB )
+         image.getRaster().getDataElements( region.x, y, region.width, 1,
+                                            pixels );
+      else
+         TGPalette.getRGB( image, region.x, y, region.width, 1, pixels, 0,
+                           region.width );
+      for ( int i=0, j=0; i < region.width; i++ )
+      {
+         int rgb = pixels[ i ];
+         row[ j++ ] = (byte) (rgb >> 16);
+         row[ j++ ] = (byte) (rgb >> 8);
+         row[ j++ ] = (byte) rgb;
+      }
+
+   } // end readRow()
+
+
+   private static void writeChunk( OutputStream out, byte[] type,
+                                   byte[] data, int off, int len )
+      throws IOException
+   {
+      CRC32 crc = new CRC32();
+      crc.update( type );
+      crc.update( data, off, len );
+      writeInt( out, len );
+      out.write( type );
+      out.write( data, off, len );
+      writeInt( out, (int) crc.getValue() );
+
+   } // end writeChunk()
+
+
+   private static void writeInt( OutputStream out, int value )
+      throws IOException
+   {
+      out.write( value >>> 24 );
+      out.write( value >>> 16 );
+      out.write( value >>> 8 );
+      out.write( value );
+
+   } // end writeInt()
+
+
+   // -----------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // -----------------------------------------------------------------
+
+   /**
+    * Write region of image to out as an 8-bit RGB PNG.  A null region
+    * means the whole image; otherwise it must lie within the image.
+    * out is not closed.
+    */
+   public void encode( BufferedImage image, Rectangle region,
+                       OutputStream out ) throws IOException
+   {
+      if ( region == null )
+         region = new Rectangle( 0, 0, image.getWidth(), image.getHeight() );
+      if ( region.isEmpty()
+           || ! new Rectangle(0, 0, image.getWidth(), image.getHeight())
+                .contains(region) )
+         throw new IllegalArgumentException( "TGPngEncoder: bad region "
+                                             + region );
+      out.write( SIGNATURE );
+      byte[] ihdr = new byte[ 13 ];
+      putInt( ihdr, 0, region.width );
+      putInt( ihdr, 4, region.height );
+      ihdr[ 8 ] = 8;                    // bit depth
+      ihdr[ 9 ] = 2;                    // color type: RGB
+      writeChunk( out, IHDR, ihdr, 0, ihdr.length );
+
+      int numBands = (region.height + BAND_ROWS - 1) / BAND_ROWS;
+      int window = BANDS_PER_THREAD * pool.getParallelism();
+      Future<?>[] inProgress = new Future<?>[ window ];
+      int adler = 1;
+      int nextBand = 0;
+      for ( int bandNum=0; bandNum < numBands; bandNum++ )
+      {
+         while ( nextBand < numBands && nextBand < bandNum + window )
+         {
+            int topY = region.y + nextBand * BAND_ROWS;
+            int numRows = Math.min( BAND_ROWS, region.y + region.height - topY );
+            Band band = new Band( image, region, topY, numRows,
+                                  nextBand == numBands - 1 );
+            inProgress[ nextBand % window ] = pool.submit( band );
+            nextBand++;
+         }
+         Band band;
+         try { band = (Band) inProgress[ bandNum % window ].get(); }
+         catch ( InterruptedException ie )
+         {
+            // stop the bands still being compressed and leave the
+            // interrupt for the caller to see
+            for ( Future<?> f : inProgress )
+               if ( f != null )
+                  f.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new IOException( "TGPngEncoder: interrupted" );
+         }
+         catch ( ExecutionException ee )
+         { throw new IOException( "TGPngEncoder: " + ee.getCause() ); }
+         inProgress[ bandNum % window ] = null;
+         adler = (bandNum == 0) ? band.adler
+                                : adlerCombine( adler, band.adler, band.length );
+         byte[] data = band.zBytes;
+         int len = band.zLength;
+         if ( bandNum == 0 || bandNum == numBands - 1 )
+         {
+            // the zlib header goes in front of the first band, the
+            // checksum after the last one
+            int head = (bandNum == 0) ? 2 : 0;
+            int tail = (bandNum == numBands - 1) ? 4 : 0;
+            data = new byte[ head + len + tail ];
+            System.arraycopy( band.zBytes, 0, data, head, len );
+            if ( head > 0 )
+            {
+               data[ 0 ] = 0x78;
+               data[ 1 ] = (byte) 0x9c;
+            }
+            len += head + tail;
+            if ( tail > 0 )
+               putInt( data, len - 4, adler );
+         }
+         writeChunk( out, IDAT, data, 0, len );
+      }
+      writeChunk( out, IEND, new byte[0], 0, 0 );
+      out.flush();
+
+   } // end encode()
+
+
+} // end class TGPngEncoder
@@ -0,0 +1,108 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+
+/*
+ * This class implements a TurtleGraphics Polyline graphics
+ * Operation: connected line segments of a specified penWidth
+ * through a series of TurtleSpace points, e.g., a stroke sketched
+ * with the mouse (see TGCanvas.setDragStroke()).
+ *
+ * A freehand stroke is hundreds of tiny segments; as one operation
+ * it is drawn with a single drawPolyline(), with round joins so
+ * fat strokes have no notches where segments meet, instead of a
+ * TGLineOp per segment.
+ */
+
+class TGPolylineOp implements TGGraphicsOp
+{
+
+   private Color color;
+   private int penWidth;
+   private float[] xPoints;       // TurtleSpace
+   private float[] yPoints;
+
+
+   //
+   // constructor
+   //
+   // the op keeps xPoints and yPoints; don't change them afterwards
+   //
+   TGPolylineOp( float[] xPoints, float[] yPoints, Color color, int penWidth )
+   {
+      this.xPoints = xPoints;
+      this.yPoints = yPoints;
+      this.color = color;
+      this.penWidth = penWidth;
+   }
+
+
+   public Rectangle doIt( Image inMemoryImage )
+   {
+      int imageWidth = inMemoryImage.getWidth( null );
+      int imageHeight = inMemoryImage.getHeight( null );
+      if ( imageWidth < 0 || imageHeight < 0 || xPoints.length == 0 )
+         return null;
+      int numPoints = xPoints.length;
+      int[] xs = new int[ numPoints ];
+      int[] ys = new int[ numPoints ];
+      int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+      int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+      for ( int i=0; i < numPoints; i++ )
+      {
+         xs[ i ] = imageWidth / 2 + Math.round( xPoints[i] );
+         ys[ i ] = imageHeight / 2 - Math.round( yPoints[i] );
+         minX = Math.min( minX, xs[i] );
+         maxX = Math.max( maxX, xs[i] );
+         minY = Math.min( minY, ys[i] );
+         maxY = Math.max( maxY, ys[i] );
+      }
+      int margin = penWidth / 2 + 1;
+      Rectangle clipRect = new Rectangle( minX - margin, minY - margin,
+                                          maxX - minX + 2*margin + 1,
+                                          maxY - minY + 2*margin + 1 );
+      Graphics2D g = (Graphics2D) inMemoryImage.getGraphics();
+      g.setColor( color );
+      g.setClip( clipRect );
+      if ( penWidth > 1 )
+         g.setStroke( new BasicStroke(penWidth, BasicStroke.CAP_ROUND,
+                                      BasicStroke.JOIN_ROUND) );
+      if ( numPoints == 1 )
+         g.drawLine( xs[0], ys[0], xs[0], ys[0] );
+      else
+         g.drawPolyline( xs, ys, numPoints );
+      g.dispose();
+      return clipRect;
+
+   } // end doIt()
+
+
+   public Color getColor()
+   { return color; }
+
+
+   public int getNumPoints()
+   { return xPoints.length; }
+
+
+   public int getPenWidth()
+   { return penWidth; }
+
+
+   public float getX( int pointNum )
+   { return xPoints[ pointNum ]; }
+
+
+   public float getY( int pointNum )
+   { return yPoints[ pointNum ]; }
+
+
+   public String toString()
+   {
+      return "TGPolylineOp[color="+color+",width="+penWidth
+             +",points="+xPoints.length+"]";
+   }
+
+} // end class TGPolylineOp
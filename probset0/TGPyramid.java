@@ -0,0 +1,271 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.BitSet;
+
+/*
+ * This class keeps a mip pyramid of a TGCanvas' graphicsImage: a
+ * series of copies, each half the width and height of the one
+ * before, every pixel the average of the 2x2 pixels it shrinks, down
+ * to about MIN_LEVEL_SIZE pixels.  Level 0 is the graphicsImage
+ * itself.  Showing the graphics zoomed out (TGCanvas.setViewport())
+ * scales the level nearest the zoom instead of all of graphicsImage,
+ * so it costs the same however big the graphics are, and
+ * TGCanvas.getThumbnail() is one small drawImage().
+ *
+ * The pyramid is kept up to date incrementally: graphicsImage is
+ * divided into TILE_SIZE square tiles, and TGCanvas marks the tiles
+ * drawing operations touch with invalidate().  update() then only
+ * shrinks what is under the dirty tiles, level after level.
+ *
+ * Levels bigger than MAX_LEVEL_PIXELS aren't kept; the first level
+ * kept is averaged straight from graphicsImage, e.g., a 30000x30000
+ * off-heap image (see TGOffHeapBuffer) starts at level 4, 1875x1875.
+ */
+
+class TGPyramid
+{
+
+   // constants
+   //
+   private static final int MAX_LEVEL_PIXELS = 1 << 22;
+   private static final int MIN_LEVEL_SIZE = 16;
+   private static final int TILE_SHIFT = 8;
+   private static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+
+   // variables with class-wide scope
+   //
+   private int baseWidth, baseHeight;  // level 0, graphicsImage
+   private int firstLevel;             // finest level kept, at least 1
+   private int numLevels;              // including level 0
+   private int numCols, numRows;       // tiles across and down
+   private int[] widths;               // [level]
+   private int[] heights;
+   private int[][] pixels;             // [level], null below firstLevel
+   private int[] tilePixels;           // update() reads graphicsImage
+                                       // a tile at a time into this
+   private BitSet dirtyTiles;          // row after row
+   private BufferedImage[] images;     // [level], over pixels[level]
+
+
+   //
+   // constructor
+   //
+   // every tile starts out dirty
+   //
+   TGPyramid( int baseWidth, int baseHeight )
+   {
+      this.baseWidth = baseWidth;
+      this.baseHeight = baseHeight;
+      numLevels = 1;
+      int wd = baseWidth, ht = baseHeight;
+      while ( Math.max(wd, ht) > MIN_LEVEL_SIZE )
+      {
+         wd = (wd + 1) / 2;
+         ht = (ht + 1) / 2;
+         numLevels++;
+      }
+      widths = new int[ numLevels ];
+      heights = new int[ numLevels ];
+      widths[ 0 ] = baseWidth;
+      heights[ 0 ] = baseHeight;
+      for ( int level=1; level < numLevels; level++ )
+      {
+         widths[ level ] = (widths[level-1] + 1) / 2;
+         heights[ level ] = (heights[level-1] + 1) / 2;
+      }
+      firstLevel = 1;
+      while ( firstLevel < numLevels - 1
+              && (long) widths[firstLevel] * heights[firstLevel] > MAX_LEVEL_PIXELS )
+         firstLevel++;
+      pixels = new int[ numLevels ][];
+      images = new BufferedImage[ numLevels ];
+      for ( int level=firstLevel; level < numLevels; level++ )
+      {
+         images[ level ] = new BufferedImage( widths[level], heights[level],
+                                              BufferedImage.TYPE_INT_RGB );
+         pixels[ level ] =
+            ((DataBufferInt) images[level].getRaster().getDataBuffer()).getData();
+      }
+      tilePixels = new int[ TILE_SIZE * TILE_SIZE ];
+      numCols = (baseWidth + TILE_SIZE - 1) >> TILE_SHIFT;
+      numRows = (baseHeight + TILE_SIZE - 1) >> TILE_SHIFT;
+      dirtyTiles = new BitSet( numCols * numRows );
+      invalidateAll();
+   }
+
+
+   // bring what is under the base tile at (tileX,tileY) up to date in
+   // firstLevel, each pixel the average of the block of graphicsImage
+   // pixels it covers
+   //
+   private void shrinkBase( BufferedImage base, int tileX, int tileY )
+   {
+      int blockSize = 1 << firstLevel;
+      int srcWidth = Math.min( TILE_SIZE, baseWidth - tileX );
+      int srcHeight = Math.min( TILE_SIZE, baseHeight - tileY );
+      TGPalette.getRGB( base, tileX, tileY, srcWidth, srcHeight, tilePixels, 0,
+                        TILE_SIZE );
+      int[] dst = pixels[ firstLevel ];
+      int dstWidth = widths[ firstLevel ];
+      int x0 = tileX >> firstLevel, y0 = tileY >> firstLevel;
+      int x1 = x0 + ((srcWidth + blockSize - 1) >> firstLevel);
+      int y1 = y0 + ((srcHeight + blockSize - 1) >> firstLevel);
+      for ( int y=y0; y < y1; y++ )
+      {
+         int top = (y << firstLevel) - tileY;
+         int bottom = Math.min( top + blockSize, srcHeight );
+         for ( int x=x0; x < x1; x++ )
+         {
+            int left = (x << firstLevel) - tileX;
+            int right = Math.min( left + blockSize, srcWidth );
+            int red = 0, green = 0, blue = 0;
+            for ( int row=top; row < bottom; row++ )
+               for ( int idx=row * TILE_SIZE + left; idx < row * TILE_SIZE + right; idx++ )
+               {
+                  int rgb = tilePixels[ idx ];
+                  red += (rgb >> 16) & 0xff;
+                  green += (rgb >> 8) & 0xff;
+                  blue += rgb & 0xff;
+               }
+            int count = (bottom - top) * (right - left);
+            dst[ y * dstWidth + x ] = ((red + count/2) / count) << 16
+                                      | ((green + count/2) / count) << 8
+                                      | ((blue + count/2) / count);
+         }
+      }
+
+   } // end shrinkBase()
+
+
+   // bring the rectangle x0..x1-1, y0..y1-1 of level up to date from
+   // the level before it; along the right and bottom edges of an odd
+   // sized level the last column or row is used twice
+   //
+   private void shrinkLevel( int level, int x0, int y0, int x1, int y1 )
+   {
+      int[] src = pixels[ level-1 ];
+      int srcWidth = widths[ level-1 ];
+      int srcHeight = heights[ level-1 ];
+      int[] dst = pixels[ level ];
+      int dstWidth = widths[ level ];
+      for ( int y=y0; y < y1; y++ )
+      {
+         int row0 = 2 * y * srcWidth;
+         int row1 = Math.min( 2*y + 1, srcHeight - 1 ) * srcWidth;
+         for ( int x=x0; x < x1; x++ )
+         {
+            int col0 = 2 * x;
+            int col1 = Math.min( 2*x + 1, srcWidth - 1 );
+            int p0 = src[ row0 + col0 ], p1 = src[ row0 + col1 ];
+            int p2 = src[ row1 + col0 ], p3 = src[ row1 + col1 ];
+            int red = ((p0 >> 16) & 0xff) + ((p1 >> 16) & 0xff)
+                      + ((p2 >> 16) & 0xff) + ((p3 >> 16) & 0xff);
+            int green = ((p0 >> 8) & 0xff) + ((p1 >> 8) & 0xff)
+                        + ((p2 >> 8) & 0xff) + ((p3 >> 8) & 0xff);
+            int blue = (p0 & 0xff) + (p1 & 0xff) + (p2 & 0xff) + (p3 & 0xff);
+            dst[ y * dstWidth + x ] = ((red + 2) >> 2) << 16
+                                      | ((green + 2) >> 2) << 8
+                                      | ((blue + 2) >> 2);
+         }
+      }
+
+   } // end shrinkLevel()
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   int getFirstLevel()
+   { return firstLevel; }
+
+
+   int getHeight( int level )
+   { return heights[ level ]; }
+
+
+   /*
+    * Return the image of level, firstLevel or coarser; it is only up
+    * to date after update().
+    */
+   BufferedImage getImage( int level )
+   { return images[ level ]; }
+
+
+   int getNumLevels()
+   { return numLevels; }
+
+
+   int getWidth( int level )
+   { return widths[ level ]; }
+
+
+   /*
+    * Mark the part of graphicsImage in the rectangle (x,y,width,height)
+    * as changed.
+    */
+   void invalidate( int x, int y, int width, int height )
+   {
+      int col0 = Math.max( 0, x ) >> TILE_SHIFT;
+      int row0 = Math.max( 0, y ) >> TILE_SHIFT;
+      int col1 = Math.min( numCols - 1, (x + width - 1) >> TILE_SHIFT );
+      int row1 = Math.min( numRows - 1, (y + height - 1) >> TILE_SHIFT );
+      for ( int row=row0; row <= row1; row++ )
+         if ( col0 <= col1 )
+            dirtyTiles.set( row * numCols + col0, row * numCols + col1 + 1 );
+
+   } // end invalidate()
+
+
+   void invalidateAll()
+   { dirtyTiles.set( 0, numCols * numRows ); }
+
+
+   /*
+    * Return the coarsest level whose pixels are still no bigger than
+    * scale (a fraction of graphicsImage's) makes them, i.e., the one
+    * to draw at that scale.  Returns 0, graphicsImage itself, when
+    * scale is too big for the levels that are kept.
+    */
+   int levelFor( double scale )
+   {
+      int level = 0;
+      while ( level + 1 < numLevels && scale <= 1.0 / (1L << (level+1)) )
+         level++;
+      if ( level < firstLevel )
+         return 0;
+      return level;
+
+   } // end levelFor()
+
+
+   /*
+    * Shrink what is under the tiles changed since the last update()
+    * into every level kept; base is graphicsImage.
+    */
+   void update( BufferedImage base )
+   {
+      if ( dirtyTiles.isEmpty() || firstLevel >= numLevels )
+         return;
+      for ( int t=dirtyTiles.nextSetBit(0); t >= 0; t=dirtyTiles.nextSetBit(t+1) )
+         shrinkBase( base, (t % numCols) << TILE_SHIFT, (t / numCols) << TILE_SHIFT );
+      for ( int level=firstLevel + 1; level < numLevels; level++ )
+      {
+         // coarse levels have several tiles per pixel; each pixel is
+         // shrunk once per dirty tile, which is still very little
+         int round = (1 << level) - 1;
+         for ( int t=dirtyTiles.nextSetBit(0); t >= 0; t=dirtyTiles.nextSetBit(t+1) )
+         {
+            int tileX = (t % numCols) << TILE_SHIFT;
+            int tileY = (t / numCols) << TILE_SHIFT;
+            shrinkLevel( level, tileX >> level, tileY >> level,
+                         Math.min( widths[level], (tileX + TILE_SIZE + round) >> level ),
+                         Math.min( heights[level], (tileY + TILE_SIZE + round) >> level ) );
+         }
+      }
+      dirtyTiles.clear();
+
+   } // end update()
+
+} // end class TGPyramid
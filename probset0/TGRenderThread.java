@@ -0,0 +1,40 @@
+/*
+ * This class is the thread which performs a displayed TGCanvas'
+ * graphics operations, rasterizing them into its graphicsImage.
+ *
+ * Without it, operations are performed by paint() on the AWT event
+ * dispatch thread, and while a big batch of them (or a big FILL) is
+ * being performed, key and mouse events wait.  With it, paint()
+ * only copies finished pixels to the display; the render thread
+ * performs operations as they are added and tells the canvas which
+ * part of it to repaint.  TGCanvas starts one in addNotify(), when
+ * it becomes displayable, and stops it in removeNotify().
+ */
+
+class TGRenderThread extends Thread
+{
+
+   // variables with class-wide scope
+   //
+   private TGCanvas tgc;
+
+
+   //
+   // constructor
+   //
+   TGRenderThread( TGCanvas tgc )
+   {
+      super( "TGRenderThread" );
+      setDaemon( true );
+      this.tgc = tgc;
+   }
+
+
+   public void run()
+   {
+      while ( tgc.waitForGraphics(this) )
+         tgc.renderAndPublish();
+
+   } // end run()
+
+} // end class TGRenderThread
@@ -0,0 +1,166 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * This class holds the turtle images shared by all TurtlePixels.
+ *
+ * A TurtlePixels subclass draws its shape in initTurtlePixels(),
+ * after which the pixels outside its edge are made transparent and
+ * the pixels to be filled with the turtle's color are found.  The
+ * result depends only on the subclass and the size of the turtle,
+ * so it is worked out once per (class, width, height) and kept
+ * here, as an immutable Shape, for every turtle of that shape.
+ *
+ * The pixels a turtle is displayed with, its Shape filled with a
+ * color and rotated to a heading, are shared too: the most recently
+ * used ones are kept, up to MAX_CACHED_PIXELS pixels' worth, keyed
+ * by Shape, color and heading.  A thousand turtles of the same shape
+ * and color pointing the same way share one pixel array.  Neither
+ * Shape pixels nor cached images may be changed.
+ */
+
+class TGShapeAtlas
+{
+
+   // constants
+   //
+   private static final int MAX_CACHED_PIXELS = 1 << 20;
+
+
+   // a turtle shape: its pixels, headed EAST, with transparent pixels
+   // outside its edge, and which of them take on the turtle's color
+   //
+   static class Shape
+   {
+      final int sideSize;
+      final int[] pixels;
+      final int[] fillIdx;     // indices of the pixels to color
+
+      Shape( int sideSize, int[] pixels, boolean[] fillMask )
+      {
+         this.sideSize = sideSize;
+         this.pixels = pixels;
+         int numFill = 0;
+         for ( int i=0; i < fillMask.length; i++ )
+            if ( fillMask[i] )
+               numFill++;
+         fillIdx = new int[ numFill ];
+         numFill = 0;
+         for ( int i=0; i < fillMask.length; i++ )
+            if ( fillMask[i] )
+               fillIdx[ numFill++ ] = i;
+      }
+
+   } // end class Shape
+
+
+   // what an image in the cache is of
+   //
+   private static class ImageKey
+   {
+      private final int headingBits;
+      private final int rgb;
+      private final Shape shape;
+
+      ImageKey( Shape shape, int rgb, float heading )
+      {
+         this.shape = shape;
+         this.rgb = rgb;
+         headingBits = Float.floatToIntBits( heading );
+      }
+
+      public boolean equals( Object obj )
+      {
+         if ( ! (obj instanceof ImageKey) )
+            return false;
+         ImageKey key = (ImageKey) obj;
+         return key.shape == shape && key.rgb == rgb
+                && key.headingBits == headingBits;
+      }
+
+      public int hashCode()
+      {
+         return (System.identityHashCode(shape) * 31 + rgb) * 31 + headingBits;
+      }
+
+   } // end class ImageKey
+
+
+   // variables with class-wide scope
+   //
+   private static int cachedPixels;      // in all of images' arrays
+   private static HashMap<String,Shape> shapes = new HashMap<String,Shape>();
+   private static LinkedHashMap<ImageKey,int[]> images
+      = new LinkedHashMap<ImageKey,int[]>( 64, 0.75F, true );
+
+
+   //
+   // constructor
+   //
+   private TGShapeAtlas()
+   { }
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   /*
+    * Return the image of shape filled with rgb and rotated to heading
+    * if it is in the cache, else null.
+    */
+   static synchronized int[] getImage( Shape shape, int rgb, float heading )
+   { return images.get( new ImageKey(shape, rgb, heading) ); }
+
+
+   /*
+    * Return the Shape a TurtlePixels subclass built for key (its
+    * class and size), null if none has been built yet.
+    */
+   static synchronized Shape getShape( String key )
+   { return shapes.get( key ); }
+
+
+   /*
+    * Add pixels, the image of shape filled with rgb and rotated to
+    * heading, to the cache, dropping the least recently used images
+    * if it is full.  If another thread got there first, its image is
+    * returned and pixels dropped instead.
+    */
+   static synchronized int[] putImage( Shape shape, int rgb, float heading,
+                                       int[] pixels )
+   {
+      ImageKey key = new ImageKey( shape, rgb, heading );
+      int[] cached = images.get( key );
+      if ( cached != null )
+         return cached;
+      images.put( key, pixels );
+      cachedPixels += pixels.length;
+      Iterator<Map.Entry<ImageKey,int[]>> iter = images.entrySet().iterator();
+      while ( cachedPixels > MAX_CACHED_PIXELS && images.size() > 1 )
+      {
+         cachedPixels -= iter.next().getValue().length;
+         iter.remove();
+      }
+      return pixels;
+
+   } // end putImage()
+
+
+   /*
+    * Remember shape as the one built for key, unless another thread
+    * got there first, in which case its Shape is returned instead.
+    */
+   static synchronized Shape putShape( String key, Shape shape )
+   {
+      Shape built = shapes.get( key );
+      if ( built != null )
+         return built;
+      shapes.put( key, shape );
+      return shape;
+
+   } // end putShape()
+
+} // end class TGShapeAtlas
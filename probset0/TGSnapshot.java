@@ -0,0 +1,463 @@
+import java.awt.Color;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * This class reads and writes TGCanvas snapshot files: the pixels
+ * of the canvas' graphics, its background color and the state of
+ * a set of Turtles (position, heading, pen, shape, visibility and
+ * label height), so a session can be checkpointed and later
+ * resumed without replaying what it drew.
+ *
+ * A snapshot file is a sequence of big-endian ints, streamed to and
+ * from a FileChannel through a fixed-size direct buffer:
+ *
+ *   MAGIC, VERSION, width, height, background RGB, number of turtles
+ *   per turtle: x and y (float bits), heading (float bits, radians),
+ *               flags (PEN_DOWN, SHOWN), pen RGB, pen size,
+ *               label height, shape number, number of shape
+ *               params, the params
+ *   pixel encoding, then for
+ *     RAW:         width*height RGB values
+ *     RGB_RLE:     number of runs, then (RGB, length) pairs
+ *     PALETTE_RLE: palette size, the palette's RGB values, number
+ *                  of runs, then per run (index << 24 | length)
+ *
+ * Turtle drawings usually have a handful of colors and long runs
+ * of background, so PALETTE_RLE is usually picked; whichever of
+ * the three is smallest is written.  Pixels run across rows, left
+ * to right, top to bottom.  Restoring is bulk int copies out of
+ * the buffer plus an Arrays.fill() per run.  The file is not
+ * memory-mapped: a mapping stays open until it is garbage
+ * collected, which on some systems, e.g., Windows, keeps the file
+ * from being written again, say, by the next checkpoint.  Neither
+ * is it read or built whole in memory, so its size isn't limited
+ * to what one ByteBuffer can hold.
+ */
+
+class TGSnapshot
+{
+
+   // constants
+   //
+   private static final int BUFFER_SIZE = 64 * 1024;
+   private static final int MAGIC = 0x5447534E;  // "TGSN"
+   private static final int VERSION = 1;
+   private static final int RAW = 1;
+   private static final int RGB_RLE = 2;
+   private static final int PALETTE_RLE = 3;
+   private static final int MAX_PALETTE = 256;
+   private static final int MAX_RUN = 0xffffff;   // fits in 24 bits
+   private static final int PEN_DOWN = 1;        // turtle flags
+   private static final int SHOWN = 2;
+
+
+   // variables with class-wide scope
+   //
+   private int height;
+   private int width;
+   private int[] pixels;          // RGB, width*height of them
+   private int[][] turtleInts;    // each turtle's record, as written
+   private Color background;
+
+
+   /*
+    * Big-endian ints read from a FileChannel through a fixed-size
+    * buffer.
+    */
+   private static class IntReader
+   {
+      private ByteBuffer buf;
+      private FileChannel channel;
+      private String fileName;
+
+      IntReader( FileChannel channel, String fileName )
+      {
+         this.channel = channel;
+         this.fileName = fileName;
+         buf = ByteBuffer.allocateDirect( BUFFER_SIZE );
+         buf.limit( 0 );
+      }
+
+      int get() throws IOException
+      {
+         if ( buf.remaining() < 4 )
+            fill();
+         return buf.getInt();
+
+      } // end get()
+
+      void get( int[] dst ) throws IOException
+      { get( dst, 0, dst.length ); }
+
+      void get( int[] dst, int offset, int length ) throws IOException
+      {
+         while ( length > 0 )
+         {
+            if ( buf.remaining() < 4 )
+               fill();
+            int count = Math.min( length, buf.remaining() / 4 );
+            buf.asIntBuffer().get( dst, offset, count );
+            buf.position( buf.position() + count * 4 );
+            offset += count;
+            length -= count;
+         }
+
+      } // end get()
+
+      // move what is left of the buffer to its front and read more
+      // after it, at least up to a whole int
+      //
+      private void fill() throws IOException
+      {
+         buf.compact();
+         while ( buf.position() < 4 )
+            if ( channel.read(buf) < 0 )
+               throw new IOException( "TGSnapshot: " + fileName
+                                      + " ends too soon" );
+         buf.flip();
+
+      } // end fill()
+
+   } // end class IntReader
+
+
+   /*
+    * Big-endian ints written to a FileChannel through a fixed-size
+    * buffer.  flush() writes what is left in it.
+    */
+   private static class IntWriter
+   {
+      private ByteBuffer buf;
+      private FileChannel channel;
+
+      IntWriter( FileChannel channel )
+      {
+         this.channel = channel;
+         buf = ByteBuffer.allocateDirect( BUFFER_SIZE );
+      }
+
+      void flush() throws IOException
+      {
+         buf.flip();
+         while ( buf.hasRemaining() )
+            channel.write( buf );
+         buf.clear();
+
+      } // end flush()
+
+      void put( int value ) throws IOException
+      {
+         if ( buf.remaining() < 4 )
+            flush();
+         buf.putInt( value );
+
+      } // end put()
+
+      void put( int[] src ) throws IOException
+      {
+         for ( int offset=0, count; offset < src.length; offset += count )
+         {
+            if ( buf.remaining() < 4 )
+               flush();
+            count = Math.min( src.length - offset, buf.remaining() / 4 );
+            buf.asIntBuffer().put( src, offset, count );
+            buf.position( buf.position() + count * 4 );
+         }
+
+      } // end put()
+
+   } // end class IntWriter
+
+
+   //
+   // constructor
+   //
+   private TGSnapshot()
+   { }
+
+
+   // number of runs of identical pixels, none longer than MAX_RUN
+   //
+   private static int countRuns( int[] pixels )
+   {
+      int numRuns = 0;
+      int idx = 0;
+      while ( idx < pixels.length )
+      {
+         idx = runEnd( pixels, idx );
+         numRuns++;
+      }
+      return numRuns;
+
+   } // end countRuns()
+
+
+   private static int[] intsOf( Turtle turtle )
+   {
+      TGTurtleState state = turtle.getState();
+      int[] params = turtle.getShapeParams();
+      int numParams = (params == null) ? 0 : params.length;
+      int[] ints = new int[ 9 + numParams ];
+      ints[ 0 ] = Float.floatToIntBits( state.getPoint().xFloatValue() );
+      ints[ 1 ] = Float.floatToIntBits( state.getPoint().yFloatValue() );
+      ints[ 2 ] = Float.floatToIntBits( state.getHeading() );
+      ints[ 3 ] = (state.isPenDown() ? PEN_DOWN : 0)
+                  | (turtle.isShown() ? SHOWN : 0);
+      ints[ 4 ] = state.getPenColor().getRGB() & 0xffffff;
+      ints[ 5 ] = state.getPenSize();
+      ints[ 6 ] = turtle.getLabelHeight();
+      ints[ 7 ] = turtle.getShapeNum();
+      ints[ 8 ] = numParams;
+      for ( int i=0; i < numParams; i++ )
+         ints[ 9+i ] = params[ i ];
+      return ints;
+
+   } // end intsOf()
+
+
+   // return the index just past the run of pixels starting at idx
+   //
+   private static int runEnd( int[] pixels, int idx )
+   {
+      int rgb = pixels[ idx ];
+      int end = Math.min( pixels.length, idx + MAX_RUN );
+      while ( ++idx < end && pixels[idx] == rgb )
+         ;
+      return idx;
+
+   } // end runEnd()
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   /*
+    * Put turtle into the state the turtleNum-th turtle was in when
+    * the snapshot was written.
+    */
+   void applyTo( Turtle turtle, int turtleNum )
+   {
+      int[] ints = turtleInts[ turtleNum ];
+      int[] params = null;
+      if ( ints[8] > 0 )
+         params = Arrays.copyOfRange( ints, 9, 9 + ints[8] );
+      turtle.setshape( ints[7], params );
+      turtle.setlabelheight( ints[6] );
+      TGPoint point = new TGPoint( Float.intBitsToFloat(ints[0]),
+                                   Float.intBitsToFloat(ints[1]) );
+      turtle.setState( new TGTurtleState(point, Float.intBitsToFloat(ints[2]),
+                                         (ints[3] & PEN_DOWN) != 0,
+                                         new Color(ints[4]), ints[5]) );
+      if ( (ints[3] & SHOWN) != 0 )
+         turtle.st();
+      else
+         turtle.ht();
+
+   } // end applyTo()
+
+
+   Color getBackground()
+   { return background; }
+
+
+   int getHeight()
+   { return height; }
+
+
+   int getNumTurtles()
+   { return turtleInts.length; }
+
+
+   /*
+    * Return the pixels, RGB values in rows top to bottom.
+    */
+   int[] getPixels()
+   { return pixels; }
+
+
+   int getWidth()
+   { return width; }
+
+
+   /*
+    * Read a snapshot file.
+    */
+   static TGSnapshot read( String fileName ) throws IOException
+   {
+      FileInputStream file = new FileInputStream( fileName );
+      try
+      {
+         FileChannel channel = file.getChannel();
+         IntReader ints = new IntReader( channel, fileName );
+         if ( channel.size() < 6 * 4 || ints.get() != MAGIC
+              || ints.get() != VERSION )
+            throw new IOException( "TGSnapshot: " + fileName
+                                   + " is not a snapshot file" );
+         TGSnapshot snap = new TGSnapshot();
+         snap.width = ints.get();
+         snap.height = ints.get();
+         if ( snap.width < 0 || snap.height < 0
+              || (long) snap.width * snap.height > Integer.MAX_VALUE )
+            throw new IOException( "TGSnapshot: bad size in " + fileName );
+         snap.background = new Color( ints.get() );
+         snap.turtleInts = new int[ ints.get() ][];
+         for ( int t=0; t < snap.turtleInts.length; t++ )
+         {
+            int[] head = new int[ 9 ];
+            ints.get( head );
+            int[] turtleInts = Arrays.copyOf( head, 9 + head[8] );
+            ints.get( turtleInts, 9, head[8] );
+            snap.turtleInts[ t ] = turtleInts;
+         }
+         int[] pixels = new int[ snap.width * snap.height ];
+         int encoding = ints.get();
+         if ( encoding == RAW )
+            ints.get( pixels );
+         else if ( encoding == RGB_RLE )
+         {
+            int numRuns = ints.get();
+            int idx = 0;
+            for ( int i=0; i < numRuns; i++ )
+            {
+               int rgb = ints.get();
+               int length = ints.get();
+               Arrays.fill( pixels, idx, idx + length, rgb );
+               idx += length;
+            }
+         }
+         else if ( encoding == PALETTE_RLE )
+         {
+            int[] palette = new int[ ints.get() ];
+            ints.get( palette );
+            int numRuns = ints.get();
+            int idx = 0;
+            for ( int i=0; i < numRuns; i++ )
+            {
+               int run = ints.get();
+               int length = run & MAX_RUN;
+               Arrays.fill( pixels, idx, idx + length, palette[run >>> 24] );
+               idx += length;
+            }
+         }
+         else
+            throw new IOException( "TGSnapshot: bad pixel encoding in "
+                                   + fileName );
+         snap.pixels = pixels;
+         return snap;
+      }
+      catch ( RuntimeException re )
+      {
+         // a garbled file shows up as an index out of bounds or a
+         // negative array size
+         throw new IOException( "TGSnapshot: bad snapshot file " + fileName
+                                + ", " + re );
+      }
+      finally
+      {
+         file.close();
+      }
+
+   } // end read()
+
+
+   /*
+    * Write a snapshot file.  pixels are width*height RGB values, in
+    * rows top to bottom; their alpha bytes are cleared.
+    */
+   static void write( String fileName, int[] pixels, int width, int height,
+                      Color background, Turtle[] turtles ) throws IOException
+   {
+      for ( int i=0; i < pixels.length; i++ )
+         pixels[ i ] &= 0xffffff;
+
+      // pick the smallest encoding
+      int numRuns = countRuns( pixels );
+      HashMap<Integer,Integer> paletteIdx = new HashMap<Integer,Integer>();
+      for ( int idx=0; idx < pixels.length; idx = runEnd(pixels, idx) )
+      {
+         Integer rgb = Integer.valueOf( pixels[idx] );
+         if ( ! paletteIdx.containsKey(rgb) )
+         {
+            if ( paletteIdx.size() == MAX_PALETTE )
+            {
+               paletteIdx = null;
+               break;
+            }
+            paletteIdx.put( rgb, Integer.valueOf(paletteIdx.size()) );
+         }
+      }
+      int encoding = RAW;
+      long pixelInts = pixels.length;
+      if ( (long) numRuns * 2 + 1 < pixelInts )
+      {
+         encoding = RGB_RLE;
+         pixelInts = (long) numRuns * 2 + 1;
+      }
+      if ( paletteIdx != null
+           && paletteIdx.size() + numRuns + 2 < pixelInts )
+      {
+         encoding = PALETTE_RLE;
+         pixelInts = paletteIdx.size() + numRuns + 2;
+      }
+
+      int[][] turtleInts = new int[ turtles.length ][];
+      for ( int t=0; t < turtles.length; t++ )
+         turtleInts[ t ] = intsOf( turtles[t] );
+
+      FileOutputStream file = new FileOutputStream( fileName );
+      try
+      {
+         IntWriter ints = new IntWriter( file.getChannel() );
+         ints.put( MAGIC );
+         ints.put( VERSION );
+         ints.put( width );
+         ints.put( height );
+         ints.put( background.getRGB() & 0xffffff );
+         ints.put( turtles.length );
+         for ( int t=0; t < turtleInts.length; t++ )
+            ints.put( turtleInts[t] );
+         ints.put( encoding );
+         if ( encoding == RAW )
+            ints.put( pixels );
+         else if ( encoding == RGB_RLE )
+         {
+            ints.put( numRuns );
+            for ( int idx=0, end; idx < pixels.length; idx = end )
+            {
+               end = runEnd( pixels, idx );
+               ints.put( pixels[idx] );
+               ints.put( end - idx );
+            }
+         }
+         else
+         {
+            int[] palette = new int[ paletteIdx.size() ];
+            for ( Integer rgb : paletteIdx.keySet() )
+               palette[ paletteIdx.get(rgb).intValue() ] = rgb.intValue();
+            ints.put( palette.length );
+            ints.put( palette );
+            ints.put( numRuns );
+            for ( int idx=0, end; idx < pixels.length; idx = end )
+            {
+               end = runEnd( pixels, idx );
+               int index = paletteIdx.get( Integer.valueOf(pixels[idx]) ).intValue();
+               ints.put( (index << 24) | (end - idx) );
+            }
+         }
+         ints.flush();
+      }
+      finally
+      {
+         file.close();
+      }
+
+   } // end write()
+
+} // end class TGSnapshot
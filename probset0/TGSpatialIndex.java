@@ -0,0 +1,457 @@
+import java.awt.Component;
+import java.awt.FontMetrics;
+
+/*
+ * This class is a spatial index of the lines and labels drawn on a
+ * TGCanvas, used to answer "what is under the mouse?" quickly,
+ * e.g., on every mouseMoved, even when hundreds of thousands of
+ * lines have been drawn.
+ *
+ * TurtleSpace is divided into a uniform grid of CELL_SIZE pixel
+ * square cells.  Each line (each segment of a polyline) is entered
+ * in every cell its stroke (the line thickened by half its pen
+ * width) passes through, each label in every cell its bounding box
+ * covers.  Only cells that
+ * have something in them exist; they are kept in an open hash
+ * table keyed by their packed (column,row).  Cell contents are
+ * singly-linked lists of entries in primitive arrays, so adding an
+ * item is a handful of array stores and a query visits only the
+ * few cells around the query point.
+ *
+ * Only what is within TGCanvas.CLIP_LIMIT of the origin is indexed,
+ * lines being clipped to it, and an item that would take more than MAX_ITEM_CELLS
+ * of them (a very long or very wide line, a huge label) is kept
+ * in an overflow list instead, which every query looks through.
+ *
+ * Items are never removed individually; the whole index is
+ * cleared when the canvas is.  A TGSpatialIndex is not thread
+ * safe; TGCanvas uses it with the graphicsOps lock held.
+ */
+
+class TGSpatialIndex
+{
+
+   // constants
+   //
+   private static final float CELL_SIZE = 16.0F;
+   private static final int INIT_NUM_ITEMS = 1024;
+   private static final int MAX_ITEM_CELLS = 4096;
+   private static final int INIT_NUM_ENTRIES = 4096;
+   private static final int INIT_TABLE_SIZE = 1024;  // a power of two
+   private static final long EMPTY = Long.MIN_VALUE;
+
+
+   // variables with class-wide scope
+   //
+   private int numCells;          // cells in use in the hash table
+   private int numEntries;        // entries in use
+   private int numItems;          // items (segments and labels) in use
+   private int numOverflow;       // items in overflowItems
+   private int queryStamp;        // incremented per query, see itemStamp
+   private float[] itemX1, itemY1;   // lines: end points. labels: corners
+   private float[] itemX2, itemY2;   // of their bounding box
+   private float[] itemHalfWidth;  // lines: half pen width. labels: zero
+   private boolean[] itemIsLabel;
+   private int[] itemStamp;       // queryStamp of the last query that
+                                  // looked at the item
+   private int[] entryItem;       // item an entry refers to
+   private int[] entryNext;       // next entry in same cell, -1 at end
+   private int[] cellHead;        // first entry in a cell
+   private int[] overflowItems;   // items in no cell, see the class comment
+   private long[] cellKey;        // packed (column,row), EMPTY if unused
+   private Component component;   // used to get FontMetrics for labels
+   private TGGraphicsOp[] itemOps;
+
+
+   //
+   // constructor
+   //
+   TGSpatialIndex( Component component )
+   {
+      this.component = component;
+      allocate();
+   }
+
+
+   private void allocate()
+   {
+      itemX1 = new float[ INIT_NUM_ITEMS ];
+      itemY1 = new float[ INIT_NUM_ITEMS ];
+      itemX2 = new float[ INIT_NUM_ITEMS ];
+      itemY2 = new float[ INIT_NUM_ITEMS ];
+      itemHalfWidth = new float[ INIT_NUM_ITEMS ];
+      itemIsLabel = new boolean[ INIT_NUM_ITEMS ];
+      itemStamp = new int[ INIT_NUM_ITEMS ];
+      itemOps = new TGGraphicsOp[ INIT_NUM_ITEMS ];
+      entryItem = new int[ INIT_NUM_ENTRIES ];
+      entryNext = new int[ INIT_NUM_ENTRIES ];
+      cellHead = new int[ INIT_TABLE_SIZE ];
+      cellKey = new long[ INIT_TABLE_SIZE ];
+      java.util.Arrays.fill( cellKey, EMPTY );
+      overflowItems = new int[ 16 ];
+      numOverflow = 0;
+      numCells = 0;
+      numEntries = 0;
+      numItems = 0;
+
+   } // end allocate()
+
+
+   private int addItem( TGGraphicsOp op, float x1, float y1, float x2, float y2,
+                        float halfWidth, boolean isLabel )
+   {
+      if ( numItems == itemOps.length )
+      {
+         int newSize = numItems * 2;
+         itemX1 = grow( itemX1, newSize );
+         itemY1 = grow( itemY1, newSize );
+         itemX2 = grow( itemX2, newSize );
+         itemY2 = grow( itemY2, newSize );
+         itemHalfWidth = grow( itemHalfWidth, newSize );
+         boolean[] oldIsLabel = itemIsLabel;
+         itemIsLabel = new boolean[ newSize ];
+         System.arraycopy( oldIsLabel, 0, itemIsLabel, 0, numItems );
+         int[] oldStamp = itemStamp;
+         itemStamp = new int[ newSize ];
+         System.arraycopy( oldStamp, 0, itemStamp, 0, numItems );
+         TGGraphicsOp[] oldOps = itemOps;
+         itemOps = new TGGraphicsOp[ newSize ];
+         System.arraycopy( oldOps, 0, itemOps, 0, numItems );
+      }
+      itemX1[ numItems ] = x1;
+      itemY1[ numItems ] = y1;
+      itemX2[ numItems ] = x2;
+      itemY2[ numItems ] = y2;
+      itemHalfWidth[ numItems ] = halfWidth;
+      itemIsLabel[ numItems ] = isLabel;
+      itemOps[ numItems ] = op;
+      return numItems++;
+
+   } // end addItem()
+
+
+   // put item in the overflow list
+   //
+   private void addOverflow( int item )
+   {
+      if ( numOverflow == overflowItems.length )
+      {
+         int[] oldItems = overflowItems;
+         overflowItems = new int[ numOverflow * 2 ];
+         System.arraycopy( oldItems, 0, overflowItems, 0, numOverflow );
+      }
+      overflowItems[ numOverflow++ ] = item;
+
+   } // end addOverflow()
+
+
+   // put item in cell (col,row)
+   //
+   private void addEntry( int col, int row, int item )
+   {
+      long key = ((long) col << 32) | (row & 0xffffffffL);
+      int slot = findSlot( key );
+      if ( cellKey[slot] == EMPTY )
+      {
+         if ( (numCells + 1) * 2 > cellKey.length )
+         {
+            growTable();
+            slot = findSlot( key );
+         }
+         cellKey[ slot ] = key;
+         cellHead[ slot ] = -1;
+         numCells++;
+      }
+      else if ( entryItem[cellHead[slot]] == item )
+         return;                        // already there, rows overlap
+      if ( numEntries == entryItem.length )
+      {
+         int[] oldItem = entryItem;
+         entryItem = new int[ numEntries * 2 ];
+         System.arraycopy( oldItem, 0, entryItem, 0, numEntries );
+         int[] oldNext = entryNext;
+         entryNext = new int[ numEntries * 2 ];
+         System.arraycopy( oldNext, 0, entryNext, 0, numEntries );
+      }
+      entryItem[ numEntries ] = item;
+      entryNext[ numEntries ] = cellHead[ slot ];
+      cellHead[ slot ] = numEntries++;
+
+   } // end addEntry()
+
+
+   // enter a line, from (x1,y1) to (x2,y2) and drawn halfWidth on
+   // either side, for op
+   //
+   private void addSegment( TGGraphicsOp op, float x1, float y1,
+                            float x2, float y2, float halfWidth )
+   {
+      // only the part of it within CLIP_LIMIT (plus the stroke's
+      // width) is entered, which also keeps distance() in range
+      halfWidth = Math.min( halfWidth, TGCanvas.CLIP_LIMIT );
+      float limit = TGCanvas.CLIP_LIMIT + halfWidth;
+      double dx = x2 - x1;
+      double dy = y2 - y1;
+      double[] t = { 0.0, 1.0 };
+      if ( ! TGLineOp.clipEdge(-dx, x1 + limit, t) || ! TGLineOp.clipEdge(dx, limit - x1, t)
+           || ! TGLineOp.clipEdge(-dy, y1 + limit, t) || ! TGLineOp.clipEdge(dy, limit - y1, t) )
+         return;
+      float clipX1 = (float) (x1 + t[0] * dx);
+      float clipY1 = (float) (y1 + t[0] * dy);
+      x2 = (float) (x1 + t[1] * dx);
+      y2 = (float) (y1 + t[1] * dy);
+      x1 = clipX1;
+      y1 = clipY1;
+      int item = addItem( op, x1, y1, x2, y2, halfWidth, false );
+      // walk the rows of cells the stroke crosses, entering the
+      // run of cells it covers in each row
+      float minY = Math.min( y1, y2 ) - halfWidth;
+      float maxY = Math.max( y1, y2 ) + halfWidth;
+      int minRow = cell( minY );
+      int maxRow = cell( maxY );
+      int numCells = 0;
+      for ( int row=minRow; row <= maxRow; row++ )
+      {
+         float bandLo = Math.max( row * CELL_SIZE - halfWidth, Math.min(y1, y2) );
+         float bandHi = Math.min( (row+1) * CELL_SIZE + halfWidth, Math.max(y1, y2) );
+         float xLo, xHi;
+         if ( y1 == y2 || bandLo > bandHi )
+         {
+            // horizontal, or only the stroke's width reaches here
+            xLo = Math.min( x1, x2 );
+            xHi = Math.max( x1, x2 );
+            if ( bandLo > bandHi )
+            {
+               float endX = (Math.abs(bandLo - y1) < Math.abs(bandLo - y2)) ? x1 : x2;
+               xLo = xHi = endX;
+            }
+         }
+         else
+         {
+            float xa = x1 + (bandLo - y1) * (x2 - x1) / (y2 - y1);
+            float xb = x1 + (bandHi - y1) * (x2 - x1) / (y2 - y1);
+            xLo = Math.min( xa, xb );
+            xHi = Math.max( xa, xb );
+         }
+         int minCol = cell( xLo - halfWidth );
+         int maxCol = cell( xHi + halfWidth );
+         numCells += maxCol - minCol + 1;
+         if ( numCells > MAX_ITEM_CELLS )
+         {
+            // cells already entered only make it found twice, which
+            // nearest() ignores
+            addOverflow( item );
+            return;
+         }
+         for ( int col=minCol; col <= maxCol; col++ )
+            addEntry( col, row, item );
+      }
+
+   } // end addSegment()
+
+
+   private static int cell( float coord )
+   { return (int) Math.floor( coord / CELL_SIZE ); }
+
+
+   // return distance from (x,y) to the item, zero if it is on it
+   //
+   private float distance( int item, float x, float y )
+   {
+      if ( itemIsLabel[item] )
+      {
+         float dx = Math.max( Math.max(itemX1[item] - x, x - itemX2[item]), 0 );
+         float dy = Math.max( Math.max(itemY1[item] - y, y - itemY2[item]), 0 );
+         return (float) Math.sqrt( dx * dx + dy * dy );
+      }
+      float x1 = itemX1[ item ];
+      float y1 = itemY1[ item ];
+      float segDX = itemX2[ item ] - x1;
+      float segDY = itemY2[ item ] - y1;
+      float lenSq = segDX * segDX + segDY * segDY;
+      float t = 0.0F;
+      if ( lenSq > 0.0F )
+      {
+         t = ((x - x1) * segDX + (y - y1) * segDY) / lenSq;
+         if ( t < 0.0F )
+            t = 0.0F;
+         else if ( t > 1.0F )
+            t = 1.0F;
+      }
+      float dx = x - (x1 + t * segDX);
+      float dy = y - (y1 + t * segDY);
+      float dist = (float) Math.sqrt( dx * dx + dy * dy ) - itemHalfWidth[ item ];
+      return dist > 0.0F ? dist : 0.0F;
+
+   } // end distance()
+
+
+   private int findSlot( long key )
+   {
+      int mask = cellKey.length - 1;
+      long hash = key * 0x9E3779B97F4A7C15L;
+      int slot = (int) (hash >>> 40) & mask;
+      while ( cellKey[slot] != EMPTY && cellKey[slot] != key )
+         slot = (slot + 1) & mask;
+      return slot;
+
+   } // end findSlot()
+
+
+   private static float[] grow( float[] ary, int newSize )
+   {
+      float[] newAry = new float[ newSize ];
+      System.arraycopy( ary, 0, newAry, 0, ary.length );
+      return newAry;
+
+   } // end grow()
+
+
+   private void growTable()
+   {
+      long[] oldKey = cellKey;
+      int[] oldHead = cellHead;
+      cellKey = new long[ oldKey.length * 2 ];
+      cellHead = new int[ oldKey.length * 2 ];
+      java.util.Arrays.fill( cellKey, EMPTY );
+      for ( int i=0; i < oldKey.length; i++ )
+         if ( oldKey[i] != EMPTY )
+         {
+            int slot = findSlot( oldKey[i] );
+            cellKey[ slot ] = oldKey[ i ];
+            cellHead[ slot ] = oldHead[ i ];
+         }
+
+   } // end growTable()
+
+
+   // --------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // --------------------------------------------------------------
+
+   /*
+    * Enter an operation into the index.  Only lines, polylines and
+    * labels are indexed; anything else is ignored.
+    */
+   void add( TGGraphicsOp op )
+   {
+      if ( op instanceof TGLineOp )
+      {
+         TGLineOp line = (TGLineOp) op;
+         addSegment( op, line.getP1().xFloatValue(), line.getP1().yFloatValue(),
+                     line.getP2().xFloatValue(), line.getP2().yFloatValue(),
+                     line.getPenWidth() / 2.0F );
+      }
+      else if ( op instanceof TGPolylineOp )
+      {
+         // each segment is an item of its own, all of them
+         // answering with the polyline
+         TGPolylineOp polyline = (TGPolylineOp) op;
+         float halfWidth = polyline.getPenWidth() / 2.0F;
+         int numPoints = polyline.getNumPoints();
+         if ( numPoints == 1 )
+            addSegment( op, polyline.getX(0), polyline.getY(0),
+                        polyline.getX(0), polyline.getY(0), halfWidth );
+         for ( int i=1; i < numPoints; i++ )
+            addSegment( op, polyline.getX(i-1), polyline.getY(i-1),
+                        polyline.getX(i), polyline.getY(i), halfWidth );
+      }
+      else if ( op instanceof TGLabelOp )
+      {
+         TGLabelOp label = (TGLabelOp) op;
+         FontMetrics fm = component.getFontMetrics( label.getFont() );
+         float x = label.getPoint().xFloatValue();
+         float y = label.getPoint().yFloatValue();
+         float x2 = x + fm.stringWidth( label.getText() );
+         float y1 = y - fm.getMaxDescent();
+         float y2 = y + fm.getMaxAscent();
+         float limit = TGCanvas.CLIP_LIMIT;
+         if ( x > limit || x2 < -limit || y1 > limit || y2 < -limit )
+            return;
+         int item = addItem( op, x, y1, x2, y2, 0.0F, true );
+         int minCol = cell( Math.max(x, -limit) );
+         int maxCol = cell( Math.min(x2, limit) );
+         int minRow = cell( Math.max(y1, -limit) );
+         int maxRow = cell( Math.min(y2, limit) );
+         if ( (long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > MAX_ITEM_CELLS )
+         {
+            addOverflow( item );
+            return;
+         }
+         for ( int row=minRow; row <= maxRow; row++ )
+            for ( int col=minCol; col <= maxCol; col++ )
+               addEntry( col, row, item );
+      }
+
+   } // end add()
+
+
+   /*
+    * Forget everything.
+    */
+   void clear()
+   { allocate(); }
+
+
+   /*
+    * Return the line, polyline or label closest to TurtleSpace point (x,y),
+    * as long as it is no farther than tolerance from it, or null.
+    * For lines, distance is measured to the edge of the stroke.
+    * When two are equally close, the one drawn last wins; it is
+    * the one on top.
+    */
+   TGGraphicsOp nearest( float x, float y, float tolerance )
+   {
+      queryStamp++;
+      int bestItem = -1;
+      float bestDist = tolerance;
+      int minCol = cell( x - tolerance );
+      int maxCol = cell( x + tolerance );
+      int minRow = cell( y - tolerance );
+      int maxRow = cell( y + tolerance );
+      for ( int row=minRow; row <= maxRow; row++ )
+         for ( int col=minCol; col <= maxCol; col++ )
+         {
+            long key = ((long) col << 32) | (row & 0xffffffffL);
+            int slot = findSlot( key );
+            if ( cellKey[slot] == EMPTY )
+               continue;
+            for ( int entry=cellHead[slot]; entry >= 0; entry=entryNext[entry] )
+            {
+               int item = entryItem[ entry ];
+               if ( itemStamp[item] == queryStamp )
+                  continue;
+               itemStamp[ item ] = queryStamp;
+               float dist = distance( item, x, y );
+               if ( dist < bestDist || (dist == bestDist && item > bestItem) )
+               {
+                  bestDist = dist;
+                  bestItem = item;
+               }
+            }
+         }
+      for ( int i=0; i < numOverflow; i++ )
+      {
+         int item = overflowItems[ i ];
+         if ( itemStamp[item] == queryStamp )
+            continue;
+         float dist = distance( item, x, y );
+         if ( dist < bestDist || (dist == bestDist && item > bestItem) )
+         {
+            bestDist = dist;
+            bestItem = item;
+         }
+      }
+      return (bestItem < 0) ? null : itemOps[ bestItem ];
+
+   } // end nearest()
+
+
+   /*
+    * Return the number of items (line segments and labels) in the
+    * index.
+    */
+   int size()
+   { return numItems; }
+
+} // end class TGSpatialIndex
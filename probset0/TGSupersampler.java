@@ -0,0 +1,230 @@
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/*
+ * This class supersamples a TGCanvas' graphics (see
+ * TGCanvas.setSupersampling()): operations are rasterized into an
+ * image scale times as wide and high as graphicsImage, then each
+ * scale x scale block of it is averaged into one graphicsImage
+ * pixel, so lines and labels come out with smooth edges instead of
+ * jagged ones.
+ *
+ * Operations are scaled the way TGDisplayList.render() scales them
+ * for a view, through a scratch TGDisplayList, rather than drawn
+ * through a scaled Graphics: Java2D puts a scaled one pixel line on
+ * the boundary between two blocks, half in each, and a scaled
+ * rectangle on block boundaries, so lines and fills can't both
+ * come out right that way.  Operations it doesn't know how to
+ * scale are performed on graphicsImage as is and copied up.
+ *
+ * Only what was drawn since the last resolve() is averaged, so the
+ * cost each frame is proportional to what changed, not to the size
+ * of the image.
+ */
+
+class TGSupersampler
+{
+
+   // variables with class-wide scope
+   //
+   private int scale;
+   private int width, height;       // graphicsImage's
+   private int[] hiPixels;          // hiImage's, row after row
+   private int[] rowPixels;         // resolve()'s output, a row at a time
+   private BufferedImage hiImage;
+   private Color clearColor;        // color hiImage was last cleared to
+   private Rectangle pending;       // part of graphicsImage drawn in
+                                    // hiImage but not yet resolved
+   private TGDirtyTiles hiDirty;    // parts of hiImage drawn in since
+                                    // it was last cleared
+   private TGDisplayList scratch;   // scales operations
+
+
+   //
+   // constructor
+   //
+   // hiImage starts out black; may throw OutOfMemoryError
+   //
+   TGSupersampler( int width, int height, int scale )
+   {
+      this.width = width;
+      this.height = height;
+      this.scale = scale;
+      hiImage = new BufferedImage( width * scale, height * scale,
+                                   BufferedImage.TYPE_INT_RGB );
+      hiPixels = ((DataBufferInt) hiImage.getRaster().getDataBuffer()).getData();
+      rowPixels = new int[ width ];
+      hiDirty = new TGDirtyTiles( width * scale, height * scale );
+      scratch = new TGDisplayList();
+   }
+
+
+   // add rect, in graphicsImage pixels, to what is waiting to be
+   // resolved
+   //
+   private void addPending( Rectangle rect )
+   {
+      if ( rect == null )
+         return;
+      if ( pending == null )
+         pending = new Rectangle( rect );
+      else
+         pending.add( rect );
+      hiDirty.add( rect.x * scale, rect.y * scale, rect.width * scale,
+                   rect.height * scale );
+
+   } // end addPending()
+
+
+   // return hiRect, in hiImage pixels, as the graphicsImage pixels
+   // it touches
+   //
+   private Rectangle toImageRect( Rectangle hiRect )
+   {
+      if ( hiRect == null )
+         return null;
+      // rounding down, even left of or above graphicsImage
+      int x = (int) Math.floor( (double) hiRect.x / scale );
+      int y = (int) Math.floor( (double) hiRect.y / scale );
+      int right = (int) Math.ceil( (double) (hiRect.x + hiRect.width) / scale );
+      int bottom = (int) Math.ceil( (double) (hiRect.y + hiRect.height) / scale );
+      return new Rectangle( x, y, right - x, bottom - y );
+
+   } // end toImageRect()
+
+
+   // ------------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // ------------------------------------------------------------------
+
+   /*
+    * Clear the supersampled graphics to color, as little as
+    * possible.  Anything waiting to be resolved is dropped;
+    * graphicsImage is cleared separately.
+    */
+   void clear( Color color )
+   {
+      TGImageClearer.clearImage( hiImage, hiDirty, clearColor, color );
+      clearColor = color;
+      pending = null;
+      scratch.clear();
+
+   } // end clear()
+
+
+   /*
+    * Copy the rectangle rect of image (graphicsImage) up into the
+    * supersampled graphics, each pixel becoming a block of its color,
+    * e.g., after something was drawn in image directly.
+    */
+   void expand( BufferedImage image, Rectangle rect )
+   {
+      rect = rect.intersection( new Rectangle(0, 0, width, height) );
+      if ( rect.isEmpty() )
+         return;
+      int hiWidth = width * scale;
+      for ( int y=rect.y; y < rect.y + rect.height; y++ )
+      {
+         TGPalette.getRGB( image, rect.x, y, rect.width, 1, rowPixels, 0, width );
+         for ( int x=0; x < rect.width; x++ )
+         {
+            int rgb = rowPixels[ x ] & 0xffffff;
+            int hiX = (rect.x + x) * scale;
+            for ( int row=0; row < scale; row++ )
+            {
+               int idx = (y * scale + row) * hiWidth + hiX;
+               for ( int col=0; col < scale; col++ )
+                  hiPixels[ idx + col ] = rgb;
+            }
+         }
+      }
+      hiDirty.add( rect.x * scale, rect.y * scale, rect.width * scale,
+                   rect.height * scale );
+
+   } // end expand()
+
+
+   int getScale()
+   { return scale; }
+
+
+   /*
+    * Perform op, in the view that scales TurtleSpace by viewScale
+    * around (viewX,viewY), on the supersampled graphics.  image is
+    * graphicsImage; operations that can't be scaled are performed on
+    * it directly, unscaled whatever the view, the way
+    * TGDisplayList.decode() gives them back, and copied up.  Return
+    * the part of image that will change, or null if nothing will.
+    * Nothing shows up in image until resolve().
+    */
+   Rectangle render( TGGraphicsOp op, BufferedImage image, double viewScale,
+                     float viewX, float viewY )
+   {
+      if ( op instanceof TGLineOp || op instanceof TGFillOp
+           || op instanceof TGLabelOp || op instanceof TGPolylineOp )
+      {
+         int mark = scratch.mark();
+         scratch.add( op );
+         Rectangle rect = toImageRect( scratch.render(hiImage, viewScale * scale,
+                                                      viewX, viewY, mark,
+                                                      null) );
+         addPending( rect );
+         return rect;
+      }
+      // whatever is waiting has to be in image first
+      resolve( image );
+      Rectangle rect = op.doIt( image );
+      if ( rect != null )
+         expand( image, rect );
+      return rect;
+
+   } // end render()
+
+
+   /*
+    * Average what was drawn since the last resolve() down into
+    * image, graphicsImage.  Return the part of image changed, or
+    * null if there wasn't anything.
+    */
+   Rectangle resolve( BufferedImage image )
+   {
+      if ( pending == null )
+         return null;
+      Rectangle rect = pending.intersection( new Rectangle(0, 0, width, height) );
+      pending = null;
+      if ( scratch.size() > 0 )
+         scratch.clear();
+      if ( rect.isEmpty() )
+         return null;
+      int hiWidth = width * scale;
+      int count = scale * scale;
+      for ( int y=rect.y; y < rect.y + rect.height; y++ )
+      {
+         for ( int x=0; x < rect.width; x++ )
+         {
+            int red = 0, green = 0, blue = 0;
+            int hiX = (rect.x + x) * scale;
+            for ( int row=0; row < scale; row++ )
+            {
+               int idx = (y * scale + row) * hiWidth + hiX;
+               for ( int col=0; col < scale; col++ )
+               {
+                  int rgb = hiPixels[ idx + col ];
+                  red += (rgb >> 16) & 0xff;
+                  green += (rgb >> 8) & 0xff;
+                  blue += rgb & 0xff;
+               }
+            }
+            rowPixels[ x ] = ((red + count/2) / count) << 16
+                             | ((green + count/2) / count) << 8
+                             | ((blue + count/2) / count);
+         }
+         image.getRaster().setDataElements( rect.x, y, rect.width, 1, rowPixels );
+      }
+      return rect;
+
+   } // end resolve()
+
+} // end class TGSupersampler
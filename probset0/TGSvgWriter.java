@@ -0,0 +1,493 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * This class writes the graphics drawn on a TGCanvas to a file as
+ * Scalable Vector Graphics (SVG), for print-quality output.
+ *
+ * A TGSvgWriter is a TGGraphicsOpHandler; while it is registered
+ * with the canvas, each operation is turned into SVG text as it is
+ * added.  The text goes through a fixed-size direct ByteBuffer to a
+ * FileChannel.  Besides the path currently being built, the only
+ * other state kept is a canvas-sized shadow image every operation
+ * is also performed on (see FILLs below), so a million-line drawing
+ * is exported in constant space.
+ *
+ * Lines drawn one after another with the same color and pen width,
+ * each starting where the last one ended (what a turtle leaves
+ * behind as it moves with its pen down), are merged into a single
+ * <path> element, up to MAX_PATH_POINTS points long.
+ *
+ * A FILL is a flood fill of whatever pixels are around a point,
+ * which has no vector equivalent.  It is performed on the shadow
+ * image and the pixels it changed are traced, a row at a time, into
+ * a <path> of one-pixel-high rectangles in the fill's color.  The
+ * shadow is only as big as the canvas, so a fill which would reach
+ * around the edge of the canvas in the canvas' larger graphics
+ * image stops at its edge here.  A clean() or setbg() is written as
+ * a rectangle of the background color covering everything before it.
+ *
+ * A typical use:
+ *
+ *   TGSvgWriter svg = new TGSvgWriter( tgc, "drawing.svg" );
+ *   ... draw ...
+ *   svg.close();
+ */
+
+public class TGSvgWriter implements TGGraphicsOpHandler
+{
+
+   // constants
+   //
+   private static final int BUFFER_SIZE = 64 * 1024;
+   private static final int MAX_PATH_POINTS = 1000;
+
+
+   // variables with class-wide scope
+   //
+   private int canvasHeight;
+   private int canvasWidth;
+   private int pathPoints;        // points in path, 0 when there is none
+   private int pathWidth;         // pen width of lines in path
+   private float pathX, pathY;    // where path currently ends
+   private ByteBuffer buffer;
+   private Color pathColor;       // color of lines in path
+   private FileChannel channel;
+   private FileOutputStream fileStream;
+   private int[] shadowPixels;    // shadow's pixels, before a fill
+   private IOException ioErr;     // first write error, reported by close()
+   private StringBuilder path;    // "d" attribute of the path being built
+   private StringBuilder text;    // scratch for building elements
+   private BufferedImage shadow;  // what the canvas shows, for fills
+   private TGCanvas tgc;
+
+
+   //
+   // constructor
+   //
+   public TGSvgWriter( TGCanvas tgc, String fileName ) throws IOException
+   {
+      this.tgc = tgc;
+      canvasWidth = tgc.canvasWidth();
+      canvasHeight = tgc.canvasHeight();
+      shadow = new BufferedImage( canvasWidth, canvasHeight,
+                                  BufferedImage.TYPE_INT_RGB );
+      shadowPixels = new int[ canvasWidth * canvasHeight ];
+      buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+      path = new StringBuilder();
+      text = new StringBuilder();
+      fileStream = new FileOutputStream( fileName );
+      channel = fileStream.getChannel();
+      text.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+      text.append( "<svg xmlns=\"http://www.w3.org/2000/svg\"" );
+      text.append( " width=\"" ).append( canvasWidth );
+      text.append( "\" height=\"" ).append( canvasHeight );
+      text.append( "\" viewBox=\"" ).append( -(canvasWidth / 2) );
+      text.append( ' ' ).append( -(canvasHeight / 2) );
+      text.append( ' ' ).append( canvasWidth );
+      text.append( ' ' ).append( canvasHeight ).append( "\">\n" );
+      write( text );
+      tgc.addGraphOpHandler( this );  // graphicsCleared() is called with
+                                      // the current background color
+   }
+
+
+   // append a TurtleSpace x-coordinate or distance, rounded to
+   // hundredths of a pixel and without trailing zeros
+   //
+   private static void appendNum( StringBuilder sb, float num )
+   {
+      long hundredths = Math.round( num * 100.0 );
+      if ( hundredths < 0 )
+      {
+         sb.append( '-' );
+         hundredths = -hundredths;
+      }
+      sb.append( hundredths / 100 );
+      int frac = (int) (hundredths % 100);
+      if ( frac != 0 )
+      {
+         sb.append( '.' ).append( frac / 10 );
+         if ( frac % 10 != 0 )
+            sb.append( frac % 10 );
+      }
+
+   } // end appendNum()
+
+
+   // append a point; SVG's y-axis points down, TurtleSpace's up
+   //
+   private static void appendPoint( StringBuilder sb, float x, float y )
+   {
+      appendNum( sb, x );
+      sb.append( ',' );
+      appendNum( sb, -y );
+
+   } // end appendPoint()
+
+
+   private static void appendRGB( StringBuilder sb, Color color )
+   {
+      String hex = Integer.toHexString( color.getRGB() & 0xffffff );
+      sb.append( '#' );
+      for ( int i=hex.length(); i < 6; i++ )
+         sb.append( '0' );
+      sb.append( hex );
+
+   } // end appendRGB()
+
+
+   // append str with the characters special to XML escaped and the
+   // ones XML does not allow at all, e.g., control characters and
+   // unpaired surrogates, left out
+   //
+   private static void appendText( StringBuilder sb, String str )
+   {
+      for ( int i=0; i < str.length(); )
+      {
+         int cp = str.codePointAt( i );
+         i += Character.charCount( cp );
+         switch ( cp )
+         {
+            case '<':  sb.append( "&lt;" );    break;
+            case '>':  sb.append( "&gt;" );    break;
+            case '&':  sb.append( "&amp;" );   break;
+            case '"':  sb.append( "&quot;" );  break;
+            case '\t': case '\n': case '\r':
+               sb.append( (char) cp );
+               break;
+            default:
+               if ( cp < 0x20 || cp == 0xFFFE || cp == 0xFFFF
+                    || (cp >= 0xD800 && cp <= 0xDFFF) )
+                  break;
+               sb.appendCodePoint( cp );
+         }
+      }
+
+   } // end appendText()
+
+
+   // write out the path being built, if there is one
+   //
+   private void endPath()
+   {
+      if ( pathPoints == 0 )
+         return;
+      text.append( "<path fill=\"none\" stroke=\"" );
+      appendRGB( text, pathColor );
+      text.append( "\" stroke-width=\"" ).append( pathWidth );
+      text.append( "\" d=\"" ).append( path ).append( "\"/>\n" );
+      write( text );
+      path.setLength( 0 );
+      pathPoints = 0;
+
+   } // end endPath()
+
+
+   private void writeBackground( Color background )
+   {
+      text.append( "<rect x=\"" ).append( -(canvasWidth / 2) );
+      text.append( "\" y=\"" ).append( -(canvasHeight / 2) );
+      text.append( "\" width=\"100%\" height=\"100%\" fill=\"" );
+      appendRGB( text, background );
+      text.append( "\"/>\n" );
+      write( text );
+
+   } // end writeBackground()
+
+
+   // perform fill on the shadow image and trace the pixels it
+   // changed, each run of them in a row becoming a rectangle in one
+   // path.  pixel (x,y) of the shadow covers the square centered on
+   // TurtleSpace point (x - canvasWidth/2, canvasHeight/2 - y)
+   //
+   private void writeFill( TGFillOp fill )
+   {
+      int[] pixels = ((DataBufferInt) shadow.getRaster().getDataBuffer()).getData();
+      System.arraycopy( pixels, 0, shadowPixels, 0, pixels.length );
+      Rectangle r = fill.doIt( shadow );
+      if ( r == null )
+         return;
+      int newRGB = fill.getColor().getRGB() & 0xffffff;
+      float left = -(canvasWidth / 2) - 0.5F;
+      float top = -(canvasHeight / 2) - 0.5F;
+      text.append( "<path fill=\"" );
+      appendRGB( text, fill.getColor() );
+      text.append( "\" shape-rendering=\"crispEdges\" d=\"" );
+      for ( int y=r.y; y < r.y + r.height; y++ )
+      {
+         int rowStart = y * canvasWidth;
+         for ( int x=r.x; x < r.x + r.width; )
+         {
+            if ( ! filled(pixels, rowStart + x, newRGB) )
+            {
+               x++;
+               continue;
+            }
+            int runStart = x;
+            while ( x < r.x + r.width && filled(pixels, rowStart + x, newRGB) )
+               x++;
+            text.append( 'M' );
+            appendNum( text, left + runStart );
+            text.append( ',' );
+            appendNum( text, top + y );
+            text.append( 'h' ).append( x - runStart ).append( "v1h" );
+            text.append( runStart - x ).append( 'z' );
+            if ( text.length() >= BUFFER_SIZE )
+               write( text );
+         }
+      }
+      text.append( "\"/>\n" );
+      write( text );
+
+   } // end writeFill()
+
+
+   // writeFill(): did the fill change pixels[i] to newRGB?
+   //
+   private boolean filled( int[] pixels, int i, int newRGB )
+   {
+      return (pixels[i] & 0xffffff) == newRGB
+             && (shadowPixels[i] & 0xffffff) != newRGB;
+
+   } // end filled()
+
+
+   private void writeLabel( TGLabelOp label )
+   {
+      Font font = label.getFont();
+      text.append( "<text x=\"" );
+      appendNum( text, label.getPoint().xFloatValue() );
+      text.append( "\" y=\"" );
+      appendNum( text, -label.getPoint().yFloatValue() );
+      text.append( "\" fill=\"" );
+      appendRGB( text, label.getColor() );
+      text.append( "\" font-family=\"" );
+      appendText( text, font.getFamily() );
+      text.append( "\" font-size=\"" ).append( font.getSize() ).append( '"' );
+      if ( font.isBold() )
+         text.append( " font-weight=\"bold\"" );
+      if ( font.isItalic() )
+         text.append( " font-style=\"italic\"" );
+      text.append( " xml:space=\"preserve\">" );
+      appendText( text, label.getText() );
+      text.append( "</text>\n" );
+      write( text );
+
+   } // end writeLabel()
+
+
+   private void writeLine( TGLineOp line )
+   {
+      // TGLineOp orders its end points left to right, so the turtle
+      // may have moved from either one to the other
+      float x1 = line.getP1().xFloatValue();
+      float y1 = line.getP1().yFloatValue();
+      float x2 = line.getP2().xFloatValue();
+      float y2 = line.getP2().yFloatValue();
+      if ( pathPoints > 0 && pathPoints < MAX_PATH_POINTS
+           && line.getPenWidth() == pathWidth
+           && line.getColor().equals(pathColor) )
+      {
+         if ( x1 == pathX && y1 == pathY )
+         {
+            appendLineTo( x2, y2 );
+            return;
+         }
+         if ( x2 == pathX && y2 == pathY )
+         {
+            appendLineTo( x1, y1 );
+            return;
+         }
+      }
+      endPath();
+      pathColor = line.getColor();
+      pathWidth = line.getPenWidth();
+      path.append( 'M' );
+      appendPoint( path, x1, y1 );
+      pathX = x1;
+      pathY = y1;
+      pathPoints = 1;
+      appendLineTo( x2, y2 );
+
+   } // end writeLine()
+
+
+   private void writePolyline( TGPolylineOp polyline )
+   {
+      // a stroke drawn with the mouse comes in pieces, each starting
+      // where the one before ended; keep them in one path
+      int numPoints = polyline.getNumPoints();
+      if ( pathPoints == 0 || pathPoints + numPoints > MAX_PATH_POINTS
+           || polyline.getPenWidth() != pathWidth
+           || ! polyline.getColor().equals(pathColor)
+           || polyline.getX(0) != pathX || polyline.getY(0) != pathY )
+      {
+         endPath();
+         pathColor = polyline.getColor();
+         pathWidth = polyline.getPenWidth();
+         path.append( 'M' );
+         appendPoint( path, polyline.getX(0), polyline.getY(0) );
+         pathX = polyline.getX( 0 );
+         pathY = polyline.getY( 0 );
+         pathPoints = 1;
+         if ( numPoints == 1 )
+            appendLineTo( pathX, pathY );     // a dot
+      }
+      for ( int i=1; i < numPoints; i++ )
+         appendLineTo( polyline.getX(i), polyline.getY(i) );
+
+   } // end writePolyline()
+
+
+   private void appendLineTo( float x, float y )
+   {
+      path.append( 'L' );
+      appendPoint( path, x, y );
+      pathX = x;
+      pathY = y;
+      pathPoints++;
+
+   } // end appendLineTo()
+
+
+   // copy the characters in sb into the buffer, writing it to the
+   // channel whenever it fills up, and empty sb.  Characters beyond
+   // ASCII, which only labels can hold, are written as numeric
+   // character references, one per code point, so the file is plain
+   // ASCII
+   //
+   private void write( StringBuilder sb )
+   {
+      if ( ioErr != null )
+      {
+         sb.setLength( 0 );
+         return;
+      }
+      try
+      {
+         for ( int i=0; i < sb.length(); )
+         {
+            int cp = Character.codePointAt( sb, i );
+            i += Character.charCount( cp );
+            if ( cp >= 128 )
+            {
+               String ref = "&#" + cp + ";";
+               for ( int j=0; j < ref.length(); j++ )
+                  putByte( (byte) ref.charAt(j) );
+            }
+            else
+               putByte( (byte) cp );
+         }
+      }
+      catch ( IOException ioe )
+      {
+         ioErr = ioe;
+         System.err.println( "TGSvgWriter: " + ioe );
+      }
+      sb.setLength( 0 );
+
+   } // end write()
+
+
+   private void putByte( byte b ) throws IOException
+   {
+      if ( ! buffer.hasRemaining() )
+         flushBuffer();
+      buffer.put( b );
+
+   } // end putByte()
+
+
+   private void flushBuffer() throws IOException
+   {
+      buffer.flip();
+      while ( buffer.hasRemaining() )
+         channel.write( buffer );
+      buffer.clear();
+
+   } // end flushBuffer()
+
+
+   // --------------------------------------------------------------
+   // Methods available outside this class, sorted alphabetically
+   // --------------------------------------------------------------
+
+   /**
+    * Stop watching the canvas, finish the SVG document and close
+    * the file.  Any error writing the file, now or earlier, is
+    * thrown.
+    */
+   public void close() throws IOException
+   {
+      tgc.removeGraphOpHandler( this );
+      synchronized ( this )
+      {
+         if ( channel == null )
+            return;
+         endPath();
+         text.append( "</svg>\n" );
+         write( text );
+         try
+         {
+            if ( ioErr == null )
+               flushBuffer();
+         }
+         finally
+         {
+            channel = null;
+            shadow = null;
+            shadowPixels = null;
+            fileStream.close();
+         }
+         if ( ioErr != null )
+            throw ioErr;
+      }
+
+   } // end close()
+
+
+   public synchronized void graphicsCleared( Color background )
+   {
+      if ( channel == null )
+         return;
+      endPath();
+      writeBackground( background );
+      Graphics g = shadow.getGraphics();
+      g.setColor( background );
+      g.fillRect( 0, 0, canvasWidth, canvasHeight );
+      g.dispose();
+
+   } // end graphicsCleared()
+
+
+   public synchronized void graphicsOpAdded( TGGraphicsOp op )
+   {
+      if ( channel == null )
+         return;
+      if ( ! (op instanceof TGFillOp) )
+         op.doIt( shadow );
+      if ( op instanceof TGLineOp )
+         writeLine( (TGLineOp) op );
+      else if ( op instanceof TGPolylineOp )
+         writePolyline( (TGPolylineOp) op );
+      else
+      {
+         endPath();
+         if ( op instanceof TGLabelOp )
+            writeLabel( (TGLabelOp) op );
+         else if ( op instanceof TGFillOp )
+            writeFill( (TGFillOp) op );
+      }
+
+   } // end graphicsOpAdded()
+
+} // end class TGSvgWriter
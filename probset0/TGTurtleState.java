@@ -0,0 +1,63 @@
+import java.awt.Color;
+
+/*
+ * TGTurtleState is a snapshot of the parts of a Turtle's state
+ * that are changed by moving it around: its position, heading,
+ * and pen.  Turtle.getState() hands these out and
+ * Turtle.setState() puts the turtle back the way it was, e.g.,
+ * for the push/pop ("[" and "]") commands of an L-system.
+ *
+ * A TGTurtleState is immutable.
+ */
+
+public class TGTurtleState
+{
+
+   private boolean penDown;
+   private Color penColor;
+   private float heading;      // radians in conventional/AWT manner
+   private int penSize;
+   private TGPoint point;
+
+
+   //
+   // constructor
+   //
+   TGTurtleState( TGPoint point, float heading, boolean penDown,
+                  Color penColor, int penSize )
+   {
+      this.point = point;
+      this.heading = heading;
+      this.penDown = penDown;
+      this.penColor = penColor;
+      this.penSize = penSize;
+   }
+
+
+   public float getHeading()
+   { return heading; }
+
+
+   public Color getPenColor()
+   { return penColor; }
+
+
+   public int getPenSize()
+   { return penSize; }
+
+
+   public TGPoint getPoint()
+   { return point; }
+
+
+   public boolean isPenDown()
+   { return penDown; }
+
+
+   public String toString()
+   {
+      return "TGTurtleState[point="+point+",heading="+heading+",penDown="
+             +penDown+",color="+penColor+",size="+penSize+"]";
+   }
+
+} // end class TGTurtleState
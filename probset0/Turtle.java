@@ -68,6 +68,10 @@ public class Turtle extends Component
       COLORS[ GRAY ] = Color.lightGray;
    };
 
+   private static final int WINDOW = 0;    // what happens at the edge of
+   private static final int WRAP = 1;      // the canvas, see window(),
+   private static final int FENCE = 2;     // wrap() and fence()
+
    private static final int INITIAL_PEN_SIZE = 2;
    private static final int INITIAL_FONT_SIZE = 14;
    private static final int INITIAL_FONT_STYLE = Font.PLAIN;
@@ -81,6 +85,9 @@ public class Turtle extends Component
                              );
    } 
    private static final Color INITIAL_FOREGROUND = Color.black;
+   private static final int NUM_LABEL_FONTS = 128;
+   private static final Font[] LABEL_FONTS =    // by size, made as
+      new Font[ NUM_LABEL_FONTS ];                 // they're needed
 
 
    // variables with class-wide scope
@@ -89,9 +96,15 @@ public class Turtle extends Component
    private boolean showTurtle;
    private Color curColor;
    private float curHeading;      // radians in conventional/AWT manner
+   private int canvasSlot = -1;   // index in tgc's registry of shown
+                                  // turtles, -1 when not in it
+   private int boundaryMode;      // WINDOW, WRAP or FENCE
    private Font curFont = INITIAL_FONT;
    private Image turtleImage;
+   private int[] turtleImagePixels; // what turtleImageProducer produces
    private int curPenSize;
+   private int curShapeNum;       // last shape given to setshape()
+   private int[] curShapeParams;  // and its sizing hints, null if none
    private MemoryImageSource turtleImageProducer;
    private TGCanvas tgc;          // where this turtle draws
    private TGPoint curPoint;      // current X,Y location of the turtle
@@ -111,6 +124,7 @@ public class Turtle extends Component
       curHeading = (float) (Math.PI / 2.0);
       curTurtlePixels = new TurtleTurtle( curColor, curHeading );
       penDown = true;
+      boundaryMode = WINDOW;
       tgc.addTurtle( this );
       showTurtle = true;
 
@@ -155,6 +169,111 @@ public class Turtle extends Component
    } // end getRadiansTwds()
 
 
+   // return where a move from curPoint to p2 stops in FENCE mode:
+   // p2, or the point where the move reaches the edge of the canvas
+   //
+   private TGPoint fencePoint( TGPoint p2 )
+   {
+      int width = tgc.getWidth();
+      int height = tgc.getHeight();
+      float left = -(width / 2);
+      float right = left + width - 1;
+      float top = height / 2;
+      float bottom = top - height + 1;
+      double x1 = curPoint.xFloatValue();
+      double y1 = curPoint.yFloatValue();
+      double dx = p2.xFloatValue() - x1;
+      double dy = p2.yFloatValue() - y1;
+      double t = 1.0;
+      if ( dx > 0.0 )
+         t = Math.min( t, (right - x1) / dx );
+      else if ( dx < 0.0 )
+         t = Math.min( t, (left - x1) / dx );
+      if ( dy > 0.0 )
+         t = Math.min( t, (top - y1) / dy );
+      else if ( dy < 0.0 )
+         t = Math.min( t, (bottom - y1) / dy );
+      if ( t >= 1.0 )
+         return p2;
+      t = Math.max( 0.0, t );
+      return new TGPoint( x1 + t * dx, y1 + t * dy );
+
+   } // end fencePoint()
+
+
+   // return the TGCanvas this turtle draws on
+   //
+   TGCanvas getCanvas()
+   { return tgc; }
+
+
+   // return true if the turtle goes off the edges of the canvas,
+   // i.e., it is neither wrapped nor fenced
+   //
+   boolean isWindowed()
+   { return boundaryMode == WINDOW; }
+
+
+   // move the turtle to p2, along heading, drawing a line if the pen
+   // is down, and stopping at or wrapping around the edges of the
+   // canvas when fenced or wrapped
+   //
+   private void moveTo( TGPoint p2, double heading )
+   {
+      if ( boundaryMode == FENCE )
+         p2 = fencePoint( p2 );
+      if ( boundaryMode == WRAP )
+      {
+         // the canvas may have been resized, leaving the turtle off it
+         TGPoint start = wrapPoint( curPoint );
+         if ( start.xFloatValue() != curPoint.xFloatValue()
+              || start.yFloatValue() != curPoint.yFloatValue() )
+         {
+            float dx = start.xFloatValue() - curPoint.xFloatValue();
+            float dy = start.yFloatValue() - curPoint.yFloatValue();
+            p2 = new TGPoint( p2.xFloatValue() + dx, p2.yFloatValue() + dy );
+            curPoint = start;
+         }
+         if ( penDown )
+         {
+            int width = tgc.getWidth();
+            int height = tgc.getHeight();
+            TGLineOp[] pieces = TGLineOp.wrap( curPoint, p2, heading, curColor,
+                                               curPenSize, wrapLeft(width),
+                                               wrapBottom(height), width, height );
+            for ( int i=0; i < pieces.length; i++ )
+               tgc.addGraphOp( pieces[i] );
+         }
+         p2 = wrapPoint( p2 );
+      }
+      else if ( penDown )
+         tgc.drawLine( curPoint, p2, heading, curPenSize, curColor );
+      curPoint = p2;
+
+   } // end moveTo()
+
+
+   // return the label font of size, the same Font each time for the
+   // common sizes, so labels don't keep making new ones (and looking
+   // up their glyphs and metrics all over again)
+   //
+   private static Font labelFont( int size )
+   {
+      if ( size == INITIAL_FONT_SIZE )
+         return INITIAL_FONT;
+      if ( size < 0 || size >= NUM_LABEL_FONTS )
+         return new Font( INITIAL_FONT_NAME, INITIAL_FONT_STYLE, size );
+      synchronized ( LABEL_FONTS )
+      {
+         if ( LABEL_FONTS[size] == null )
+            LABEL_FONTS[ size ] = new Font( INITIAL_FONT_NAME, INITIAL_FONT_STYLE,
+                                            size );
+         return LABEL_FONTS[ size ];
+      }
+
+   } // end labelFont()
+
+
    private int rgbToPencolor( int rgbValue )
    {
       rgbValue &= 0xFFFFFF;
@@ -166,6 +285,35 @@ public class Turtle extends Component
    } // end rgbToPencolor()
 
 
+   // in WRAP mode the turtle is kept in the rectangle wrapLeft() to
+   // wrapLeft() + width across and wrapBottom() to wrapBottom() +
+   // height up: the canvas' pixels, out to their outer edges
+   //
+   private static float wrapBottom( int height )
+   { return height / 2 - height + 0.5F; }
+
+   private static float wrapLeft( int width )
+   { return -(width / 2) - 0.5F; }
+
+
+   // return p moved a whole number of canvas widths and heights so
+   // that it is on the canvas
+   //
+   private TGPoint wrapPoint( TGPoint p )
+   {
+      int width = tgc.getWidth();
+      int height = tgc.getHeight();
+      double left = wrapLeft( width );
+      double bottom = wrapBottom( height );
+      double x = p.xFloatValue();
+      double y = p.yFloatValue();
+      x -= width * Math.floor( (x - left) / width );
+      y -= height * Math.floor( (y - bottom) / height );
+      return new TGPoint( x, y );
+
+   } // end wrapPoint()
+
+
    // -----------------------------------------------------------------
    // Methods available outside the Turtle class, sorted alphabetically
    // -----------------------------------------------------------------
@@ -197,19 +345,7 @@ public class Turtle extends Component
    public void bk( float steps ) { bk( (double) steps ); }
    public void bk( int steps ) { bk( (double) steps ); }
    public void bk( double steps )
-   {
-      if ( penDown )
-         curPoint = tgc.drawLine( curPoint,
-                                  -steps,
-                                  (double) curHeading,
-                                  curPenSize,
-                                  curColor);
-      else
-         curPoint = curPoint.otherEndPoint((double) curHeading, -steps);
-      if ( penDown  || showTurtle )
-         tgc.repaint();
-
-   } // end bk()
+   { fd( -steps ); }
 
 
    /**
@@ -255,7 +391,18 @@ public class Turtle extends Component
    public void fd( int steps ) { fd( (double) steps ); }
    public void fd( double steps )
    {
-      if ( penDown )
+      if ( boundaryMode != WINDOW )
+      {
+         double heading = curHeading;
+         if ( steps < 0 )
+         {
+            heading -= Math.PI;
+            if ( heading < 0 )
+               heading += (2 * Math.PI);
+         }
+         moveTo( curPoint.otherEndPoint((double) curHeading, steps), heading );
+      }
+      else if ( penDown )
          curPoint = tgc.drawLine( curPoint,
                                   steps,
                                   (double) curHeading,
@@ -268,6 +415,33 @@ public class Turtle extends Component
 
    } // end fd()
 
+
+   /**
+    * Keep the turtle on the canvas: a move that would take it
+    * off an edge stops at the edge.  A turtle that is off the
+    * canvas is brought back to the nearest point on it.
+    *
+    * @see #window
+    * @see #wrap
+    */
+   public void fence()
+   {
+      boundaryMode = FENCE;
+      int width = tgc.getWidth();
+      int height = tgc.getHeight();
+      float left = -(width / 2);
+      float top = height / 2;
+      float x = Math.max( left, Math.min(left + width - 1, curPoint.xFloatValue()) );
+      float y = Math.max( top - height + 1, Math.min(top, curPoint.yFloatValue()) );
+      if ( x != curPoint.xFloatValue() || y != curPoint.yFloatValue() )
+      {
+         curPoint = new TGPoint( x, y );
+         if ( showTurtle )
+            tgc.repaint();
+      }
+
+   } // end fence()
+
    /**
     * Move the turtle forward along its current heading.  If the
     * pen is currently in the DOWN position, a line is drawn.
@@ -283,6 +457,12 @@ public class Turtle extends Component
    public void forward( int steps ) { fd( (double) steps ); }
 
 
+   // where tgc keeps this turtle in its registry, see TGCanvas.addTurtle()
+   //
+   int getCanvasSlot()
+   { return canvasSlot; }
+
+
    /**
     * Return the turtle's Image
     */
@@ -295,13 +475,18 @@ public class Turtle extends Component
          // create turtleImage to match the array of pixels
          // AWT Graphics only supports painting of Image objects, no kind
          // of BitBlt for arrays of pixel values (?who know's why?)
-         if ( turtleImageProducer == null )
+         // turtlePixels are shared, a new array for each heading
+         // and color, so the producer goes with the array
+         if ( turtleImageProducer == null || turtleImagePixels != turtlePixels )
+         {
+            turtleImagePixels = turtlePixels;
             turtleImageProducer = new MemoryImageSource( turtleSideSize,
                                                          turtleSideSize,
                                                          turtlePixels,
                                                          0,
                                                          turtleSideSize
                                                        );
+         }
          turtleImage = createImage( turtleImageProducer );
       }
       return turtleImage;
@@ -318,6 +503,42 @@ public class Turtle extends Component
    { return curTurtlePixels.getSideSize(); }
 
 
+   // the pixels getImage() is made from, getImageSideSize() squared
+   // of them.  not a copy; don't change them
+   //
+   int[] getImagePixels()
+   { return curTurtlePixels.getPixels(); }
+
+
+   // the height of the text label() paints, see setlabelheight()
+   //
+   int getLabelHeight()
+   { return curFont.getSize(); }
+
+
+   // the shape, and its sizing hints, last given to setshape()
+   //
+   int getShapeNum()
+   { return curShapeNum; }
+
+   int[] getShapeParams()
+   { return (curShapeParams == null) ? null : curShapeParams.clone(); }
+
+
+   /**
+    * Return a snapshot of the turtle's position, heading and pen,
+    * suitable for handing back to setState() later.
+    *
+    * @see #setState
+    */
+   public TGTurtleState getState()
+   {
+      return new TGTurtleState( curPoint, curHeading, penDown,
+                                curColor, curPenSize );
+
+   } // end getState()
+
+
    /**
     * Return the width of the pen the turtle is currently
     * writing with
@@ -419,6 +640,12 @@ public class Turtle extends Component
    public boolean ispendown() { return penDown; }
 
 
+   // true unless the turtle has been hidden with ht()
+   //
+   boolean isShown()
+   { return showTurtle; }
+
+
    /**
     * Paints a String of characters on the display.
     * The text is painted in the current pen's color,
@@ -606,6 +833,10 @@ public class Turtle extends Component
    } // end rt()
 
 
+   void setCanvasSlot( int slot )
+   { canvasSlot = slot; }
+
+
    /**
     * Set the size of the text displayed in the graphics area.
     * @see #label
@@ -613,7 +844,7 @@ public class Turtle extends Component
    public void setlabelheight( int size )
    {
       if ( curFont.getSize() != size )
-         curFont = new Font(INITIAL_FONT_NAME, INITIAL_FONT_STYLE, size);
+         curFont = labelFont( size );
 
    } // end setlabelheight()
 
@@ -816,6 +1047,8 @@ public class Turtle extends Component
       }
       if ( newTurtlePixels != null )
       {
+         curShapeNum = shapeNum;
+         curShapeParams = (params == null) ? null : params.clone();
          curTurtlePixels = newTurtlePixels;
          turtleImage = null;
          turtleImageProducer = null;
@@ -825,6 +1058,33 @@ public class Turtle extends Component
    } // end setshape()
 
 
+   /**
+    * Put the turtle back into a state previously obtained with
+    * getState().  The turtle jumps to the saved position without
+    * drawing, regardless of the pen.
+    *
+    * @param state a TGTurtleState returned by getState()
+    * @see #getState
+    */
+   public void setState( TGTurtleState state )
+   {
+      curPoint = state.getPoint();
+      curHeading = state.getHeading();
+      penDown = state.isPenDown();
+      curPenSize = state.getPenSize();
+      curColor = state.getPenColor();
+      if ( showTurtle )
+      {
+         if ( curTurtlePixels.setTurtleColor(curColor) )
+            turtleImage = null;
+         if ( curTurtlePixels.setTurtleHeading(curHeading) )
+            turtleImage = null;
+         tgc.repaint();
+      }
+
+   } // end setState()
+
+
    /**
     * Move the turtle to an absolute display position.
     *
@@ -844,9 +1104,7 @@ public class Turtle extends Component
       double heading = 0;
       if ( newX < curPoint.xFloatValue() )
          heading += Math.PI;
-      if ( penDown )
-         tgc.drawLine( curPoint, p2, heading, curPenSize, curColor );
-      curPoint = p2;
+      moveTo( p2, heading );
       if ( penDown  || showTurtle )
          tgc.repaint();
 
@@ -884,12 +1142,7 @@ public class Turtle extends Component
     */
    public void setxy( TGPoint newPt )
    {
-      if ( penDown )
-      {
-         double heading = getRadiansTwds( curPoint, newPt );
-         tgc.drawLine( curPoint, newPt, heading, curPenSize, curColor );
-      }
-      curPoint = newPt;
+      moveTo( newPt, getRadiansTwds(curPoint, newPt) );
       if ( penDown  || showTurtle )
          tgc.repaint();
 
@@ -915,9 +1168,7 @@ public class Turtle extends Component
       double heading = Math.PI/2.0;
       if ( newY < curPoint.yFloatValue() )
          heading += Math.PI;
-      if ( penDown )
-         tgc.drawLine( curPoint, p2, heading, curPenSize, curColor );
-      curPoint = p2;
+      moveTo( p2, heading );
       if ( penDown  || showTurtle )
          tgc.repaint();
 
@@ -963,6 +1214,43 @@ public class Turtle extends Component
    } // end st()
 
 
+   /**
+    * Let the turtle move off the edges of the canvas, into
+    * TurtleSpace that isn't displayed.  This is what it does
+    * until wrap() or fence() is invoked.
+    *
+    * @see #fence
+    * @see #wrap
+    */
+   public void window()
+   { boundaryMode = WINDOW; }
+
+
+   /**
+    * Make the canvas wrap around: a turtle moving off one edge
+    * comes back on at the opposite edge, carrying on in the same
+    * direction, and a line it draws is drawn in pieces, one each
+    * time it crosses an edge.  A turtle that is off the canvas
+    * is brought back on the same way.
+    *
+    * @see #fence
+    * @see #window
+    */
+   public void wrap()
+   {
+      boundaryMode = WRAP;
+      TGPoint p = wrapPoint( curPoint );
+      if ( p.xFloatValue() != curPoint.xFloatValue()
+           || p.yFloatValue() != curPoint.yFloatValue() )
+      {
+         curPoint = p;
+         if ( showTurtle )
+            tgc.repaint();
+      }
+
+   } // end wrap()
+
+
    /**
     * Return the Turtle's X-coordinate 
     * @see #setxy
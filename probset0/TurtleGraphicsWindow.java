@@ -137,6 +137,16 @@ public class TurtleGraphicsWindow extends Frame
    public void fill() { turtle.fill(); }
 
 
+   /**
+    * Keep the turtle on the canvas: a move that would take it
+    * off an edge stops at the edge.
+    *
+    * @see #window
+    * @see #wrap
+    */
+   public void fence() { turtle.fence(); }
+
+
   /**
    * Move the turtle forward along its current heading.  If the
    * pen is currently in the DOWN position, a line is drawn.
@@ -496,6 +506,25 @@ public class TurtleGraphicsWindow extends Frame
   public void setpensize( int width ) { turtle.setpensize( width ); }
 
 
+  /**
+   * Let the turtle move off the edges of the canvas, into
+   * TurtleSpace that isn't displayed, as it does to begin with.
+   *
+   * @see #fence
+   * @see #wrap
+   */
+  public void window() { turtle.window(); }
+
+  /**
+   * Make the canvas wrap around: a turtle moving off one edge
+   * comes back on at the opposite edge.
+   *
+   * @see #fence
+   * @see #window
+   */
+  public void wrap() { turtle.wrap(); }
+
+
   /**
    * Return the Turtle's X-coordinate 
    * @see #setxy
@@ -26,7 +26,8 @@ public abstract class TurtlePixels
    //
    private boolean[] turtleFillMask;    // used to determine which pixels in
                                         // baseTurtlePixels[] change when the
-                                        // pen color changes
+                                        // pen color changes; only while the
+                                        // shape is being built
    private Color turtleColor;		// inner pixels Color
    private float turtleHeading;         // radians in conventional/AWT manner
    private int pixRectSideSize;         // this needs to be computed such
@@ -41,12 +42,17 @@ public abstract class TurtlePixels
                                         // in the constructor
    private int[] baseTurtlePixels;      // pixel array for the turtle in an
                                         // EASTern orientation, i.e. headed
-                                        // along the positive X axis
+                                        // along the positive X axis; only
+                                        // while the shape is being built
    private int[] turtlePixRect;         // pixel array for current turtle's
                                         // image - if it's visible.  it is
                                         // oriented in the current heading
                                         // and its body is filled with the
-                                        // current color
+                                        // current color.  shared, from
+                                        // TGShapeAtlas' cache
+   private TGShapeAtlas.Shape shape;    // baseTurtlePixels and which of
+                                        // them to fill, shared by all
+                                        // turtles of this class and size
 
 
    //
@@ -70,18 +76,25 @@ public abstract class TurtlePixels
          pixRectSideSize = width + width/4;
       if ( pixRectSideSize % 2 != 0 )
          pixRectSideSize++;
-      baseTurtlePixels = new int[pixRectSideSize * pixRectSideSize];
-      for (int pixIdx=0; pixIdx < baseTurtlePixels.length; pixIdx++)
-         baseTurtlePixels[pixIdx] = WHITE_OPAQUE_PIXEL;
-      initTurtlePixels( baseTurtlePixels, pixRectSideSize );
-      clearToTurtleEdge();
-      buildTurtleFillMask();
+      // the shape only depends on the subclass and size, so only the
+      // first turtle of a kind draws it
+      String shapeKey = getClass().getName() + " " + width + "x" + height;
+      shape = TGShapeAtlas.getShape( shapeKey );
+      if ( shape == null )
+      {
+         baseTurtlePixels = new int[pixRectSideSize * pixRectSideSize];
+         for (int pixIdx=0; pixIdx < baseTurtlePixels.length; pixIdx++)
+            baseTurtlePixels[pixIdx] = WHITE_OPAQUE_PIXEL;
+         initTurtlePixels( baseTurtlePixels, pixRectSideSize );
+         clearToTurtleEdge();
+         buildTurtleFillMask();
+         shape = new TGShapeAtlas.Shape( pixRectSideSize, baseTurtlePixels,
+                                         turtleFillMask );
+         shape = TGShapeAtlas.putShape( shapeKey, shape );
+         baseTurtlePixels = null;
+         turtleFillMask = null;
+      }
       turtleColor = color;
-      int pixel = turtleColor.getRGB();
-      pixel |= PIXEL_OPACITY_BITS;
-      for (int pixIdx=0; pixIdx < baseTurtlePixels.length; pixIdx++)
-         if ( turtleFillMask[pixIdx] == true )
-            baseTurtlePixels[pixIdx] = pixel;
       turtleHeading = heading;
       updateTurtlePixels( heading );
 
@@ -326,8 +339,9 @@ public abstract class TurtlePixels
    { return ((float) y2 - y1) / ((float) x2 - x1); }
 
 
-   // fill turtlePixRect[] to reflect the specified heading (in radians)
-   // which is the amount of rotation needed since baseTurtlePixels[] is
+   // point turtlePixRect[] at the image of the shape in the current
+   // color and rotated to the specified heading (in radians), making
+   // it if TGShapeAtlas doesn't have it.  the shape's pixels are
    // aligned to 0.0.  i use a 'Reverse-Rotation' algorithm, computing
    // which pixel in the original image maps to every pixel in the new
    // image (vs projecting forward) to avoid holes due to rounding errors.
@@ -339,12 +353,19 @@ public abstract class TurtlePixels
    //
    private void updateTurtlePixels( float heading )
    {
-      if ( turtlePixRect == null )
-         turtlePixRect = new int[pixRectSideSize * pixRectSideSize];
+      int fillPixel = turtleColor.getRGB() | PIXEL_OPACITY_BITS;
+      int[] pixels = TGShapeAtlas.getImage( shape, fillPixel, heading );
+      if ( pixels != null )
+      {
+         turtlePixRect = pixels;
+         return;
+      }
+      int[] colorPixels = shape.pixels.clone();
+      for (int i=0; i < shape.fillIdx.length; i++)
+         colorPixels[ shape.fillIdx[i] ] = fillPixel;
       if ( heading == 0.0F )
          // no translation if heading aligned with orig image
-         for (int i=0; i < pixRectSideSize * pixRectSideSize; i++)
-            turtlePixRect[i] = baseTurtlePixels[i];
+         pixels = colorPixels;
       else
       {
          // int center = Math.round(((float)pixRectSideSize ) / 2.0F) - 1;
@@ -353,10 +374,8 @@ public abstract class TurtlePixels
          double cosTheta = Math.cos( theta );
          double sinTheta = Math.sin( theta );
 
-         // first zap destination, make all pixels transparent
-         for (int y=0; y < pixRectSideSize; y++)
-            for (int x=0; x < pixRectSideSize; x++)
-               turtlePixRect[y * pixRectSideSize + x] = 0;
+         // a new array's pixels are all transparent
+         pixels = new int[pixRectSideSize * pixRectSideSize];
          for (int row=0; row < pixRectSideSize; row++)
          {
             int rowIdx = row * pixRectSideSize;
@@ -373,11 +392,12 @@ public abstract class TurtlePixels
                if ( srcY < 0 || srcY >= pixRectSideSize )
                   continue;
                int pixelIndex = srcY * pixRectSideSize + srcX;
-               int pixel = baseTurtlePixels[ pixelIndex ];
-               turtlePixRect[rowIdx + col] = pixel;
+               int pixel = colorPixels[ pixelIndex ];
+               pixels[rowIdx + col] = pixel;
             }
          }
       }
+      turtlePixRect = TGShapeAtlas.putImage( shape, fillPixel, heading, pixels );
 
    } //end updateTurtlePixels()
 
@@ -456,7 +476,9 @@ public abstract class TurtlePixels
       String outOfBounds = " out of bounds";
 
       //System.out.println( me + "x=" + x  + ", y=" + y );
-      if ( x < 0 || x >= pixRectSideSize )
+      if ( baseTurtlePixels == null )
+         System.err.println( me + "shape already built, it is shared" );
+      else if ( x < 0 || x >= pixRectSideSize )
          System.err.println( me + "x=" + x + outOfBounds );
       else if ( y < 0 || y >= pixRectSideSize )
          System.err.println( me + "y=" + y + outOfBounds );
@@ -467,7 +489,8 @@ public abstract class TurtlePixels
 
 
    /**
-    * Return a pointer to the turtle's pixels
+    * Return a pointer to the turtle's pixels.  They are shared with
+    * other turtles; don't change them
     */
    public int[] getPixels()
    { return turtlePixRect; }
@@ -524,16 +547,8 @@ public abstract class TurtlePixels
    {
       if ( newColor != turtleColor )
       {
-         int rgbVals = newColor.getRGB();
-         for (int pixIdx=0; pixIdx < baseTurtlePixels.length; pixIdx++)
-            if ( turtleFillMask[pixIdx] == true )
-            {
-               int pixel = baseTurtlePixels[pixIdx] & PIXEL_OPACITY_BITS;
-               pixel += rgbVals;
-               baseTurtlePixels[pixIdx] = pixel;
-            }
-         updateTurtlePixels( turtleHeading );
 	 turtleColor = newColor;
+         updateTurtlePixels( turtleHeading );
          return true;
       }
       return false;
@@ -2,14 +2,40 @@ javac ArrowTurtle.java
 javac BallTurtle.java
 javac BoxTurtle.java
 javac CrossTurtle.java
+javac TGActiveRenderer.java
 javac TGCanvas.java
+javac TGCompactor.java
+javac TGDirtyTiles.java
+javac TGDisplayList.java
+javac TGDragBuffer.java
+javac TGDragHandler.java
+javac TGDragStroke.java
 javac TGFillOp.java
+javac TGFrameCapture.java
 javac TGGraphicsOp.java
+javac TGGraphicsOpHandler.java
+javac TGImageClearer.java
+javac TGInputDispatcher.java
 javac TGKeyHandler.java
+javac TGLabelCache.java
 javac TGLabelOp.java
 javac TGLineOp.java
+javac TGLSystem.java
+javac TGLSystemTask.java
 javac TGMouseHandler.java
+javac TGOffHeapBuffer.java
+javac TGPalette.java
+javac TGPngEncoder.java
 javac TGPoint.java
+javac TGPolylineOp.java
+javac TGPyramid.java
+javac TGRenderThread.java
+javac TGShapeAtlas.java
+javac TGSnapshot.java
+javac TGSpatialIndex.java
+javac TGSupersampler.java
+javac TGSvgWriter.java
+javac TGTurtleState.java
 javac TriangleTurtle.java
 javac Turtle.java
 javac TurtleGraphicsWindow.java